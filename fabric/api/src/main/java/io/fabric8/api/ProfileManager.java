@@ -74,6 +74,17 @@ public interface ProfileManager {
      */
     ProfileVersion addProfileVersion(ProfileVersion profileVersion);
 
+    /**
+     * Create a new profile version that shares all profiles of the given source version.
+     * Profiles are not copied, only subsequent changes to the new version are written.
+     */
+    ProfileVersion forkProfileVersion(VersionIdentity source, VersionIdentity target);
+
+    /**
+     * Get the changes between the given profile versions
+     */
+    ProfileVersionDiff diffProfileVersions(VersionIdentity source, VersionIdentity target);
+
     /**
      * Remove a profile version
      */
@@ -119,4 +130,15 @@ public interface ProfileManager {
      * Update the given profile
      */
     Profile updateProfile(Profile profile, ProfileEventListener listener);
+
+    /**
+     * Add, update and remove profiles of the given version in a single change.
+     *
+     * The given profiles replace existing profiles with the same identity or are added otherwise.
+     * All changes are applied together or not at all, and a single {@link ProfileVersionEvent} is emitted.
+     *
+     * @param profiles The profiles to add or update
+     * @param removed The identities of the profiles to remove
+     */
+    ProfileVersion updateProfiles(VersionIdentity version, Set<Profile> profiles, Set<ProfileIdentity> removed, ProfileVersionEventListener listener);
 }
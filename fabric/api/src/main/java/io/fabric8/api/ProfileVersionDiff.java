@@ -0,0 +1,188 @@
+/*
+ * #%L
+ * Fabric8 :: API
+ * %%
+ * Copyright (C) 2014 Red Hat
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.fabric8.api;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.jboss.gravia.utils.IllegalArgumentAssertion;
+
+/**
+ * The changes between two profile versions
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 07-Jul-2014
+ *
+ * @Immutable
+ */
+public final class ProfileVersionDiff {
+
+    private final VersionIdentity source;
+    private final VersionIdentity target;
+    private final Set<ProfileIdentity> added;
+    private final Set<ProfileIdentity> removed;
+    private final Map<ProfileIdentity, ProfileDiff> modified;
+
+    public ProfileVersionDiff(VersionIdentity source, VersionIdentity target, Set<ProfileIdentity> added, Set<ProfileIdentity> removed, Set<ProfileDiff> modified) {
+        IllegalArgumentAssertion.assertNotNull(source, "source");
+        IllegalArgumentAssertion.assertNotNull(target, "target");
+        IllegalArgumentAssertion.assertNotNull(added, "added");
+        IllegalArgumentAssertion.assertNotNull(removed, "removed");
+        IllegalArgumentAssertion.assertNotNull(modified, "modified");
+        this.source = source;
+        this.target = target;
+        this.added = Collections.unmodifiableSet(new LinkedHashSet<>(added));
+        this.removed = Collections.unmodifiableSet(new LinkedHashSet<>(removed));
+        Map<ProfileIdentity, ProfileDiff> diffs = new LinkedHashMap<>();
+        for (ProfileDiff diff : modified) {
+            diffs.put(diff.getIdentity(), diff);
+        }
+        this.modified = Collections.unmodifiableMap(diffs);
+    }
+
+    public VersionIdentity getSourceVersion() {
+        return source;
+    }
+
+    public VersionIdentity getTargetVersion() {
+        return target;
+    }
+
+    /**
+     * Get the profiles that only exist in the target version
+     */
+    public Set<ProfileIdentity> getAddedProfiles() {
+        return added;
+    }
+
+    /**
+     * Get the profiles that only exist in the source version
+     */
+    public Set<ProfileIdentity> getRemovedProfiles() {
+        return removed;
+    }
+
+    /**
+     * Get the profiles that exist in both versions with different content
+     */
+    public Set<ProfileIdentity> getModifiedProfiles() {
+        return modified.keySet();
+    }
+
+    /**
+     * Get the changes of a modified profile
+     * @return null if the profile is not modified
+     */
+    public ProfileDiff getProfileDiff(ProfileIdentity identity) {
+        return modified.get(identity);
+    }
+
+    /**
+     * True if any of the given profiles was added, removed or modified
+     */
+    public boolean containsAny(Collection<ProfileIdentity> profiles) {
+        for (ProfileIdentity profile : profiles) {
+            if (added.contains(profile) || removed.contains(profile) || modified.containsKey(profile)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean isEmpty() {
+        return added.isEmpty() && removed.isEmpty() && modified.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "ProfileVersionDiff[" + source + "=>" + target + ",added=" + added + ",removed=" + removed + ",modified=" + modified.keySet() + "]";
+    }
+
+    /**
+     * The changes of a profile that exists in both versions
+     *
+     * @Immutable
+     */
+    public static final class ProfileDiff {
+
+        private final ProfileIdentity identity;
+        private final boolean parentsModified;
+        private final boolean attributesModified;
+        private final Set<String> addedItems;
+        private final Set<String> removedItems;
+        private final Set<String> modifiedItems;
+
+        public ProfileDiff(ProfileIdentity identity, boolean parentsModified, boolean attributesModified, Set<String> addedItems, Set<String> removedItems, Set<String> modifiedItems) {
+            IllegalArgumentAssertion.assertNotNull(identity, "identity");
+            this.identity = identity;
+            this.parentsModified = parentsModified;
+            this.attributesModified = attributesModified;
+            this.addedItems = Collections.unmodifiableSet(new LinkedHashSet<>(addedItems));
+            this.removedItems = Collections.unmodifiableSet(new LinkedHashSet<>(removedItems));
+            this.modifiedItems = Collections.unmodifiableSet(new LinkedHashSet<>(modifiedItems));
+        }
+
+        public ProfileIdentity getIdentity() {
+            return identity;
+        }
+
+        public boolean isParentsModified() {
+            return parentsModified;
+        }
+
+        public boolean isAttributesModified() {
+            return attributesModified;
+        }
+
+        /**
+         * Get the identities of the items that only exist in the target profile
+         */
+        public Set<String> getAddedItems() {
+            return addedItems;
+        }
+
+        /**
+         * Get the identities of the items that only exist in the source profile
+         */
+        public Set<String> getRemovedItems() {
+            return removedItems;
+        }
+
+        /**
+         * Get the identities of the items that exist in both profiles with different content
+         */
+        public Set<String> getModifiedItems() {
+            return modifiedItems;
+        }
+
+        public boolean isEmpty() {
+            return !parentsModified && !attributesModified && addedItems.isEmpty() && removedItems.isEmpty() && modifiedItems.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            return "ProfileDiff[" + identity + ",added=" + addedItems + ",removed=" + removedItems + ",modified=" + modifiedItems + "]";
+        }
+    }
+}
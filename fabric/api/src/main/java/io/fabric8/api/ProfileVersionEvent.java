@@ -0,0 +1,66 @@
+/*
+ * #%L
+ * Fabric8 :: API
+ * %%
+ * Copyright (C) 2014 Red Hat
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.fabric8.api;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.jboss.gravia.utils.IllegalArgumentAssertion;
+
+/**
+ * A profile version event
+ *
+ * The event is emitted once for a batch of profile changes in a version.
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 04-Jul-2014
+ */
+@SuppressWarnings("serial")
+public class ProfileVersionEvent extends FabricEvent<ProfileVersion, ProfileVersionEvent.EventType> {
+
+    public enum EventType {
+        UPDATED, ERROR
+    }
+
+    private final Set<ProfileIdentity> profiles;
+
+    public ProfileVersionEvent(ProfileVersion profileVersion, EventType type, Set<ProfileIdentity> profiles) {
+        this(profileVersion, type, profiles, null);
+    }
+
+    public ProfileVersionEvent(ProfileVersion profileVersion, EventType type, Set<ProfileIdentity> profiles, Throwable error) {
+        super(profileVersion, type, error);
+        IllegalArgumentAssertion.assertNotNull(profiles, "profiles");
+        this.profiles = Collections.unmodifiableSet(new LinkedHashSet<>(profiles));
+    }
+
+    /**
+     * Get the identities of the added, updated or removed profiles
+     */
+    public Set<ProfileIdentity> getProfiles() {
+        return profiles;
+    }
+
+    @Override
+    public String toString() {
+        return "ProfileVersionEvent[source=" + getSource().getIdentity() + ",type=" + getType() + ",profiles=" + profiles + "]";
+    }
+}
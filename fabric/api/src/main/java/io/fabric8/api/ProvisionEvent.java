@@ -19,6 +19,11 @@
  */
 package io.fabric8.api;
 
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.jboss.gravia.resource.ResourceIdentity;
 import org.jboss.gravia.utils.IllegalArgumentAssertion;
 
 
@@ -37,21 +42,59 @@ public class ProvisionEvent extends FabricEvent<Container, ProvisionEvent.EventT
     }
 
     private final Profile profile;
+    private final Set<String> configurations;
+    private final Set<ResourceIdentity> installed;
+    private final Set<ResourceIdentity> uninstalled;
 
     public ProvisionEvent(Container source, EventType type, Profile profile) {
         this(source, type, profile, null);
     }
 
     public ProvisionEvent(Container source, EventType type, Profile profile, Throwable error) {
+        this(source, type, profile, Collections.<String>emptySet(), Collections.<ResourceIdentity>emptySet(), Collections.<ResourceIdentity>emptySet(), error);
+    }
+
+    public ProvisionEvent(Container source, EventType type, Profile profile, Set<String> configurations, Set<ResourceIdentity> installed, Set<ResourceIdentity> uninstalled) {
+        this(source, type, profile, configurations, installed, uninstalled, null);
+    }
+
+    private ProvisionEvent(Container source, EventType type, Profile profile, Set<String> configurations, Set<ResourceIdentity> installed, Set<ResourceIdentity> uninstalled, Throwable error) {
         super(source, type, error);
         IllegalArgumentAssertion.assertNotNull(profile, "profile");
+        IllegalArgumentAssertion.assertNotNull(configurations, "configurations");
+        IllegalArgumentAssertion.assertNotNull(installed, "installed");
+        IllegalArgumentAssertion.assertNotNull(uninstalled, "uninstalled");
         this.profile = profile;
+        this.configurations = Collections.unmodifiableSet(new LinkedHashSet<>(configurations));
+        this.installed = Collections.unmodifiableSet(new LinkedHashSet<>(installed));
+        this.uninstalled = Collections.unmodifiableSet(new LinkedHashSet<>(uninstalled));
     }
 
     public Profile getProfile() {
         return profile;
     }
 
+    /**
+     * Get the identities of the configuration items that were applied
+     */
+    public Set<String> getConfigurations() {
+        return configurations;
+    }
+
+    /**
+     * Get the identities of the resources that were installed
+     */
+    public Set<ResourceIdentity> getInstalledResources() {
+        return installed;
+    }
+
+    /**
+     * Get the identities of the resources that were uninstalled
+     */
+    public Set<ResourceIdentity> getUninstalledResources() {
+        return uninstalled;
+    }
+
     @Override
     public String toString() {
         return "ProvisionEvent[source=" + getSource().getIdentity() + ",profile=" + profile.getIdentity() + ",type=" + getType() + "]";
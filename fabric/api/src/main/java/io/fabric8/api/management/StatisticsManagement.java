@@ -0,0 +1,47 @@
+/*
+ * #%L
+ * Fabric8 :: API
+ * %%
+ * Copyright (C) 2014 Red Hat
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.fabric8.api.management;
+
+import io.fabric8.api.Constants;
+
+import java.util.Map;
+
+import javax.management.ObjectName;
+
+import org.jboss.gravia.utils.ObjectNameFactory;
+
+/**
+ * The statistics management interface
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 20-Jul-2014
+ */
+public interface StatisticsManagement {
+
+    /**
+     * The ObjectName: fabric8:type=StatisticsManagement
+     */
+    ObjectName OBJECT_NAME = ObjectNameFactory.create(Constants.MANAGEMENT_DOMAIN + ":type=" + StatisticsManagement.class.getSimpleName());
+
+    /**
+     * Get the current statistics of the fabric services, keyed by statistic name
+     */
+    Map<String, Long> getStatistics();
+}
@@ -0,0 +1,249 @@
+/*
+ * #%L
+ * Fabric8 :: Core
+ * %%
+ * Copyright (C) 2014 Red Hat
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.fabric8.core;
+
+import io.fabric8.core.utils.DigestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.gravia.utils.IOUtils;
+import org.jboss.gravia.utils.IllegalArgumentAssertion;
+import org.jboss.gravia.utils.IllegalStateAssertion;
+
+/**
+ * A content addressed store for resource content
+ *
+ * Each blob is stored once under the hex encoded SHA-256 digest of its content.
+ * Blobs are immutable, so they can be read concurrently without locking.
+ *
+ * An in-memory store keeps its blobs on the heap and reads blobs that it does not hold
+ * from an optional seed directory, which is never written to.
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 03-Jul-2014
+ */
+final class BlobStore {
+
+    private static final String MEMORY_PROTOCOL = "blob";
+
+    private final Path rootPath;
+    private final Path seedPath;
+    private final ConcurrentMap<String, byte[]> memoryBlobs;
+    private final AtomicLong storedCount = new AtomicLong();
+    private final AtomicLong dedupCount = new AtomicLong();
+    private final AtomicLong dedupBytes = new AtomicLong();
+
+    BlobStore(Path rootPath) throws IOException {
+        IllegalArgumentAssertion.assertNotNull(rootPath, "rootPath");
+        this.rootPath = rootPath;
+        this.seedPath = null;
+        this.memoryBlobs = null;
+        Files.createDirectories(rootPath);
+    }
+
+    private BlobStore(Path seedPath, ConcurrentMap<String, byte[]> memoryBlobs) {
+        this.rootPath = null;
+        this.seedPath = seedPath;
+        this.memoryBlobs = memoryBlobs;
+    }
+
+    /**
+     * Create a store that keeps its blobs in memory
+     * @param seedPath The directory of a blob store to read missing blobs from, may be null
+     */
+    static BlobStore inMemory(Path seedPath) {
+        return new BlobStore(seedPath, new ConcurrentHashMap<String, byte[]>());
+    }
+
+    /**
+     * Store the given content and close the stream
+     * @return The digest of the content
+     */
+    String putContent(InputStream content) throws IOException {
+        IllegalArgumentAssertion.assertNotNull(content, "content");
+        if (memoryBlobs != null) {
+            return putMemoryContent(content);
+        }
+        Path tmpPath = Files.createTempFile(rootPath, "blob", ".tmp");
+        try {
+            MessageDigest digest = DigestUtils.getMessageDigest();
+            DigestInputStream input = new DigestInputStream(content, digest);
+            try {
+                OutputStream output = Files.newOutputStream(tmpPath);
+                try {
+                    IOUtils.copyStream(input, output);
+                } finally {
+                    IOUtils.safeClose(output);
+                }
+            } finally {
+                IOUtils.safeClose(input);
+            }
+            String hash = DigestUtils.toHex(digest.digest());
+            long size = Files.size(tmpPath);
+            Path blobPath = getBlobPath(rootPath, hash);
+            if (Files.exists(blobPath)) {
+                dedupCount.incrementAndGet();
+                dedupBytes.addAndGet(size);
+            } else {
+                Files.createDirectories(blobPath.getParent());
+                try {
+                    Files.move(tmpPath, blobPath, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException ex) {
+                    Files.move(tmpPath, blobPath);
+                } catch (FileAlreadyExistsException ex) {
+                    // Stored concurrently with the same content
+                }
+                storedCount.incrementAndGet();
+            }
+            return hash;
+        } finally {
+            Files.deleteIfExists(tmpPath);
+        }
+    }
+
+    private String putMemoryContent(InputStream content) throws IOException {
+        MessageDigest digest = DigestUtils.getMessageDigest();
+        DigestInputStream input = new DigestInputStream(content, digest);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try {
+            IOUtils.copyStream(input, output);
+        } finally {
+            IOUtils.safeClose(input);
+        }
+        String hash = DigestUtils.toHex(digest.digest());
+        byte[] bytes = output.toByteArray();
+        if (memoryBlobs.putIfAbsent(hash, bytes) != null) {
+            dedupCount.incrementAndGet();
+            dedupBytes.addAndGet(bytes.length);
+        } else {
+            storedCount.incrementAndGet();
+        }
+        return hash;
+    }
+
+    /**
+     * Get the URL of the blob with the given digest
+     */
+    URL getBlobURL(String hash) throws IOException {
+        IllegalArgumentAssertion.assertTrue(isValidHash(hash), "Invalid blob hash: " + hash);
+        if (memoryBlobs != null) {
+            if (!memoryBlobs.containsKey(hash) && seedPath != null) {
+                return getBlobPath(seedPath, hash).toUri().toURL();
+            }
+            return new URL(null, MEMORY_PROTOCOL + ":" + hash, new MemoryBlobURLStreamHandler());
+        }
+        return getBlobPath(rootPath, hash).toUri().toURL();
+    }
+
+    /**
+     * Get the URL of an existing blob with the given digest
+     */
+    URL getRequiredBlobURL(String hash) throws IOException {
+        IllegalStateAssertion.assertTrue(hasBlob(hash), "Cannot find blob: " + hash);
+        return getBlobURL(hash);
+    }
+
+    private boolean hasBlob(String hash) {
+        IllegalArgumentAssertion.assertTrue(isValidHash(hash), "Invalid blob hash: " + hash);
+        if (memoryBlobs != null) {
+            return memoryBlobs.containsKey(hash) || (seedPath != null && Files.isRegularFile(getBlobPath(seedPath, hash)));
+        }
+        return Files.isRegularFile(getBlobPath(rootPath, hash));
+    }
+
+    private static Path getBlobPath(Path basePath, String hash) {
+        return basePath.resolve(hash.substring(0, 2)).resolve(hash.substring(2));
+    }
+
+    static boolean isValidHash(String hash) {
+        if (hash == null || hash.length() != 64)
+            return false;
+        for (int i = 0; i < hash.length(); i++) {
+            if (Character.digit(hash.charAt(i), 16) < 0)
+                return false;
+        }
+        return true;
+    }
+
+    void collectStatistics(Map<String, Long> statistics) {
+        statistics.put("BlobStore.stored", storedCount.get());
+        statistics.put("BlobStore.deduplicated", dedupCount.get());
+        statistics.put("BlobStore.savedBytes", dedupBytes.get());
+    }
+
+    @Override
+    public String toString() {
+        return "BlobStore[stored=" + storedCount + ",deduplicated=" + dedupCount + ",saved=" + dedupBytes + "bytes]";
+    }
+
+    /**
+     * Opens the in-memory blob named by the URL
+     */
+    private final class MemoryBlobURLStreamHandler extends URLStreamHandler {
+
+        @Override
+        protected URLConnection openConnection(URL url) throws IOException {
+            final byte[] bytes = memoryBlobs.get(url.getPath());
+            if (bytes == null)
+                throw new IOException("Cannot find blob: " + url);
+            return new URLConnection(url) {
+
+                @Override
+                public void connect() throws IOException {
+                    connected = true;
+                }
+
+                @Override
+                public long getContentLengthLong() {
+                    return bytes.length;
+                }
+
+                @Override
+                public int getContentLength() {
+                    return bytes.length;
+                }
+
+                @Override
+                public InputStream getInputStream() throws IOException {
+                    connect();
+                    return new ByteArrayInputStream(bytes);
+                }
+            };
+        }
+    }
+}
@@ -30,6 +30,7 @@ import java.net.URLStreamHandler;
 import java.util.Dictionary;
 import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 
@@ -87,10 +88,11 @@ public final class BootstrapService extends AbstractComponent {
 
         // Apply default {@link ConfigurationProfileItem}s
         Profile profile = profileService.get().getDefaultProfile();
+        Map<String, Map<String, Object>> configs = new LinkedHashMap<>();
         for (ConfigurationItem item : profile.getProfileItems(ConfigurationItem.class)) {
-            Map<String, Object> config = item.getDefaultAttributes();
-            configurationManager.get().applyConfiguration(item.getIdentity(), config);
+            configs.put(item.getIdentity(), item.getDefaultAttributes());
         }
+        configurationManager.get().applyConfigurations(configs);
     }
 
     void bindConfigurationManager(ConfigurationManager service) {
@@ -19,16 +19,29 @@
  */
 package io.fabric8.core;
 
+import io.fabric8.core.utils.DigestUtils;
+import io.fabric8.core.utils.TimingStatistics;
 import io.fabric8.spi.scr.AbstractComponent;
 import io.fabric8.spi.scr.ValidatingReference;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Dictionary;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.felix.scr.annotations.Activate;
 import org.apache.felix.scr.annotations.Component;
@@ -37,8 +50,12 @@ import org.apache.felix.scr.annotations.Deactivate;
 import org.apache.felix.scr.annotations.Reference;
 import org.apache.felix.scr.annotations.Service;
 import org.jboss.gravia.Constants;
+import org.jboss.gravia.utils.IllegalArgumentAssertion;
+import org.osgi.framework.InvalidSyntaxException;
 import org.osgi.service.cm.Configuration;
 import org.osgi.service.cm.ConfigurationAdmin;
+import org.osgi.service.cm.ConfigurationEvent;
+import org.osgi.service.cm.ConfigurationListener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -49,14 +66,19 @@ import org.slf4j.LoggerFactory;
  * @since 14-Mar-2014
  */
 @Component(policy = ConfigurationPolicy.IGNORE, immediate = true)
-@Service(ConfigurationManager.class)
-public final class ConfigurationManager extends AbstractComponent {
+@Service({ ConfigurationManager.class, ConfigurationListener.class, StatisticsProvider.class })
+public final class ConfigurationManager extends AbstractComponent implements ConfigurationListener, StatisticsProvider {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ConfigurationManager.class);
 
     @Reference(referenceInterface = ConfigurationAdmin.class)
     private final ValidatingReference<ConfigurationAdmin> configAdmin = new ValidatingReference<ConfigurationAdmin>();
 
+    private final Map<String, String> fingerprints = new ConcurrentHashMap<>();
+    private final AtomicLong updatedCount = new AtomicLong();
+    private final AtomicLong skippedCount = new AtomicLong();
+    private final TimingStatistics configAdminTime = new TimingStatistics("ConfigAdmin");
+
     @Activate
     void activate() {
         activateComponent();
@@ -64,21 +86,117 @@ public final class ConfigurationManager extends AbstractComponent {
 
     @Deactivate
     void deactivate() {
+        fingerprints.clear();
         deactivateComponent();
     }
 
-    void applyConfiguration(String pid, Map<String, Object> nextConfig) {
+    /**
+     * Apply the given configurations in one pass.
+     *
+     * PIDs with a fingerprint equal to the last one applied are skipped without calling {@link ConfigurationAdmin}.
+     * The remaining ones are looked up together and only updated when their content differs.
+     */
+    ApplyResult applyConfigurations(Map<String, Map<String, Object>> configs) {
+        IllegalArgumentAssertion.assertNotNull(configs, "configs");
         assertValid();
-        LOGGER.info("Apply configuration: {}", pid);
+
+        Map<String, String> candidates = new LinkedHashMap<>();
+        Set<String> skipped = new LinkedHashSet<>();
+        for (Entry<String, Map<String, Object>> entry : configs.entrySet()) {
+            String pid = entry.getKey();
+            String fingerprint = getFingerprint(entry.getValue());
+            if (fingerprint.equals(fingerprints.get(pid))) {
+                skipped.add(pid);
+            } else {
+                candidates.put(pid, fingerprint);
+            }
+        }
+
+        Set<String> updated = new LinkedHashSet<>();
+        long elapsed = 0;
+        if (!candidates.isEmpty()) {
+            long startTime = System.nanoTime();
+            try {
+                Map<String, Configuration> existing = listConfigurations(candidates.keySet());
+                for (Entry<String, String> entry : candidates.entrySet()) {
+                    String pid = entry.getKey();
+                    Map<String, Object> nextConfig = configs.get(pid);
+                    Configuration config = existing.get(pid);
+                    if (config == null) {
+                        config = configAdmin.get().getConfiguration(pid, null);
+                    }
+                    if (needsUpdate(toMap(config.getProperties()), nextConfig)) {
+                        LOGGER.info("Apply configuration: {}", pid);
+                        config.update(toDictionary(nextConfig));
+                        updated.add(pid);
+                    } else {
+                        skipped.add(pid);
+                    }
+                    fingerprints.put(pid, entry.getValue());
+                }
+            } catch (IOException ex) {
+                throw new IllegalStateException("Cannot update configurations: " + candidates.keySet(), ex);
+            } finally {
+                elapsed = configAdminTime.addSampleSince(startTime);
+            }
+        }
+        updatedCount.addAndGet(updated.size());
+        skippedCount.addAndGet(skipped.size());
+
+        ApplyResult result = new ApplyResult(updated, skipped, elapsed);
+        LOGGER.debug("Applied configurations: {}", result);
+        return result;
+    }
+
+    @Override
+    public void configurationEvent(ConfigurationEvent event) {
+        // Changes made by others invalidate the fingerprint, our own updates cost one extra comparison
+        fingerprints.remove(event.getPid());
+    }
+
+    private Map<String, Configuration> listConfigurations(Set<String> pids) throws IOException {
+        StringBuilder filter = new StringBuilder("(|");
+        for (String pid : pids) {
+            filter.append("(" + Constants.SERVICE_PID + "=" + escapeFilterValue(pid) + ")");
+        }
+        filter.append(")");
+        Map<String, Configuration> result = new HashMap<>();
         try {
-            Configuration config = configAdmin.get().getConfiguration(pid, null);
-            Map<String, Object> prevConfig = toMap(config.getProperties());
-            if (needsUpdate(prevConfig, nextConfig)) {
-                config.update(toDictionary(nextConfig));
+            Configuration[] configs = configAdmin.get().listConfigurations(filter.toString());
+            if (configs != null) {
+                for (Configuration config : configs) {
+                    result.put(config.getPid(), config);
+                }
+            }
+        } catch (InvalidSyntaxException ex) {
+            throw new IllegalStateException("Invalid configuration filter: " + filter, ex);
+        }
+        return result;
+    }
+
+    private static String escapeFilterValue(String value) {
+        StringBuilder builder = new StringBuilder();
+        for (char ch : value.toCharArray()) {
+            if (ch == '\\' || ch == '*' || ch == '(' || ch == ')') {
+                builder.append('\\');
             }
-        } catch (IOException ex) {
-            throw new IllegalStateException("Cannot update configuration: " + pid, ex);
+            builder.append(ch);
         }
+        return builder.toString();
+    }
+
+    private static String getFingerprint(Map<String, Object> config) {
+        Map<String, Object> sorted = new TreeMap<>(config);
+        sorted.remove(Constants.SERVICE_PID);
+        MessageDigest digest = DigestUtils.getMessageDigest();
+        for (Entry<String, Object> entry : sorted.entrySet()) {
+            Object value = entry.getValue();
+            String type = value != null ? value.getClass().getName() : "null";
+            String content = Arrays.deepToString(new Object[] { value });
+            digest.update((entry.getKey() + "=" + type + ":" + content).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+        }
+        return DigestUtils.toHex(digest.digest());
     }
 
     private boolean needsUpdate(Map<String, Object> prevConfig, Map<String, Object> nextConfig) {
@@ -116,5 +234,47 @@ public final class ConfigurationManager extends AbstractComponent {
 
     void unbindConfigAdmin(ConfigurationAdmin service) {
         this.configAdmin.unbind(service);
+        fingerprints.clear();
+    }
+
+    @Override
+    public void collectStatistics(Map<String, Long> statistics) {
+        statistics.put("ConfigurationManager.fingerprints", (long) fingerprints.size());
+        statistics.put("ConfigurationManager.updated", updatedCount.get());
+        statistics.put("ConfigurationManager.skipped", skippedCount.get());
+        configAdminTime.collect(statistics);
+    }
+
+    /**
+     * The outcome of applying a batch of configurations
+     */
+    static final class ApplyResult {
+
+        private final Set<String> updated;
+        private final Set<String> skipped;
+        private final long configAdminNanos;
+
+        ApplyResult(Set<String> updated, Set<String> skipped, long configAdminNanos) {
+            this.updated = Collections.unmodifiableSet(updated);
+            this.skipped = Collections.unmodifiableSet(skipped);
+            this.configAdminNanos = configAdminNanos;
+        }
+
+        Set<String> getUpdated() {
+            return updated;
+        }
+
+        Set<String> getSkipped() {
+            return skipped;
+        }
+
+        long getConfigAdminTime(TimeUnit unit) {
+            return unit.convert(configAdminNanos, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public String toString() {
+            return "ApplyResult[updated=" + updated + ",skipped=" + skipped.size() + ",configAdmin=" + getConfigAdminTime(TimeUnit.MILLISECONDS) + "ms]";
+        }
     }
 }
@@ -25,12 +25,26 @@ import io.fabric8.api.LockHandle;
 import io.fabric8.core.zookeeper.ZkPath;
 import io.fabric8.core.zookeeper.locks.Lock;
 import io.fabric8.core.zookeeper.locks.ReadWriteLock;
+import io.fabric8.core.utils.TimingStatistics;
+import io.fabric8.spi.RuntimeService;
 import io.fabric8.spi.scr.AbstractComponent;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Stack;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import io.fabric8.spi.scr.ValidatingReference;
 
@@ -45,33 +59,108 @@ import org.apache.felix.scr.annotations.Service;
 import org.apache.zookeeper.KeeperException.NodeExistsException;
 import org.jboss.gravia.utils.IllegalArgumentAssertion;
 import org.jboss.gravia.utils.IllegalStateAssertion;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 
 /**
  * A manager for distributed container locks
  *
+ * A container lock has two levels. Threads in this JVM are coordinated by a local {@link ReentrantReadWriteLock}.
+ * Only the first local holder acquires a distributed lease from ZooKeeper, which is shared by all local holders
+ * and released when the last local holder unlocks. If a lease linger time is configured, the lease is kept
+ * for that time after the last unlock, so that repeated acquisitions from this JVM are local memory operations.
+ *
+ * A distributed lease is owned by the thread that acquired it. Each lease is therefore acquired and released
+ * on a lease thread of its own, so that the release of a lease is never queued behind the acquisition of another.
+ * ZooKeeper is never called while holding the monitor of a container lock, local holders that need the lease
+ * wait for an acquisition in progress.
+ *
  * @author thomas.diesler@jboss.com
  * @since 05-Jun-2014
  */
 @Component(immediate = true)
-@Service(ContainerLockManager.class)
-public final class ContainerLockManager extends AbstractComponent {
+@Service({ ContainerLockManager.class, StatisticsProvider.class })
+public final class ContainerLockManager extends AbstractComponent implements StatisticsProvider {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ContainerLockManager.class);
 
-    private final Map<ContainerIdentity, ReadWriteLock> containerLocks = new HashMap<>();
+    /**
+     * The time in milliseconds that an unused distributed lease is kept, 0 to release it immediately
+     */
+    static final String PROPERTY_LOCK_LEASE_LINGER = "fabric8.container.lock.linger";
+    private final Map<ContainerIdentity, ContainerLock> containerLocks = new HashMap<>();
     private final static ThreadLocal<Stack<ContainerIdentity>> readLockAssociation = new ThreadLocal<>();
     private final static ThreadLocal<Stack<ContainerIdentity>> writeLockAssociation = new ThreadLocal<>();
+    private final TimingStatistics lockWaitTime = new TimingStatistics("ContainerLockWait");
+    private final TimingStatistics leaseWaitTime = new TimingStatistics("ContainerLeaseWait");
+    private final AtomicLong localAcquisitions = new AtomicLong();
+    private final AtomicInteger leaseThreadCount = new AtomicInteger();
+    private long leaseLinger;
+    private ScheduledExecutorService scheduler;
 
     @Reference(referenceInterface = CuratorFramework.class)
     private ValidatingReference<CuratorFramework> curator = new ValidatingReference<>();
+    @Reference(referenceInterface = RuntimeService.class)
+    private final ValidatingReference<RuntimeService> runtimeService = new ValidatingReference<>();
 
     @Activate
     void activate() {
+        activateInternal();
         activateComponent();
     }
 
     @Deactivate
     void deactivate() {
         deactivateComponent();
+        deactivateInternal();
+    }
+
+    private void activateInternal() {
+        leaseLinger = Long.parseLong(runtimeService.get().getProperty(PROPERTY_LOCK_LEASE_LINGER, "0"));
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable run) {
+                Thread thread = new Thread(run, ContainerLockManager.class.getSimpleName());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    private void deactivateInternal() {
+        scheduler.shutdownNow();
+        ArrayList<ContainerLock> locks;
+        synchronized (containerLocks) {
+            locks = new ArrayList<>(containerLocks.values());
+            containerLocks.clear();
+        }
+        for (ContainerLock lock : locks) {
+            lock.close();
+        }
+    }
+
+    /**
+     * The lock and lease wait times and the number of lock acquisitions that did not need to acquire a distributed lease
+     */
+    @Override
+    public void collectStatistics(Map<String, Long> statistics) {
+        lockWaitTime.collect(statistics);
+        leaseWaitTime.collect(statistics);
+        statistics.put("ContainerLock.localAcquisitions", localAcquisitions.get());
+    }
+
+    // A lease is acquired and released on a thread of its own
+    private ExecutorService newLeaseExecutor() {
+        final String threadName = "ContainerLease-" + leaseThreadCount.incrementAndGet();
+        return Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable run) {
+                Thread thread = new Thread(run, threadName);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
     }
 
     LockHandle aquireWriteLock(ContainerIdentity identity) {
@@ -147,7 +236,7 @@ public final class ContainerLockManager extends AbstractComponent {
 
     private ReadWriteLock getReadWriteLock(ContainerIdentity identity) {
         synchronized (containerLocks) {
-            ReadWriteLock readWriteLock = containerLocks.get(identity);
+            ContainerLock readWriteLock = containerLocks.get(identity);
             if (readWriteLock == null) {
                 String path = ZkPath.LOCK_CONTAINER.getPath(identity.getSymbolicName());
                 try {
@@ -157,57 +246,266 @@ public final class ContainerLockManager extends AbstractComponent {
                 } catch (Exception ex) {
                     throw FabricException.launderThrowable(ex);
                 }
-                readWriteLock = new InternalReadWriteLock(new InterProcessReadWriteLock(curator.get(), path));
+                readWriteLock = new ContainerLock(identity, new InterProcessReadWriteLock(curator.get(), path));
                 containerLocks.put(identity, readWriteLock);
             }
             return readWriteLock;
         }
     }
 
-
-    private class InternalReadWriteLock implements ReadWriteLock {
-
-        private final InterProcessReadWriteLock delegate;
-
-        private InternalReadWriteLock(InterProcessReadWriteLock delegate) {
-            this.delegate = delegate;
+    /**
+     * A local read/write lock backed by a distributed lease that is shared by all local holders
+     */
+    private final class ContainerLock implements ReadWriteLock {
+
+        private final ContainerIdentity identity;
+        private final ReentrantReadWriteLock localLock = new ReentrantReadWriteLock(true);
+        private final InterProcessReadWriteLock distributedLock;
+
+        // guarded by this
+        private InterProcessMutex lease;
+        private ExecutorService leaseExecutor;
+        private boolean acquiring;
+        private int holders;
+        private ScheduledFuture<?> releaseFuture;
+
+        private ContainerLock(ContainerIdentity identity, InterProcessReadWriteLock distributedLock) {
+            this.identity = identity;
+            this.distributedLock = distributedLock;
         }
 
         @Override
         public Lock readLock() {
-            return new InternalLock(delegate.readLock());
+            return new InternalLock(this, false);
         }
 
         @Override
         public Lock writeLock() {
-            return new InternalLock(delegate.writeLock());
+            return new InternalLock(this, true);
+        }
+
+        private boolean tryLock(boolean exclusive, long time, TimeUnit unit) {
+            long startTime = System.nanoTime();
+            long deadline = startTime + unit.toNanos(time);
+            java.util.concurrent.locks.Lock local = exclusive ? localLock.writeLock() : localLock.readLock();
+            try {
+                if (!local.tryLock(time, unit)) {
+                    return false;
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            boolean success = false;
+            try {
+                InterProcessMutex required = exclusive ? distributedLock.writeLock() : distributedLock.readLock();
+                InterProcessMutex obsolete = null;
+                ExecutorService obsoleteExecutor = null;
+                synchronized (this) {
+                    if (releaseFuture != null) {
+                        releaseFuture.cancel(false);
+                        releaseFuture = null;
+                    }
+                    // Wait while another local holder acquires the lease, without blocking the monitor
+                    while (acquiring && System.nanoTime() < deadline) {
+                        try {
+                            TimeUnit.NANOSECONDS.timedWait(this, deadline - System.nanoTime());
+                        } catch (InterruptedException ex) {
+                            Thread.currentThread().interrupt();
+                            return false;
+                        }
+                    }
+                    if (acquiring) {
+                        return false;
+                    }
+                    if (lease != null && (!exclusive || lease == required)) {
+                        localAcquisitions.incrementAndGet();
+                        holders++;
+                        success = true;
+                        return true;
+                    }
+                    if (lease != null) {
+                        // All local holders are gone, upgrade the cached read lease
+                        obsolete = lease;
+                        obsoleteExecutor = leaseExecutor;
+                        lease = null;
+                        leaseExecutor = null;
+                    }
+                    acquiring = true;
+                }
+
+                // Talk to ZooKeeper outside the monitor
+                ExecutorService executor = newLeaseExecutor();
+                long leaseStart = System.nanoTime();
+                try {
+                    if (obsolete != null) {
+                        releaseLease(obsolete, obsoleteExecutor);
+                    }
+                    success = acquireLease(required, executor, deadline - leaseStart);
+                } finally {
+                    leaseWaitTime.addSampleSince(leaseStart);
+                    if (!success) {
+                        executor.shutdown();
+                    }
+                    synchronized (this) {
+                        acquiring = false;
+                        if (success) {
+                            lease = required;
+                            leaseExecutor = executor;
+                            holders++;
+                        }
+                        notifyAll();
+                    }
+                }
+                return success;
+            } finally {
+                if (!success) {
+                    local.unlock();
+                }
+                lockWaitTime.addSampleSince(startTime);
+            }
+        }
+
+        private void unlock(boolean exclusive) {
+            java.util.concurrent.locks.Lock local = exclusive ? localLock.writeLock() : localLock.readLock();
+            try {
+                InterProcessMutex released = null;
+                ExecutorService releasedExecutor = null;
+                synchronized (this) {
+                    if (--holders == 0 && lease != null) {
+                        if (leaseLinger > 0) {
+                            releaseFuture = scheduler.schedule(new Runnable() {
+                                @Override
+                                public void run() {
+                                    releaseIdleLease();
+                                }
+                            }, leaseLinger, TimeUnit.MILLISECONDS);
+                        } else {
+                            released = lease;
+                            releasedExecutor = leaseExecutor;
+                            lease = null;
+                            leaseExecutor = null;
+                        }
+                    }
+                }
+                if (released != null) {
+                    releaseLease(released, releasedExecutor);
+                }
+            } finally {
+                local.unlock();
+            }
+        }
+
+        private void releaseIdleLease() {
+            InterProcessMutex released = null;
+            ExecutorService releasedExecutor = null;
+            synchronized (this) {
+                if (holders == 0 && !acquiring && lease != null) {
+                    released = lease;
+                    releasedExecutor = leaseExecutor;
+                    lease = null;
+                    leaseExecutor = null;
+                }
+            }
+            if (released != null) {
+                releaseLease(released, releasedExecutor);
+            }
+        }
+
+        private boolean acquireLease(final InterProcessMutex mutex, ExecutorService executor, final long nanos) {
+            Future<Boolean> future = executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    return mutex.acquire(nanos, TimeUnit.NANOSECONDS);
+                }
+            });
+            try {
+                return future.get();
+            } catch (InterruptedException ex) {
+                // The acquisition still completes on the lease thread, a lease that it obtains is released again
+                try {
+                    if (getUninterruptibly(future)) {
+                        releaseLease(mutex, executor);
+                    }
+                } catch (RuntimeException rte) {
+                    LOGGER.warn("Cannot release lease for: " + identity, rte);
+                }
+                Thread.currentThread().interrupt();
+                throw new FabricException("Interrupted while locking: " + identity, ex);
+            } catch (ExecutionException ex) {
+                throw FabricException.launderThrowable(ex.getCause());
+            }
+        }
+
+        // A lease must be released on the thread that acquired it, which ends with the release
+        private void releaseLease(final InterProcessMutex mutex, ExecutorService executor) {
+            Future<Boolean> future = executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    mutex.release();
+                    return true;
+                }
+            });
+            executor.shutdown();
+            getUninterruptibly(future);
+        }
+
+        private boolean getUninterruptibly(Future<Boolean> future) {
+            boolean interrupted = false;
+            try {
+                while (true) {
+                    try {
+                        return future.get();
+                    } catch (InterruptedException ex) {
+                        interrupted = true;
+                    } catch (ExecutionException ex) {
+                        throw FabricException.launderThrowable(ex.getCause());
+                    }
+                }
+            } finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        private void close() {
+            InterProcessMutex released;
+            ExecutorService releasedExecutor;
+            synchronized (this) {
+                released = lease;
+                releasedExecutor = leaseExecutor;
+                lease = null;
+                leaseExecutor = null;
+            }
+            try {
+                if (released != null) {
+                    releaseLease(released, releasedExecutor);
+                }
+            } catch (RuntimeException ex) {
+                LOGGER.warn("Cannot release lease for: " + identity, ex);
+            }
         }
     }
 
-    private class InternalLock implements Lock {
+    private static class InternalLock implements Lock {
 
-        private final InterProcessMutex delegate;
+        private final ContainerLock delegate;
+        private final boolean exclusive;
 
-        private InternalLock(InterProcessMutex mutex) {
-            this.delegate = mutex;
+        private InternalLock(ContainerLock delegate, boolean exclusive) {
+            this.delegate = delegate;
+            this.exclusive = exclusive;
         }
 
         @Override
         public void unlock() {
-            try {
-                delegate.release();
-            } catch (Exception e) {
-                throw FabricException.launderThrowable(e);
-            }
+            delegate.unlock(exclusive);
         }
 
         @Override
         public boolean tryLock(long time, TimeUnit unit) {
-            try {
-                return delegate.acquire(time, unit);
-            } catch (Exception e) {
-                throw FabricException.launderThrowable(e);
-            }
+            return delegate.tryLock(exclusive, time, unit);
         }
     }
 
@@ -218,4 +516,12 @@ public final class ContainerLockManager extends AbstractComponent {
     void unbindCurator(CuratorFramework service) {
         curator.unbind(service);
     }
+
+    void bindRuntimeService(RuntimeService service) {
+        runtimeService.bind(service);
+    }
+
+    void unbindRuntimeService(RuntimeService service) {
+        runtimeService.unbind(service);
+    }
 }
@@ -0,0 +1,311 @@
+/*
+ * #%L
+ * Fabric8 :: Core
+ * %%
+ * Copyright (C) 2014 Red Hat
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.fabric8.core;
+
+import io.fabric8.api.AttributeKey;
+import io.fabric8.api.Container;
+import io.fabric8.api.Container.State;
+import io.fabric8.api.ContainerIdentity;
+import io.fabric8.api.FabricException;
+import io.fabric8.api.ProfileIdentity;
+import io.fabric8.api.ServiceEndpoint;
+import io.fabric8.api.ServiceEndpointIdentity;
+import io.fabric8.api.URLServiceEndpoint;
+import io.fabric8.api.VersionIdentity;
+import io.fabric8.spi.AbstractServiceEndpoint;
+import io.fabric8.spi.AbstractURLServiceEndpoint;
+import io.fabric8.spi.ImmutableContainer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.jboss.gravia.runtime.RuntimeType;
+import org.jboss.gravia.utils.IllegalArgumentAssertion;
+
+/**
+ * The state of a {@link Container} as it is stored in a single registry node
+ *
+ * <pre>
+ * &lt;container type="KARAF" state="STARTED" version="1.0.0" parent="..."&gt;
+ *   &lt;profile id="default"/&gt;
+ *   &lt;child id="..."/&gt;
+ *   &lt;attribute key="..." value="..."/&gt;
+ *   &lt;endpoint id="..."&gt;
+ *     &lt;attribute key="..." value="..."/&gt;
+ *   &lt;/endpoint&gt;
+ * &lt;/container&gt;
+ * </pre>
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 03-Jul-2014
+ */
+final class ContainerNode {
+
+    private static final String ELEMENT_CONTAINER = "container";
+    private static final String ELEMENT_PROFILE = "profile";
+    private static final String ELEMENT_CHILD = "child";
+    private static final String ELEMENT_ATTRIBUTE = "attribute";
+    private static final String ELEMENT_ENDPOINT = "endpoint";
+    private static final String ATTRIBUTE_TYPE = "type";
+    private static final String ATTRIBUTE_STATE = "state";
+    private static final String ATTRIBUTE_VERSION = "version";
+    private static final String ATTRIBUTE_PARENT = "parent";
+    private static final String ATTRIBUTE_ID = "id";
+    private static final String ATTRIBUTE_KEY = "key";
+    private static final String ATTRIBUTE_VALUE = "value";
+
+    private final ContainerIdentity identity;
+    private RuntimeType runtimeType;
+    private State state = State.CREATED;
+    private VersionIdentity profileVersion;
+    private ContainerIdentity parent;
+    private Set<ContainerIdentity> children = new LinkedHashSet<>();
+    private List<ProfileIdentity> profiles = new ArrayList<>();
+    private Map<AttributeKey<?>, Object> attributes = new LinkedHashMap<>();
+    private Map<ServiceEndpointIdentity, Map<AttributeKey<?>, Object>> endpoints = new LinkedHashMap<>();
+
+    // The version and data of the registry node this state was read from
+    private int nodeVersion = -1;
+    private byte[] nodeData;
+
+    ContainerNode(ContainerIdentity identity) {
+        IllegalArgumentAssertion.assertNotNull(identity, "identity");
+        this.identity = identity;
+    }
+
+    ContainerNode(Container container) {
+        this(container.getIdentity());
+        runtimeType = container.getRuntimeType();
+        state = container.getState();
+        profileVersion = container.getProfileVersion();
+        parent = container.getParentIdentity();
+        children.addAll(container.getChildIdentities());
+        profiles.addAll(container.getProfileIdentities());
+        attributes.putAll(container.getAttributes());
+        for (ServiceEndpoint endpoint : container.getServiceEndpoints()) {
+            endpoints.put(endpoint.getIdentity(), new LinkedHashMap<>(endpoint.getAttributes()));
+        }
+    }
+
+    /**
+     * True if the given node data is in the format written by {@link #toBytes()}
+     */
+    static boolean isContainerData(byte[] data) {
+        return data != null && data.length > 0 && data[0] == '<';
+    }
+
+    static ContainerNode fromBytes(ContainerIdentity identity, byte[] data) {
+        ContainerNode node = new ContainerNode(identity);
+        try {
+            XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(new ByteArrayInputStream(data), "UTF-8");
+            try {
+                Map<AttributeKey<?>, Object> target = node.attributes;
+                while (reader.hasNext()) {
+                    int event = reader.next();
+                    if (event == XMLStreamConstants.START_ELEMENT) {
+                        String name = reader.getLocalName();
+                        if (ELEMENT_CONTAINER.equals(name)) {
+                            String type = reader.getAttributeValue(null, ATTRIBUTE_TYPE);
+                            String state = reader.getAttributeValue(null, ATTRIBUTE_STATE);
+                            String version = reader.getAttributeValue(null, ATTRIBUTE_VERSION);
+                            String parent = reader.getAttributeValue(null, ATTRIBUTE_PARENT);
+                            node.runtimeType = type != null ? RuntimeType.valueOf(type) : null;
+                            node.state = state != null ? State.valueOf(state) : State.CREATED;
+                            node.profileVersion = version != null ? VersionIdentity.createFrom(version) : null;
+                            node.parent = parent != null ? ContainerIdentity.createFrom(parent) : null;
+                        } else if (ELEMENT_PROFILE.equals(name)) {
+                            node.profiles.add(ProfileIdentity.createFrom(reader.getAttributeValue(null, ATTRIBUTE_ID)));
+                        } else if (ELEMENT_CHILD.equals(name)) {
+                            node.children.add(ContainerIdentity.create(reader.getAttributeValue(null, ATTRIBUTE_ID)));
+                        } else if (ELEMENT_ENDPOINT.equals(name)) {
+                            target = new LinkedHashMap<>();
+                            node.endpoints.put(ServiceEndpointIdentity.create(reader.getAttributeValue(null, ATTRIBUTE_ID)), target);
+                        } else if (ELEMENT_ATTRIBUTE.equals(name)) {
+                            AttributeKey<?> key = AttributeKey.createFrom(reader.getAttributeValue(null, ATTRIBUTE_KEY));
+                            Object value = key.getFactory().createFrom(reader.getAttributeValue(null, ATTRIBUTE_VALUE));
+                            target.put(key, value);
+                        }
+                    } else if (event == XMLStreamConstants.END_ELEMENT && ELEMENT_ENDPOINT.equals(reader.getLocalName())) {
+                        target = node.attributes;
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException ex) {
+            throw new FabricException("Cannot read container data: " + identity, ex);
+        }
+        return node;
+    }
+
+    byte[] toBytes() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try {
+            XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(baos, "UTF-8");
+            writer.writeStartDocument("UTF-8", "1.0");
+            writer.writeStartElement(ELEMENT_CONTAINER);
+            if (runtimeType != null) {
+                writer.writeAttribute(ATTRIBUTE_TYPE, runtimeType.name());
+            }
+            writer.writeAttribute(ATTRIBUTE_STATE, state.name());
+            if (profileVersion != null) {
+                writer.writeAttribute(ATTRIBUTE_VERSION, profileVersion.getCanonicalForm());
+            }
+            if (parent != null) {
+                writer.writeAttribute(ATTRIBUTE_PARENT, parent.getCanonicalForm());
+            }
+            for (ProfileIdentity prfid : profiles) {
+                writer.writeEmptyElement(ELEMENT_PROFILE);
+                writer.writeAttribute(ATTRIBUTE_ID, prfid.getCanonicalForm());
+            }
+            for (ContainerIdentity child : children) {
+                writer.writeEmptyElement(ELEMENT_CHILD);
+                writer.writeAttribute(ATTRIBUTE_ID, child.getSymbolicName());
+            }
+            writeAttributes(writer, attributes);
+            for (Entry<ServiceEndpointIdentity, Map<AttributeKey<?>, Object>> entry : endpoints.entrySet()) {
+                writer.writeStartElement(ELEMENT_ENDPOINT);
+                writer.writeAttribute(ATTRIBUTE_ID, entry.getKey().getSymbolicName());
+                writeAttributes(writer, entry.getValue());
+                writer.writeEndElement();
+            }
+            writer.writeEndElement();
+            writer.writeEndDocument();
+            writer.close();
+        } catch (XMLStreamException ex) {
+            throw new FabricException("Cannot write container data: " + identity, ex);
+        }
+        return baos.toByteArray();
+    }
+
+    private static void writeAttributes(XMLStreamWriter writer, Map<AttributeKey<?>, Object> attributes) throws XMLStreamException {
+        for (Entry<AttributeKey<?>, Object> entry : attributes.entrySet()) {
+            writer.writeEmptyElement(ELEMENT_ATTRIBUTE);
+            writer.writeAttribute(ATTRIBUTE_KEY, entry.getKey().getCanonicalForm());
+            writer.writeAttribute(ATTRIBUTE_VALUE, entry.getValue().toString());
+        }
+    }
+
+    Container toContainer() {
+        Set<ServiceEndpoint> endpointSet = new LinkedHashSet<>();
+        for (ServiceEndpointIdentity endpointId : endpoints.keySet()) {
+            endpointSet.add(getServiceEndpoint(endpointId));
+        }
+        return new ImmutableContainer.Builder(identity, runtimeType, attributes, state).addProfiles(profiles).addProfileVersion(profileVersion).addParent(parent)
+                .addChildren(children).addServiceEndpoints(endpointSet).build();
+    }
+
+    ContainerIdentity getIdentity() {
+        return identity;
+    }
+
+    /**
+     * The version of the registry node this state was read from, or -1 if the node does not exist yet
+     */
+    int getNodeVersion() {
+        return nodeVersion;
+    }
+
+    void setNodeData(int nodeVersion, byte[] nodeData) {
+        this.nodeVersion = nodeVersion;
+        this.nodeData = nodeData;
+    }
+
+    /**
+     * True if the given data differs from the registry node this state was read from
+     */
+    boolean isModified(byte[] data) {
+        return !Arrays.equals(nodeData, data);
+    }
+
+    State getState() {
+        return state;
+    }
+
+    void setState(State state) {
+        this.state = state;
+    }
+
+    VersionIdentity getProfileVersion() {
+        return profileVersion;
+    }
+
+    void setProfileVersion(VersionIdentity profileVersion) {
+        this.profileVersion = profileVersion;
+    }
+
+    void setParent(ContainerIdentity parent) {
+        this.parent = parent;
+    }
+
+    Set<ContainerIdentity> getChildren() {
+        return children;
+    }
+
+    List<ProfileIdentity> getProfiles() {
+        return profiles;
+    }
+
+    void setProfiles(List<ProfileIdentity> profiles) {
+        this.profiles = new ArrayList<>(profiles);
+    }
+
+    ServiceEndpoint getServiceEndpoint(ServiceEndpointIdentity endpointId) {
+        Map<AttributeKey<?>, Object> endpointAttributes = endpoints.get(endpointId);
+        if (endpointAttributes == null) {
+            return null;
+        } else if (endpointAttributes.containsKey(URLServiceEndpoint.ATTRIBUTE_KEY_SERVICE_URL)) {
+            return new AbstractURLServiceEndpoint(endpointId, endpointAttributes);
+        } else {
+            return new AbstractServiceEndpoint(endpointId, endpointAttributes);
+        }
+    }
+
+    void putServiceEndpoint(ServiceEndpoint endpoint) {
+        endpoints.put(endpoint.getIdentity(), new LinkedHashMap<>(endpoint.getAttributes()));
+    }
+
+    void setServiceEndpoints(Set<ServiceEndpoint> endpoints) {
+        this.endpoints.clear();
+        for (ServiceEndpoint endpoint : endpoints) {
+            putServiceEndpoint(endpoint);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ContainerNode[id=" + identity + ",state=" + state + ",version=" + profileVersion + "]";
+    }
+}
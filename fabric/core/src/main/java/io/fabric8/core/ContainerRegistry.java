@@ -34,18 +34,36 @@ import io.fabric8.core.zookeeper.ZkPath;
 import io.fabric8.spi.AbstractServiceEndpoint;
 import io.fabric8.spi.AbstractURLServiceEndpoint;
 import io.fabric8.spi.ImmutableContainer;
+import io.fabric8.spi.RuntimeService;
 import io.fabric8.spi.scr.AbstractComponent;
 import io.fabric8.spi.scr.ValidatingReference;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.BackgroundCallback;
+import org.apache.curator.framework.api.CuratorEvent;
+import org.apache.curator.framework.api.transaction.CuratorTransaction;
+import org.apache.curator.framework.api.transaction.CuratorTransactionFinal;
+import org.apache.curator.framework.api.transaction.CuratorTransactionResult;
+import org.apache.curator.framework.recipes.cache.ChildData;
+import org.apache.curator.framework.recipes.cache.PathChildrenCache;
+import org.apache.curator.framework.recipes.cache.PathChildrenCache.StartMode;
+import org.apache.curator.framework.recipes.cache.PathChildrenCacheEvent;
+import org.apache.curator.framework.recipes.cache.PathChildrenCacheListener;
 import org.apache.curator.utils.ZKPaths;
 import org.apache.felix.scr.annotations.Activate;
 import org.apache.felix.scr.annotations.Component;
@@ -53,6 +71,7 @@ import org.apache.felix.scr.annotations.Deactivate;
 import org.apache.felix.scr.annotations.Reference;
 import org.apache.felix.scr.annotations.Service;
 import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.data.Stat;
 import org.jboss.gravia.resource.Version;
 import org.jboss.gravia.runtime.RuntimeType;
 import org.jboss.gravia.utils.IllegalStateAssertion;
@@ -62,26 +81,123 @@ import org.slf4j.LoggerFactory;
 /**
  * A registry of stateful {@link Container} instances
  *
+ * Container nodes are mirrored in memory and kept up to date by watches on the container registry.
+ * Reads are served from that mirror, unless the consistency mode is {@link Consistency#SYNC},
+ * in which case every read is preceded by a sync with the ensemble leader.
+ * Reads that precede a modification always go to the ensemble.
+ *
  * @author thomas.diesler@jboss.com
  * @since 18-Mar-2014
  */
 @Component(immediate = true)
-@Service(ContainerRegistry.class)
-public final class ContainerRegistry extends AbstractComponent {
+@Service({ ContainerRegistry.class, StatisticsProvider.class })
+public final class ContainerRegistry extends AbstractComponent implements StatisticsProvider {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ContainerRegistry.class);
 
+    // The nodes of the legacy per-field container layout
+    private static final ZkPath[] LEGACY_PATHS = new ZkPath[] { ZkPath.CONTAINER_TYPE, ZkPath.CONTAINER_PARENT, ZkPath.CONTAINER_CHILDREN,
+            ZkPath.CONTAINER_STATE, ZkPath.CONTAINER_CONFIG, ZkPath.CONTAINER_ATTRIBUTES, ZkPath.CONTAINER_ENDPOINTS };
+
+    /**
+     * The consistency mode for container reads, one of {@link Consistency}
+     */
+    static final String PROPERTY_CONTAINER_CONSISTENCY = "fabric8.container.consistency";
+
+    /**
+     * The consistency modes for container reads
+     */
+    enum Consistency {
+        /** Read from the watch driven in memory mirror */
+        CACHED,
+        /** Sync with the ensemble leader and then read from the ensemble */
+        SYNC
+    }
+
+    private static final int MAX_SNAPSHOT_ATTEMPTS = 3;
+
+    private final Map<String, ChildData> containerCache = new HashMap<>();
+    // The creation zxid of locally removed nodes, guarded by the container cache
+    private final Map<String, Long> tombstones = new HashMap<>();
+    private final AtomicLong cacheHitCount = new AtomicLong();
+    private final AtomicLong cacheMissCount = new AtomicLong();
+    private PathChildrenCache childrenCache;
+    private Consistency consistency;
+
     @Reference(referenceInterface = CuratorFramework.class)
     private ValidatingReference<CuratorFramework> curator = new ValidatingReference<>();
+    @Reference(referenceInterface = RuntimeService.class)
+    private final ValidatingReference<RuntimeService> runtimeService = new ValidatingReference<>();
 
     @Activate
-    void activate() {
+    void activate() throws Exception {
+        activateInternal();
         activateComponent();
     }
 
     @Deactivate
-    void deactivate() {
+    void deactivate() throws Exception {
         deactivateComponent();
+        deactivateInternal();
+    }
+
+    private void activateInternal() throws Exception {
+        String mode = runtimeService.get().getProperty(PROPERTY_CONTAINER_CONSISTENCY, Consistency.CACHED.name());
+        consistency = Consistency.valueOf(mode.toUpperCase());
+
+        // Migrate containers that are still stored in the legacy per-field layout
+        for (ContainerIdentity identity : getContainerIdentitiesInternal()) {
+            migrateLegacyInternal(identity);
+        }
+
+        // Mirror the container nodes
+        if (consistency == Consistency.CACHED) {
+            CuratorFramework client = curator.get();
+            client.newNamespaceAwareEnsurePath(ZkPath.CONTAINERS.getPath()).ensure(client.getZookeeperClient());
+            PathChildrenCache cache = new PathChildrenCache(client, ZkPath.CONTAINERS.getPath(), true);
+            cache.getListenable().addListener(new PathChildrenCacheListener() {
+                @Override
+                public void childEvent(CuratorFramework client, PathChildrenCacheEvent event) throws Exception {
+                    ChildData child = event.getData();
+                    switch (event.getType()) {
+                        case CHILD_ADDED:
+                        case CHILD_UPDATED:
+                            updateCache(child);
+                            break;
+                        case CHILD_REMOVED:
+                            removeCache(child.getPath(), null);
+                            break;
+                        default:
+                            break;
+                    }
+                }
+            });
+            cache.start(StartMode.BUILD_INITIAL_CACHE);
+            for (ChildData child : cache.getCurrentData()) {
+                updateCache(child);
+            }
+            childrenCache = cache;
+        }
+    }
+
+    private void deactivateInternal() throws Exception {
+        if (childrenCache != null) {
+            childrenCache.close();
+            childrenCache = null;
+        }
+        synchronized (containerCache) {
+            containerCache.clear();
+            tombstones.clear();
+        }
+    }
+
+    @Override
+    public void collectStatistics(Map<String, Long> statistics) {
+        synchronized (containerCache) {
+            statistics.put("ContainerCache.size", (long) containerCache.size());
+        }
+        statistics.put("ContainerCache.hits", cacheHitCount.get());
+        statistics.put("ContainerCache.misses", cacheMissCount.get());
     }
 
     Container createContainer(ContainerIdentity parentId, ContainerIdentity identity, CreateOptions options, VersionIdentity version, List<ProfileIdentity> profiles, Set<ServiceEndpoint> endpoints) {
@@ -102,22 +218,64 @@ public final class ContainerRegistry extends AbstractComponent {
         return Collections.unmodifiableSet(getContainerIdentitiesInternal());
     }
 
+    /**
+     * Get the profile versions referenced by the registered containers.
+     * The result is not guarded by container locks and should only be used as a hint.
+     */
+    Set<VersionIdentity> getReferencedProfileVersions() {
+        assertValid();
+        Set<VersionIdentity> versions = new LinkedHashSet<>();
+        for (ContainerIdentity identity : getContainerIdentitiesInternal()) {
+            ContainerNode node = readCachedNodeInternal(identity);
+            if (node != null && node.getProfileVersion() != null) {
+                versions.add(node.getProfileVersion());
+            }
+        }
+        return Collections.unmodifiableSet(versions);
+    }
+
+    /**
+     * Get a snapshot of the given containers without acquiring container locks.
+     *
+     * Each container is stored in a single node and is therefore read atomically.
+     * When reading from the ensemble, the versions of all nodes read are verified in a single transaction
+     * and the reads are retried if any of them changed in the meantime. If the containers keep changing,
+     * the last read is returned after a few attempts and may then be inconsistent across containers.
+     *
+     * @param identities The requested identities or <code>null</code> for all containers
+     */
+    Set<Container> getContainers(Set<ContainerIdentity> identities) {
+        assertValid();
+        if (identities == null) {
+            identities = getContainerIdentitiesInternal();
+        }
+        Map<ContainerIdentity, ContainerNode> nodes;
+        if (childrenCache != null) {
+            nodes = readCachedNodesInternal(identities);
+        } else {
+            nodes = readSnapshotInternal(identities);
+        }
+        Set<Container> result = new LinkedHashSet<>();
+        for (ContainerNode node : nodes.values()) {
+            result.add(node.toContainer());
+        }
+        return Collections.unmodifiableSet(result);
+    }
+
     void addChildToParent(ContainerIdentity parentId, ContainerIdentity childId) {
         ContainerLockManager.assertWriteLock(parentId);
-        Container parent = getRequiredContainer(parentId);
-        Set<ContainerIdentity> existingChildren = new LinkedHashSet<>(parent.getChildIdentities());
-        existingChildren.add(childId);
-        setParentInternal(childId, parentId);
-        setChildIdentitiesInternal(parentId, existingChildren);
+        ContainerNode child = readRequiredNodeInternal(childId);
+        child.setParent(parentId);
+        ContainerNode parent = readRequiredNodeInternal(parentId);
+        parent.getChildren().add(childId);
+        writeNodesInternal(child, parent);
     }
 
     void removeChildFromParent(ContainerIdentity parentId, ContainerIdentity childId) {
         ContainerLockManager.assertWriteLock(parentId);
-        Container parent = getRequiredContainer(parentId);
-        Set<ContainerIdentity> existingChildren = new LinkedHashSet<>(parent.getChildIdentities());
-        existingChildren.remove(childId);
-        setParentInternal(childId, parentId);
-        setChildIdentitiesInternal(parentId, existingChildren);
+        ContainerNode parent = readRequiredNodeInternal(parentId);
+        parent.getChildren().remove(childId);
+        writeNodeInternal(parent);
     }
 
     Container getContainer(ContainerIdentity identity) {
@@ -137,14 +295,16 @@ public final class ContainerRegistry extends AbstractComponent {
 
     Container startContainer(ContainerIdentity identity) {
         ContainerLockManager.assertWriteLock(identity);
-        setStateInternal(identity, State.STARTED);
-        return getRequiredContainer(identity);
+        ContainerNode node = readRequiredNodeInternal(identity);
+        node.setState(State.STARTED);
+        return writeNodeInternal(node);
     }
 
     Container stopContainer(ContainerIdentity identity) {
         ContainerLockManager.assertWriteLock(identity);
-        setStateInternal(identity, State.STOPPED);
-        return getRequiredContainer(identity);
+        ContainerNode node = readRequiredNodeInternal(identity);
+        node.setState(State.STOPPED);
+        return writeNodeInternal(node);
     }
 
     Container destroyContainer(ContainerIdentity identity) {
@@ -154,113 +314,389 @@ public final class ContainerRegistry extends AbstractComponent {
 
     Container setProfileVersion(ContainerIdentity identity, VersionIdentity version) {
         ContainerLockManager.assertWriteLock(identity);
-        setVersionInternal(identity, version);
-        return getRequiredContainer(identity);
+        ContainerNode node = readRequiredNodeInternal(identity);
+        node.setProfileVersion(version);
+        return writeNodeInternal(node);
     }
 
     Container addProfiles(ContainerIdentity identity, List<ProfileIdentity> profiles) {
         ContainerLockManager.assertWriteLock(identity);
-        List<ProfileIdentity> allProfiles = new ArrayList<>(getProfileIdentities(identity));
-        allProfiles.addAll(profiles);
-        setProfilesInternal(identity, allProfiles);
-        return getRequiredContainer(identity);
+        ContainerNode node = readRequiredNodeInternal(identity);
+        node.getProfiles().addAll(profiles);
+        return writeNodeInternal(node);
     }
 
     Container removeProfiles(ContainerIdentity identity, List<ProfileIdentity> profiles) {
         ContainerLockManager.assertWriteLock(identity);
-        List<ProfileIdentity> allProfiles = new ArrayList<>(getProfileIdentities(identity));
-        allProfiles.removeAll(profiles);
-        setProfilesInternal(identity, allProfiles);
-        return getRequiredContainer(identity);
+        ContainerNode node = readRequiredNodeInternal(identity);
+        node.getProfiles().removeAll(profiles);
+        return writeNodeInternal(node);
     }
 
     ServiceEndpoint getServiceEndpoint(ContainerIdentity identity, ServiceEndpointIdentity endpointId) {
         ContainerLockManager.assertReadLock(identity);
-        return getServiceEndpointInternal(identity, endpointId);
+        ContainerNode node = readCachedNodeInternal(identity);
+        IllegalStateAssertion.assertNotNull(node, "Container not registered: " + identity);
+        return node.getServiceEndpoint(endpointId);
     }
 
     Container addServiceEndpoint(ContainerIdentity identity, ServiceEndpoint endpoint) {
         ContainerLockManager.assertWriteLock(identity);
         assertValid();
-        addServiceEndpointInternal(identity, endpoint);
-        return getRequiredContainer(identity);
+        ContainerNode node = readRequiredNodeInternal(identity);
+        node.putServiceEndpoint(endpoint);
+        return writeNodeInternal(node);
     }
 
     Container removeServiceEndpoint(ContainerIdentity identity, ServiceEndpoint endpoint) {
         ContainerLockManager.assertWriteLock(identity);
         assertValid();
-        addServiceEndpointInternal(identity, endpoint);
-        return getRequiredContainer(identity);
+        ContainerNode node = readRequiredNodeInternal(identity);
+        node.putServiceEndpoint(endpoint);
+        return writeNodeInternal(node);
     }
 
     Container setServiceEndpoints(ContainerIdentity identity, Set<ServiceEndpoint> endpoint) {
         ContainerLockManager.assertWriteLock(identity);
         assertValid();
-        setServiceEndpointsInternal(identity, endpoint);
-        return getRequiredContainer(identity);
+        ContainerNode node = readRequiredNodeInternal(identity);
+        node.setServiceEndpoints(endpoint);
+        return writeNodeInternal(node);
     }
 
     private void storeInternal(Container container) {
         LOGGER.debug("Storing container {}.", container.getIdentity());
-        ContainerIdentity identity = container.getIdentity();
-        String id = identity.getSymbolicName();
-        Container existing = getContainer(identity);
+        writeNodeInternal(new ContainerNode(container));
+    }
+
+    private Container readInternal(ContainerIdentity identity) {
+        LOGGER.debug("Reading container {}.", identity);
+        ContainerNode node = readCachedNodeInternal(identity);
+        return node != null ? node.toContainer() : null;
+    }
+
+    private Container removeInternal(ContainerIdentity identity) {
+        LOGGER.debug("Removing container {}.", identity);
+        ContainerNode node = readRequiredNodeInternal(identity);
+        node.setState(State.DESTROYED);
+        Container result = node.toContainer();
+        String path = ZkPath.CONTAINER.getPath(identity.getSymbolicName());
+        Stat stat = null;
         try {
-            if (existing == null) {
-                curator.get().create().creatingParentsIfNeeded().forPath(ZkPath.CONTAINER.getPath(id));
+            if (childrenCache != null) {
+                stat = curator.get().checkExists().forPath(path);
             }
-            setParentInternal(identity, container.getParentIdentity());
-            setChildIdentitiesInternal(identity, container.getChildIdentities());
-            setRuntimeTypeInternal(identity, container.getRuntimeType());
-            setProfilesInternal(identity, container.getProfileIdentities());
-            setVersionInternal(identity, container.getProfileVersion());
-            setAttributesInternal(ZkPath.CONTAINER_ATTRIBUTES.getPath(id), container.getAttributes());
-            setStateInternal(identity, container.getState());
-            setServiceEndpointsInternal(identity, container.getServiceEndpoints());
+            curator.get().delete().deletingChildrenIfNeeded().forPath(path);
         } catch (Exception e) {
             throw FabricException.launderThrowable(e);
         }
+        removeCache(path, stat);
+        return result;
     }
 
-    private Container readInternal(ContainerIdentity identity) {
-        LOGGER.debug("Reading container {}.", identity);
-        Container result = null;
-        String id = identity.getSymbolicName();
+    /**
+     * Reads the container node according to the configured {@link Consistency}.
+     * A node that is not in the mirror yet is read from the ensemble.
+     * @return The {@link ContainerNode} or null if the container does not exist
+     */
+    private ContainerNode readCachedNodeInternal(ContainerIdentity identity) {
+        String path = ZkPath.CONTAINER.getPath(identity.getSymbolicName());
+        if (childrenCache != null) {
+            ChildData child;
+            synchronized (containerCache) {
+                child = containerCache.get(path);
+            }
+            if (child != null && ContainerNode.isContainerData(child.getData())) {
+                cacheHitCount.incrementAndGet();
+                ContainerNode node = ContainerNode.fromBytes(identity, child.getData());
+                node.setNodeData(child.getStat().getVersion(), child.getData());
+                return node;
+            }
+            cacheMissCount.incrementAndGet();
+        } else if (consistency == Consistency.SYNC) {
+            syncInternal(path);
+        }
+        return readNodeInternal(identity);
+    }
+
+    /**
+     * Reads the container node from the ensemble in a single round trip.
+     * Falls back to the legacy per-field layout for containers that have not been migrated yet.
+     * @return The {@link ContainerNode} or null if the container does not exist
+     */
+    private ContainerNode readNodeInternal(ContainerIdentity identity) {
+        String path = ZkPath.CONTAINER.getPath(identity.getSymbolicName());
         try {
-            if (curator.get().checkExists().forPath(ZkPath.CONTAINER.getPath(id)) != null) {
-
-                ContainerIdentity parentIdentity = getParentInternal(identity);
-                Map<AttributeKey<?>, Object> attributes = getAttributesInternal(ZkPath.CONTAINER_ATTRIBUTES.getPath(id));
-                RuntimeType type = getRuntimeTypeInternal(identity);
-                List<ProfileIdentity> profiles = getProfileIdentities(identity);
-                VersionIdentity version = getVersionInternal(identity);
-                State state = getStateInternal(identity);
-                Set<ContainerIdentity> children = getChildIdentitiesInternal(identity);
-                Set<ServiceEndpoint> endpoints = getServiceEndpointsInternal(identity);
-
-                result = new ImmutableContainer.Builder(identity, type, attributes, state).addProfiles(profiles).addProfileVersion(version).addParent(parentIdentity)
-                        .addChildren(children).addServiceEndpoints(endpoints).build();
+            Stat stat = new Stat();
+            byte[] data = curator.get().getData().storingStatIn(stat).forPath(path);
+            ContainerNode node;
+            if (ContainerNode.isContainerData(data)) {
+                node = ContainerNode.fromBytes(identity, data);
+            } else {
+                node = readLegacyInternal(identity);
             }
+            node.setNodeData(stat.getVersion(), data);
+            return node;
+        } catch (KeeperException.NoNodeException ex) {
+            return null;
         } catch (Exception ex) {
             throw FabricException.launderThrowable(ex);
         }
-        return result;
     }
 
-    private Container removeInternal(ContainerIdentity identity) {
-        LOGGER.debug("Storing container {}.", identity);
-        setStateInternal(identity, State.DESTROYED);
-        Container result = getContainer(identity);
+    private Map<ContainerIdentity, ContainerNode> readCachedNodesInternal(Set<ContainerIdentity> identities) {
+        Map<ContainerIdentity, ChildData> children = new LinkedHashMap<>();
+        synchronized (containerCache) {
+            for (ContainerIdentity identity : identities) {
+                children.put(identity, containerCache.get(ZkPath.CONTAINER.getPath(identity.getSymbolicName())));
+            }
+        }
+        Map<ContainerIdentity, ContainerNode> nodes = new LinkedHashMap<>();
+        for (Map.Entry<ContainerIdentity, ChildData> entry : children.entrySet()) {
+            ContainerIdentity identity = entry.getKey();
+            ChildData child = entry.getValue();
+            ContainerNode node;
+            if (child != null && ContainerNode.isContainerData(child.getData())) {
+                cacheHitCount.incrementAndGet();
+                node = ContainerNode.fromBytes(identity, child.getData());
+                node.setNodeData(child.getStat().getVersion(), child.getData());
+            } else {
+                cacheMissCount.incrementAndGet();
+                node = readNodeInternal(identity);
+            }
+            if (node != null) {
+                nodes.put(identity, node);
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * Reads a snapshot of the given container nodes that is verified to be consistent.
+     * After {@link #MAX_SNAPSHOT_ATTEMPTS} failed verifications the last unverified read is returned,
+     * in which each container is consistent in itself, but not necessarily with the others.
+     */
+    private Map<ContainerIdentity, ContainerNode> readSnapshotInternal(Set<ContainerIdentity> identities) {
+        Map<ContainerIdentity, ContainerNode> nodes = null;
+        for (int attempt = 0; attempt < MAX_SNAPSHOT_ATTEMPTS; attempt++) {
+            if (consistency == Consistency.SYNC) {
+                syncInternal(ZkPath.CONTAINERS.getPath());
+            }
+            nodes = readNodesInternal(identities);
+            if (verifyNodesInternal(nodes.values())) {
+                return nodes;
+            }
+            LOGGER.debug("Containers modified while reading snapshot, attempt {}.", attempt + 1);
+        }
+        LOGGER.warn("Containers modified while reading snapshot, returning unverified snapshot: {}", identities);
+        return nodes;
+    }
+
+    /**
+     * Reads the given container nodes with pipelined requests.
+     * A container that does not exist is omitted, any other read failure fails the whole read.
+     */
+    private Map<ContainerIdentity, ContainerNode> readNodesInternal(Set<ContainerIdentity> identities) {
+        final Map<ContainerIdentity, CuratorEvent> events = new ConcurrentHashMap<>();
+        final Map<ContainerIdentity, KeeperException.Code> failures = new ConcurrentHashMap<>();
+        final CountDownLatch latch = new CountDownLatch(identities.size());
         try {
-            curator.get().delete().deletingChildrenIfNeeded().forPath(ZkPath.CONTAINER.getPath(identity.getSymbolicName()));
-        } catch (Exception e) {
-            throw FabricException.launderThrowable(e);
+            for (final ContainerIdentity identity : identities) {
+                curator.get().getData().inBackground(new BackgroundCallback() {
+                    @Override
+                    public void processResult(CuratorFramework client, CuratorEvent event) throws Exception {
+                        KeeperException.Code code = KeeperException.Code.get(event.getResultCode());
+                        if (code == KeeperException.Code.OK) {
+                            events.put(identity, event);
+                        } else if (code != KeeperException.Code.NONODE) {
+                            failures.put(identity, code);
+                        }
+                        latch.countDown();
+                    }
+                }).forPath(ZkPath.CONTAINER.getPath(identity.getSymbolicName()));
+            }
+            IllegalStateAssertion.assertTrue(latch.await(10, TimeUnit.SECONDS), "Cannot read containers: " + identities);
+            if (!failures.isEmpty()) {
+                throw new FabricException("Cannot read containers: " + failures);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new FabricException("Interrupted while reading containers", ex);
+        } catch (Exception ex) {
+            throw FabricException.launderThrowable(ex);
+        }
+        Map<ContainerIdentity, ContainerNode> nodes = new LinkedHashMap<>();
+        for (ContainerIdentity identity : identities) {
+            CuratorEvent event = events.get(identity);
+            if (event != null) {
+                byte[] data = event.getData();
+                ContainerNode node = ContainerNode.isContainerData(data) ? ContainerNode.fromBytes(identity, data) : readLegacyInternal(identity);
+                node.setNodeData(event.getStat().getVersion(), data);
+                nodes.put(identity, node);
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * Verify in a single transaction that none of the given nodes has changed since it was read
+     */
+    private boolean verifyNodesInternal(Collection<ContainerNode> nodes) {
+        if (nodes.isEmpty()) {
+            return true;
+        }
+        try {
+            CuratorTransaction transaction = curator.get().inTransaction();
+            CuratorTransactionFinal operations = null;
+            for (ContainerNode node : nodes) {
+                String path = ZkPath.CONTAINER.getPath(node.getIdentity().getSymbolicName());
+                operations = transaction.check().withVersion(node.getNodeVersion()).forPath(path).and();
+                transaction = operations;
+            }
+            operations.commit();
+            return true;
+        } catch (KeeperException.BadVersionException | KeeperException.NoNodeException ex) {
+            return false;
+        } catch (Exception ex) {
+            throw FabricException.launderThrowable(ex);
+        }
+    }
+
+    private ContainerNode readRequiredNodeInternal(ContainerIdentity identity) {
+        ContainerNode node = readNodeInternal(identity);
+        IllegalStateAssertion.assertNotNull(node, "Container not registered: " + identity);
+        return node;
+    }
+
+    private Container writeNodeInternal(ContainerNode node) {
+        writeNodesInternal(node);
+        return node.toContainer();
+    }
+
+    /**
+     * Writes the modified container nodes in a single transaction.
+     *
+     * Only nodes that differ from the data they were read from are written.
+     * Existing nodes are updated conditionally on the version they were read with,
+     * so that a concurrent modification fails the whole transaction.
+     */
+    private void writeNodesInternal(ContainerNode... nodes) {
+        try {
+            CuratorTransaction transaction = curator.get().inTransaction();
+            CuratorTransactionFinal operations = null;
+            for (ContainerNode node : nodes) {
+                String path = ZkPath.CONTAINER.getPath(node.getIdentity().getSymbolicName());
+                byte[] data = node.toBytes();
+                if (node.isModified(data)) {
+                    if (node.getNodeVersion() < 0) {
+                        curator.get().newNamespaceAwareEnsurePath(ZkPath.CONTAINERS.getPath()).ensure(curator.get().getZookeeperClient());
+                        operations = transaction.create().forPath(path, data).and();
+                    } else {
+                        operations = transaction.setData().withVersion(node.getNodeVersion()).forPath(path, data).and();
+                    }
+                    transaction = operations;
+                }
+            }
+            if (operations != null) {
+                Collection<CuratorTransactionResult> results = operations.commit();
+                for (ContainerNode node : nodes) {
+                    byte[] data = node.toBytes();
+                    if (node.isModified(data)) {
+                        node.setNodeData(node.getNodeVersion() + 1, data);
+                    }
+                }
+                if (childrenCache != null) {
+                    for (CuratorTransactionResult result : results) {
+                        Stat stat = result.getResultStat();
+                        if (stat == null) {
+                            stat = new Stat();
+                            byte[] data = curator.get().getData().storingStatIn(stat).forPath(result.getForPath());
+                            updateCache(new ChildData(result.getForPath(), stat, data));
+                        } else {
+                            ContainerIdentity identity = ContainerIdentity.create(ZKPaths.getNodeFromPath(result.getForPath()));
+                            for (ContainerNode node : nodes) {
+                                if (node.getIdentity().equals(identity)) {
+                                    updateCache(new ChildData(result.getForPath(), stat, node.toBytes()));
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        } catch (KeeperException.BadVersionException | KeeperException.NodeExistsException ex) {
+            throw new FabricException("Concurrent modification of containers: " + Arrays.asList(nodes), ex);
+        } catch (Exception ex) {
+            throw new FabricException("Failed to write containers: " + Arrays.asList(nodes), ex);
+        }
+    }
+
+    /**
+     * Update the mirror with the given node, unless it already holds a more recent modification
+     * or the node was removed locally and the update belongs to the removed node.
+     */
+    private void updateCache(ChildData child) {
+        String path = child.getPath();
+        synchronized (containerCache) {
+            Long tombstone = tombstones.get(path);
+            if (tombstone != null) {
+                if (child.getStat().getCzxid() <= tombstone) {
+                    return;
+                }
+                tombstones.remove(path);
+            }
+            ChildData existing = containerCache.get(path);
+            if (existing == null || existing.getStat().getMzxid() < child.getStat().getMzxid()) {
+                containerCache.put(path, child);
+            }
+        }
+    }
+
+    /**
+     * Remove the node from the mirror
+     * @param stat The stat of a locally removed node, which keeps late update events of that node out of the mirror
+     */
+    private void removeCache(String path, Stat stat) {
+        synchronized (containerCache) {
+            containerCache.remove(path);
+            if (stat != null) {
+                tombstones.put(path, stat.getCzxid());
+            } else {
+                tombstones.remove(path);
+            }
+        }
+    }
+
+    /**
+     * Sync the given path with the ensemble leader
+     */
+    private void syncInternal(String path) {
+        final CountDownLatch latch = new CountDownLatch(1);
+        try {
+            curator.get().sync().inBackground(new BackgroundCallback() {
+                @Override
+                public void processResult(CuratorFramework client, CuratorEvent event) throws Exception {
+                    latch.countDown();
+                }
+            }).forPath(path);
+            IllegalStateAssertion.assertTrue(latch.await(10, TimeUnit.SECONDS), "Cannot sync with ensemble: " + path);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new FabricException("Interrupted while syncing: " + path, ex);
+        } catch (Exception ex) {
+            throw FabricException.launderThrowable(ex);
         }
-        return result;
     }
 
     private Set<ContainerIdentity> getContainerIdentitiesInternal() {
         Set<ContainerIdentity> identities = new LinkedHashSet<>();
+        if (childrenCache != null) {
+            synchronized (containerCache) {
+                for (String path : containerCache.keySet()) {
+                    identities.add(ContainerIdentity.create(ZKPaths.getNodeFromPath(path)));
+                }
+            }
+            return Collections.unmodifiableSet(identities);
+        }
         try {
             String containersPath = ZkPath.CONTAINERS.getPath();
             List<String> containers = curator.get().getChildren().forPath(containersPath);
@@ -275,6 +711,49 @@ public final class ContainerRegistry extends AbstractComponent {
         }
     }
 
+    /**
+     * Migrates a container from the legacy per-field layout to a single container node.
+     * The node data is written conditionally on its version, so that a concurrent migration does not override newer content.
+     */
+    private void migrateLegacyInternal(ContainerIdentity identity) {
+        String id = identity.getSymbolicName();
+        String path = ZkPath.CONTAINER.getPath(id);
+        try {
+            Stat stat = new Stat();
+            byte[] data = curator.get().getData().storingStatIn(stat).forPath(path);
+            if (!ContainerNode.isContainerData(data)) {
+                LOGGER.info("Migrating container {} to single node layout.", identity);
+                ContainerNode node = readLegacyInternal(identity);
+                curator.get().setData().withVersion(stat.getVersion()).forPath(path, node.toBytes());
+                for (ZkPath legacyPath : LEGACY_PATHS) {
+                    String fieldPath = legacyPath.getPath(id);
+                    if (curator.get().checkExists().forPath(fieldPath) != null) {
+                        curator.get().delete().deletingChildrenIfNeeded().forPath(fieldPath);
+                    }
+                }
+            }
+        } catch (KeeperException.NoNodeException | KeeperException.BadVersionException ex) {
+            LOGGER.debug("Container {} removed or migrated concurrently.", identity);
+        } catch (Exception ex) {
+            throw new FabricException("Failed to migrate container: " + identity, ex);
+        }
+    }
+
+    /**
+     * Reads a container that is stored in the legacy per-field layout.
+     */
+    private ContainerNode readLegacyInternal(ContainerIdentity identity) {
+        String id = identity.getSymbolicName();
+        ContainerNode node = new ContainerNode(new ImmutableContainer.Builder(identity, getRuntimeTypeInternal(identity), getAttributesInternal(ZkPath.CONTAINER_ATTRIBUTES.getPath(id)), getStateInternal(identity))
+                .addProfiles(getProfileIdentities(identity))
+                .addProfileVersion(getVersionInternal(identity))
+                .addParent(getParentInternal(identity))
+                .addChildren(getChildIdentitiesInternal(identity))
+                .addServiceEndpoints(getServiceEndpointsInternal(identity))
+                .build());
+        return node;
+    }
+
     /**
      * Reads the {@link io.fabric8.api.Container.State} of the {@link Container} with the specified {@link io.fabric8.api.ContainerIdentity}.
      * @param identity  The identity of the {@link Container}.
@@ -294,25 +773,6 @@ public final class ContainerRegistry extends AbstractComponent {
         }
     }
 
-    /**
-     * Sets the {@link io.fabric8.api.Container.State} of the {@link io.fabric8.api.Container} with the specified {@link io.fabric8.api.ContainerIdentity}.
-     * @param identity          The target {@link io.fabric8.api.ContainerIdentity}.
-     * @param state             The state {@link io.fabric8.api.ContainerIdentity}.
-     */
-    private void setStateInternal(ContainerIdentity identity, State state) {
-        String id = identity.getSymbolicName();
-        try {
-            String containersParentPath = ZkPath.CONTAINER_STATE.getPath(id);
-            if (curator.get().checkExists().forPath(containersParentPath) != null) {
-                curator.get().setData().forPath(containersParentPath, state.name().getBytes());
-            } else {
-                curator.get().create().forPath(containersParentPath, state.name().getBytes());
-            }
-        } catch (Exception e) {
-            throw new FabricException("Failed to write container's:" + identity.getSymbolicName() + " state.", e);
-        }
-    }
-
     /**
      * Reads the {@link io.fabric8.api.ContainerIdentity} of the parent of the {@link Container} with the specified {@link io.fabric8.api.ContainerIdentity}.
      * @param identity  The identity of the {@link Container}.
@@ -334,27 +794,6 @@ public final class ContainerRegistry extends AbstractComponent {
         }
     }
 
-    /**
-     * Sets the parent identity of the {@link io.fabric8.api.Container}.
-     * @param identity          The target {@link io.fabric8.api.ContainerIdentity}.
-     * @param parentIdentity    The parent {@link io.fabric8.api.ContainerIdentity}.
-     */
-    private void setParentInternal(ContainerIdentity identity, ContainerIdentity parentIdentity) {
-        String id = identity.getSymbolicName();
-        byte[] parentId = parentIdentity != null ? parentIdentity.getSymbolicName().getBytes() : new byte[0];
-
-        try {
-            String containersParentPath = ZkPath.CONTAINER_PARENT.getPath(id);
-            if (curator.get().checkExists().forPath(containersParentPath) != null) {
-                curator.get().setData().forPath(containersParentPath, parentId);
-            } else {
-                curator.get().create().creatingParentsIfNeeded().forPath(containersParentPath, parentId);
-            }
-        } catch (Exception e) {
-            throw new FabricException("Failed to write container's:" + identity.getSymbolicName() + " parent identity.", e);
-        }
-    }
-
     /**
      * Reads the {@link io.fabric8.api.ContainerIdentity} of the children of the {@link Container} with the specified {@link io.fabric8.api.ContainerIdentity}.
      * @param identity  The identity of the {@link Container}.
@@ -376,27 +815,6 @@ public final class ContainerRegistry extends AbstractComponent {
         }
     }
 
-    /**
-     * Sets the child {@link io.fabric8.api.ContainerIdentity} of the {@link io.fabric8.api.Container} with the specified {@link io.fabric8.api.ContainerIdentity}.
-     * @param identity          The target {@link io.fabric8.api.ContainerIdentity}.
-     * @param childIdentities   A set with the {@link io.fabric8.api.ContainerIdentity} of the children.
-     */
-    private void setChildIdentitiesInternal(ContainerIdentity identity, Set<ContainerIdentity> childIdentities) {
-        String id = identity.getSymbolicName();
-        String data = joinContainerIdentities(childIdentities, " ").trim();
-
-        try {
-            String containerChildren = ZkPath.CONTAINER_CHILDREN.getPath(id);
-            if (curator.get().checkExists().forPath(containerChildren) != null) {
-                curator.get().setData().forPath(containerChildren, data.getBytes());
-            } else {
-                curator.get().create().creatingParentsIfNeeded().forPath(containerChildren, data.getBytes());
-            }
-        } catch (Exception e) {
-            throw new FabricException("Failed to write container's:" + identity.getSymbolicName() + " children.", e);
-        }
-    }
-
     /**
      * Reads the {@link org.jboss.gravia.runtime.RuntimeType} of the {@link Container} with the specified {@link io.fabric8.api.ContainerIdentity}.
      * @param identity  The identity of the {@link Container}.
@@ -412,27 +830,6 @@ public final class ContainerRegistry extends AbstractComponent {
         }
     }
 
-    /**
-     * Reads the {@link org.jboss.gravia.runtime.RuntimeType} of the {@link Container} with the specified {@link io.fabric8.api.ContainerIdentity}.
-     * @param identity      The identity of the {@link Container}.
-     * @param runtimeType   The {@link org.jboss.gravia.runtime.RuntimeType}.
-     */
-    private void setRuntimeTypeInternal(ContainerIdentity identity, RuntimeType runtimeType) {
-        String id = identity.getSymbolicName();
-        String data = runtimeType.name();
-
-        try {
-            String containerTypePath = ZkPath.CONTAINER_TYPE.getPath(id);
-            if (curator.get().checkExists().forPath(containerTypePath) != null) {
-                curator.get().setData().forPath(containerTypePath, data.getBytes());
-            } else {
-                curator.get().create().forPath(containerTypePath, data.getBytes());
-            }
-        } catch (Exception e) {
-            throw new FabricException("Failed to write container's:" + identity.getSymbolicName() + " runtime type.", e);
-        }
-    }
-
     /**
      * Reads the identities of the {@link io.fabric8.api.Profile} items associated with the specified {@link io.fabric8.api.ContainerIdentity}.
      * @param identity  The identity of the {@link Container}.
@@ -450,31 +847,6 @@ public final class ContainerRegistry extends AbstractComponent {
         return Collections.unmodifiableList(profiles);
     }
 
-    /**
-     * Sets the {@link io.fabric8.api.Profile} identities of the {@link io.fabric8.api.Container}.
-     * @param identity          The target {@link io.fabric8.api.ContainerIdentity}.
-     * @param profiles    The parent {@link io.fabric8.api.ContainerIdentity}.
-     */
-    private void setProfilesInternal(ContainerIdentity identity, List<ProfileIdentity> profiles) {
-        String id = identity.getSymbolicName();
-        StringBuffer dataBuffer = new StringBuffer();
-        for (ProfileIdentity prfid : profiles) {
-            dataBuffer.append(prfid.getCanonicalForm() + " ");
-        }
-        String data = dataBuffer.toString().trim();
-
-        try {
-            String containerProfilesPath = ZkPath.CONTAINER_CONFIG_PROFILES.getPath(id);
-            if (curator.get().checkExists().forPath(containerProfilesPath) != null) {
-                curator.get().setData().forPath(containerProfilesPath, data.getBytes());
-            } else {
-                curator.get().create().creatingParentsIfNeeded().forPath(containerProfilesPath, data.getBytes());
-            }
-        } catch (Exception e) {
-            throw new FabricException("Failed to write container's:" + identity.getSymbolicName() + " profiles.", e);
-        }
-    }
-
     /**
      * Reads the {@link Version} associated with the specified {@link io.fabric8.api.ContainerIdentity}.
      * @param identity  The identity of the {@link Container}.
@@ -489,25 +861,6 @@ public final class ContainerRegistry extends AbstractComponent {
         }
     }
 
-    /**
-     * Writes the {@link Version} associated with the specified {@link io.fabric8.api.ContainerIdentity}.
-     * @param identity  The identity of the {@link Container}.
-     */
-    private void setVersionInternal(ContainerIdentity identity, VersionIdentity version) {
-        String id = identity.getCanonicalForm();
-        String data = version.getCanonicalForm();
-        try {
-            String containerVersionPath = ZkPath.CONTAINER_CONFIG_VERSION.getPath(id);
-            if (curator.get().checkExists().forPath(containerVersionPath) != null) {
-                curator.get().setData().forPath(containerVersionPath, data.getBytes());
-            } else {
-                curator.get().create().creatingParentsIfNeeded().forPath(containerVersionPath, data.getBytes());
-            }
-        } catch (Exception e) {
-            throw new FabricException("Failed to write container's:" + identity.getSymbolicName() + " version.", e);
-        }
-    }
-
     /**
      * Reads the attributes stored under the specified path.
      * @param basePath      The path that contains the attributes
@@ -531,57 +884,6 @@ public final class ContainerRegistry extends AbstractComponent {
         }
     }
 
-    /**
-    * Reads the attributes stored under the specified path.
-    * @param basePath      The path that contains the attributes
-    * @param attributes    A {@link Map} of {@link io.fabric8.api.AttributeKey} -> Value.
-    */
-    private void setAttributesInternal(String basePath, Map<AttributeKey<?>, Object> attributes) {
-        try {
-            if (curator.get().checkExists().forPath(basePath) != null) {
-                curator.get().delete().deletingChildrenIfNeeded().forPath(basePath);
-            }
-            curator.get().create().creatingParentsIfNeeded().forPath(basePath);
-
-            for (Map.Entry<AttributeKey<?>, Object> entry : attributes.entrySet()) {
-                AttributeKey<?> key = entry.getKey();
-                Object value = entry.getValue();
-                String attributeKeyPath = ZKPaths.makePath(basePath, key.getName());
-                String attributeValuePath = ZKPaths.makePath(attributeKeyPath, "value");
-                String data = value.toString();
-                curator.get().create().creatingParentsIfNeeded().forPath(attributeKeyPath, key.getCanonicalForm().getBytes());
-                curator.get().create().creatingParentsIfNeeded().forPath(attributeValuePath, data.getBytes());
-            }
-        } catch (Exception e) {
-            throw new FabricException("Failed to write attributes at:" + basePath + ".", e);
-        }
-    }
-
-    /**
-     * Writes the {@link io.fabric8.api.ServiceEndpoint} items associated with the specified {@link io.fabric8.api.ContainerIdentity}.
-     * @param identity  The identity of the {@link Container}.
-     * @param endpoints The set of {@link io.fabric8.api.ServiceEndpoint} items.
-     */
-    private void setServiceEndpointsInternal(ContainerIdentity identity, Set<ServiceEndpoint> endpoints) {
-        String containerEndpointsPath = ZkPath.CONTAINER_ENDPOINTS.getPath(identity.getSymbolicName());
-        try {
-            if (curator.get().checkExists().forPath(containerEndpointsPath) != null) {
-                curator.get().delete().deletingChildrenIfNeeded().forPath(containerEndpointsPath);
-            }
-            curator.get().create().creatingParentsIfNeeded().forPath(containerEndpointsPath);
-
-            for (ServiceEndpoint endpoint : endpoints) {
-                ServiceEndpointIdentity endpointId = endpoint.getIdentity();
-                String endpointPath = ZKPaths.makePath(containerEndpointsPath, endpointId.getSymbolicName());
-                curator.get().create().creatingParentsIfNeeded().forPath(endpointPath);
-                setAttributesInternal(ZKPaths.makePath(endpointPath, "attributes"), endpoint.getAttributes());
-
-            }
-        } catch (Exception e) {
-            throw new FabricException("Failed to write container's:" + identity.getSymbolicName() + " endpoints.", e);
-        }
-    }
-
     /**
      * Reads the {@link io.fabric8.api.ServiceEndpoint} items associated with the specified {@link io.fabric8.api.ContainerIdentity}.
      * @param identity  The identity of the {@link Container}.
@@ -619,57 +921,6 @@ public final class ContainerRegistry extends AbstractComponent {
         }
     }
 
-    /**
-     * Associates a {@link io.fabric8.api.ContainerIdentity} with a {@link io.fabric8.api.ServiceEndpoint}.
-     * @param identity  The identity of the container.
-     * @param endpoint  The service endpoint.
-     */
-    private void addServiceEndpointInternal(ContainerIdentity identity, ServiceEndpoint endpoint) {
-        ServiceEndpointIdentity endpointId = endpoint.getIdentity();
-        String endpointPath = ZkPath.CONTAINER_ENDPOINT.getPath(identity.getSymbolicName(), endpointId.getSymbolicName());
-        try {
-            if (curator.get().checkExists().forPath(endpointPath) != null) {
-                curator.get().delete().deletingChildrenIfNeeded().forPath(endpointPath);
-            }
-            curator.get().create().creatingParentsIfNeeded().forPath(endpointPath);
-
-            curator.get().create().creatingParentsIfNeeded().forPath(endpointPath);
-            setAttributesInternal(ZKPaths.makePath(endpointPath, "attributes"), endpoint.getAttributes());
-        } catch (Exception e) {
-            throw new FabricException("Failed to write container's:" + identity.getSymbolicName() + " endpoints.", e);
-        }
-    }
-
-    /**
-     * Removes the association of a {@link io.fabric8.api.ContainerIdentity} with a {@link io.fabric8.api.ServiceEndpoint}.
-     * [TODO] #51 Add support for removeServiceEndpoint
-     * @param identity  The identity of the container.
-     * @param endpoint  The service endpoint.
-     */
-    @SuppressWarnings("unused")
-    private void removeServiceEndpointInternal(ContainerIdentity identity, ServiceEndpoint endpoint) {
-        ServiceEndpointIdentity endpointId = endpoint.getIdentity();
-        String endpointPath = ZkPath.CONTAINER_ENDPOINT.getPath(identity.getSymbolicName(), endpointId.getSymbolicName());
-        try {
-            if (curator.get().checkExists().forPath(endpointPath) != null) {
-                curator.get().delete().deletingChildrenIfNeeded().forPath(endpointPath);
-            }
-        } catch (Exception e) {
-            throw new FabricException("Failed to write container's:" + identity.getSymbolicName() + " endpoints.", e);
-        }
-    }
-
-    private static String joinContainerIdentities(Iterable<ContainerIdentity> identities, String separator) {
-        StringBuilder builder = new StringBuilder();
-        for (ContainerIdentity identity : identities) {
-            if (builder.length() > 0) {
-                builder.append(separator);
-            }
-            builder.append(identity.getSymbolicName());
-        }
-        return builder.toString();
-    }
-
     void bindCurator(CuratorFramework service) {
         curator.bind(service);
     }
@@ -677,4 +928,12 @@ public final class ContainerRegistry extends AbstractComponent {
     void unbindCurator(CuratorFramework service) {
         curator.unbind(service);
     }
+
+    void bindRuntimeService(RuntimeService service) {
+        runtimeService.bind(service);
+    }
+
+    void unbindRuntimeService(RuntimeService service) {
+        runtimeService.unbind(service);
+    }
 }
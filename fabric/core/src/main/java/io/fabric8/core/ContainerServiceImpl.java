@@ -29,14 +29,14 @@ import io.fabric8.api.ContainerIdentity;
 import io.fabric8.api.CreateOptions;
 import io.fabric8.api.Failure;
 import io.fabric8.api.JoinOptions;
-import io.fabric8.api.LinkedProfile;
 import io.fabric8.api.LockHandle;
 import io.fabric8.api.Profile;
-import io.fabric8.api.ProfileBuilder;
 import io.fabric8.api.ProfileEvent;
 import io.fabric8.api.ProfileEventListener;
 import io.fabric8.api.ProfileIdentity;
 import io.fabric8.api.ProfileVersion;
+import io.fabric8.api.ProfileVersionEvent;
+import io.fabric8.api.ProfileVersionEventListener;
 import io.fabric8.api.ProvisionEvent;
 import io.fabric8.api.ProvisionEvent.EventType;
 import io.fabric8.api.ProvisionEventListener;
@@ -46,11 +46,11 @@ import io.fabric8.api.ServiceEndpoint;
 import io.fabric8.api.ServiceEndpointIdentity;
 import io.fabric8.api.VersionIdentity;
 import io.fabric8.api.process.ProcessOptions;
+import io.fabric8.core.ConfigurationManager.ApplyResult;
 import io.fabric8.spi.Agent;
 import io.fabric8.spi.BootConfiguration;
 import io.fabric8.spi.ContainerService;
 import io.fabric8.spi.CurrentContainer;
-import io.fabric8.spi.DefaultProfileBuilder;
 import io.fabric8.spi.EventDispatcher;
 import io.fabric8.spi.ImmutableContainer;
 import io.fabric8.spi.ProfileService;
@@ -61,7 +61,6 @@ import io.fabric8.spi.process.ManagedProcess;
 import io.fabric8.spi.process.ProcessIdentity;
 import io.fabric8.spi.scr.AbstractProtectedComponent;
 import io.fabric8.spi.scr.ValidatingReference;
-import io.fabric8.spi.utils.ProfileUtils;
 
 import java.io.IOException;
 import java.net.URL;
@@ -75,6 +74,7 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
@@ -144,6 +144,24 @@ public final class ContainerServiceImpl extends AbstractProtectedComponent<Conta
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ContainerServiceImpl.class);
 
+    /**
+     * The window in milliseconds over which profile updates are coalesced into a single provisioning
+     */
+    static final String PROPERTY_PROVISION_COALESCE_WINDOW = "fabric8.provision.coalesce.window";
+    /**
+     * The maximum number of resources that are installed or uninstalled concurrently.
+     * Only use more than one thread with a {@link Provisioner} that supports concurrent installs.
+     */
+    static final String PROPERTY_PROVISION_THREADS = "fabric8.provision.threads";
+    /**
+     * The time in milliseconds after which a cached resolver result expires
+     */
+    static final String PROPERTY_RESOLVER_CACHE_EXPIRY = "fabric8.provision.resolver.cache.expiry";
+
+    private static final long DEFAULT_PROVISION_COALESCE_WINDOW = 500;
+    private static final int DEFAULT_PROVISION_THREADS = 1;
+    private static final long DEFAULT_RESOLVER_CACHE_EXPIRY = 60 * 1000L;
+
     @Reference(referenceInterface = Agent.class)
     private final ValidatingReference<Agent> agent = new ValidatingReference<>();
     @Reference(referenceInterface = BootConfiguration.class)
@@ -164,7 +182,11 @@ public final class ContainerServiceImpl extends AbstractProtectedComponent<Conta
     private final ValidatingReference<RuntimeService> runtimeService = new ValidatingReference<>();
 
     private final Set<ServiceRegistration<?>> registrations = new HashSet<>();
+    private final Map<ContainerIdentity, Profile> provisionedProfiles = new ConcurrentHashMap<>();
     private ContainerIdentity currentIdentity;
+    private ProvisioningQueue provisioningQueue;
+    private ResourceInstaller resourceInstaller;
+    private ResolutionCache resolutionCache;
 
     @Activate
     void activate(Map<String, ?> config) throws ProvisionException {
@@ -180,12 +202,21 @@ public final class ContainerServiceImpl extends AbstractProtectedComponent<Conta
         for (ServiceRegistration<?> sreg : registrations) {
             sreg.unregister();
         }
+        provisioningQueue.shutdown();
+        resourceInstaller.shutdown();
     }
 
     private void activateInternal() throws ProvisionException {
 
         currentIdentity = currentContainer.get().getCurrentContainerIdentity();
 
+        long window = Long.parseLong(runtimeService.get().getProperty(PROPERTY_PROVISION_COALESCE_WINDOW, "" + DEFAULT_PROVISION_COALESCE_WINDOW));
+        provisioningQueue = new ProvisioningQueue(window);
+        int threads = Integer.parseInt(runtimeService.get().getProperty(PROPERTY_PROVISION_THREADS, "" + DEFAULT_PROVISION_THREADS));
+        resourceInstaller = new ResourceInstaller(provisioner.get(), threads);
+        long expiry = Long.parseLong(runtimeService.get().getProperty(PROPERTY_RESOLVER_CACHE_EXPIRY, "" + DEFAULT_RESOLVER_CACHE_EXPIRY));
+        resolutionCache = new ResolutionCache(expiry);
+
         // Register a listener for profile update events
         ProfileEventListener listener = new ProfileEventListener() {
 
@@ -205,15 +236,37 @@ public final class ContainerServiceImpl extends AbstractProtectedComponent<Conta
                     Container cnt = service.getCurrentContainer();
                     List<ProfileIdentity> profiles = cnt.getProfileIdentities();
                     if (profiles.contains(prfid)) {
-                        ContainerIdentity cntid = cnt.getIdentity();
-                        LockHandle writeLock = service.aquireContainerLock(cntid);
-                        try {
-                            service.updateProfile(prfid, null);
-                        } catch (ProvisionException ex) {
-                            LOGGER.error("Cannot update container profile: " + profile, ex);
-                        } finally {
-                            writeLock.unlock();
-                        }
+                        queueProfileUpdate(cnt.getIdentity(), prfid);
+                    }
+                } finally {
+                    permit.release();
+                }
+            }
+        };
+
+        // Register a listener for batched profile version updates, which provisions the current container once
+        ProfileVersionEventListener versionListener = new ProfileVersionEventListener() {
+
+            @Override
+            public void processEvent(ProfileVersionEvent event) {
+                if (event.getType() != ProfileVersionEvent.EventType.UPDATED)
+                    return;
+
+                VersionIdentity version = event.getSource().getIdentity();
+                LOGGER.info("Update profile version: {} <= {}", version, event.getProfiles());
+
+                PermitManager permitManager = ServiceLocator.getRequiredService(PermitManager.class);
+                Permit<ContainerService> permit = permitManager.aquirePermit(ContainerService.PERMIT, false);
+                try {
+                    ContainerService service = permit.getInstance();
+                    Container cnt = service.getCurrentContainer();
+                    if (!version.equals(cnt.getProfileVersion()))
+                        return;
+
+                    List<ProfileIdentity> profiles = new ArrayList<>(cnt.getProfileIdentities());
+                    profiles.retainAll(event.getProfiles());
+                    if (!profiles.isEmpty()) {
+                        queueProfileUpdate(cnt.getIdentity(), profiles.get(0));
                     }
                 } finally {
                     permit.release();
@@ -223,6 +276,18 @@ public final class ContainerServiceImpl extends AbstractProtectedComponent<Conta
         Runtime runtime = RuntimeLocator.getRequiredRuntime();
         ModuleContext syscontext = runtime.getModuleContext();
         registrations.add(syscontext.registerService(ProfileEventListener.class, listener, null));
+        registrations.add(syscontext.registerService(ProfileVersionEventListener.class, versionListener, null));
+
+        // Register the provisioning statistics
+        StatisticsProvider statistics = new StatisticsProvider() {
+            @Override
+            public void collectStatistics(Map<String, Long> result) {
+                provisioningQueue.collectStatistics(result);
+                resourceInstaller.collectStatistics(result);
+                resolutionCache.collectStatistics(result);
+            }
+        };
+        registrations.add(syscontext.registerService(StatisticsProvider.class, statistics, null));
 
         // Start and provision the current container
         ContainerRegistry registry = containerRegistry.get();
@@ -252,6 +317,33 @@ public final class ContainerServiceImpl extends AbstractProtectedComponent<Conta
 
     }
 
+    /**
+     * Queue a profile update for the given container.
+     * Updates that arrive within the coalescing window supersede each other and result in a single provisioning.
+     */
+    private void queueProfileUpdate(final ContainerIdentity cntid, final ProfileIdentity prfid) {
+        provisioningQueue.submit(cntid, new Runnable() {
+            @Override
+            public void run() {
+                PermitManager permitManager = ServiceLocator.getRequiredService(PermitManager.class);
+                Permit<ContainerService> permit = permitManager.aquirePermit(ContainerService.PERMIT, false);
+                try {
+                    ContainerService service = permit.getInstance();
+                    LockHandle writeLock = service.aquireContainerLock(cntid);
+                    try {
+                        service.updateProfile(prfid, null);
+                    } catch (ProvisionException ex) {
+                        LOGGER.error("Cannot update container profile: " + prfid, ex);
+                    } finally {
+                        writeLock.unlock();
+                    }
+                } finally {
+                    permit.release();
+                }
+            }
+        });
+    }
+
     @Override
     public LockHandle aquireContainerLock(ContainerIdentity identity) {
         assertValid();
@@ -472,6 +564,7 @@ public final class ContainerServiceImpl extends AbstractProtectedComponent<Conta
 
     private Container stopContainerInternal(Container container) {
         LOGGER.info("Stop container: {}", container);
+        provisionedProfiles.remove(container.getIdentity());
         ContainerRegistry registry = containerRegistry.get();
         return registry.stopContainer(container.getIdentity());
     }
@@ -533,17 +626,7 @@ public final class ContainerServiceImpl extends AbstractProtectedComponent<Conta
     @Override
     public Set<Container> getContainers(Set<ContainerIdentity> identities) {
         assertValid();
-        Set<Container> result = new HashSet<>();
-        ContainerRegistry registry = containerRegistry.get();
-        for (ContainerIdentity identity : registry.getContainerIdentities()) {
-            LockHandle readLock = aquireReadLock(identity);
-            try {
-                result.add(registry.getContainer(identity));
-            } finally {
-                readLock.unlock();
-            }
-        }
-        return Collections.unmodifiableSet(result);
+        return containerRegistry.get().getContainers(identities);
     }
 
     @Override
@@ -621,6 +704,7 @@ public final class ContainerServiceImpl extends AbstractProtectedComponent<Conta
 
     private Container removeProfilesInternal(Container container, List<ProfileIdentity> profiles, ProvisionEventListener listener) throws ProvisionException {
         LOGGER.info("Remove container profiles: {} => {}", container, profiles);
+        resolutionCache.invalidate();
 
         // Unprovision the profiles
         VersionIdentity version = container.getProfileVersion();
@@ -650,17 +734,7 @@ public final class ContainerServiceImpl extends AbstractProtectedComponent<Conta
     private Profile getEffectiveProfileInternal(Container container, VersionIdentity version, List<ProfileIdentity> profiles) {
         LockHandle readLock = aquireReadLock(container.getIdentity());
         try {
-            StringBuffer effectiveId = new StringBuffer("effective#" + version);
-            for (ProfileIdentity prfid : profiles) {
-                effectiveId.append("-" + prfid.getSymbolicName());
-            }
-            ProfileBuilder prfBuilder = new DefaultProfileBuilder(effectiveId.toString());
-            prfBuilder.profileVersion(version);
-            for (ProfileIdentity profileId : profiles) {
-                LinkedProfile linkedProfile = profileService.get().getLinkedProfile(version, profileId);
-                ProfileUtils.buildEffectiveProfile(prfBuilder, linkedProfile);
-            }
-            return prfBuilder.getProfile();
+            return profileService.get().getEffectiveProfile(version, profiles);
         } finally {
             readLock.unlock();
         }
@@ -672,6 +746,9 @@ public final class ContainerServiceImpl extends AbstractProtectedComponent<Conta
         Container container = getCurrentContainer();
         LOGGER.info("Update container profile: {} <= {}", container, profile);
 
+        // An updated profile may carry new content for a resource it already had
+        resolutionCache.invalidate();
+
         // Provision the profile
         VersionIdentity version = container.getProfileVersion();
         List<ProfileIdentity> identities = container.getProfileIdentities();
@@ -685,6 +762,11 @@ public final class ContainerServiceImpl extends AbstractProtectedComponent<Conta
         }
     }
 
+    /**
+     * Provision the effective profile incrementally against the last effective profile that was provisioned for the container.
+     * All runtime relevant configuration items are handed to the {@link ConfigurationManager}, which skips the ones it knows to be current.
+     * Resources are only resolved when resource or requirement items changed.
+     */
     private void provisionEffectiveProfile(Container container, Profile effective, ProvisionEventListener listener) throws ProvisionException {
 
         LOGGER.info("Provision profile: {} <= {}", container, effective.getIdentity());
@@ -692,7 +774,11 @@ public final class ContainerServiceImpl extends AbstractProtectedComponent<Conta
         ProvisionEvent event = new ProvisionEvent(container, EventType.PROVISIONING, effective);
         eventDispatcher.get().dispatchProvisionEvent(event, listener);
 
-        // Apply the configuration items
+        // A failed provisioning leaves an unknown state, the next one starts from scratch
+        ContainerIdentity identity = container.getIdentity();
+        Profile previous = provisionedProfiles.remove(identity);
+
+        // Apply the configuration items, a configuration that was changed by others since the last provisioning is restored
         Filter filter = new ConfigurationItem.Filter() {
             @Override
             public boolean accept(Configuration config) {
@@ -702,20 +788,40 @@ public final class ContainerServiceImpl extends AbstractProtectedComponent<Conta
             }
 
         };
+        Map<String, Map<String, Object>> configs = new LinkedHashMap<>();
         for (ConfigurationItem item : effective.getProfileItems(ConfigurationItem.class)) {
             for (Configuration config : item.getConfigurations(filter)) {
-                Map<String, Object> atts = config.getAttributes();
-                configurationManager.get().applyConfiguration(item.getIdentity(), atts);
+                configs.put(item.getIdentity(), config.getAttributes());
             }
         }
+        Set<String> appliedConfigs = new LinkedHashSet<>();
+        if (!configs.isEmpty()) {
+            ApplyResult applyResult = configurationManager.get().applyConfigurations(configs);
+            appliedConfigs.addAll(applyResult.getUpdated());
+        }
+
+        Set<ResourceIdentity> installed = new LinkedHashSet<>();
+        Set<ResourceIdentity> uninstalled = new LinkedHashSet<>();
+        if (previous == null || !getResourceKeys(previous).equals(getResourceKeys(effective))) {
+            provisionResources(effective, installed, uninstalled);
+        }
+        provisionedProfiles.put(identity, effective);
+
+        LOGGER.debug("Provisioned profile: {} <= configs={} installed={} uninstalled={}", container, appliedConfigs, installed, uninstalled);
 
-        // Clone the runtime environment & add the explicit {@link ResourceItem}s
+        event = new ProvisionEvent(container, EventType.PROVISIONED, effective, appliedConfigs, installed, uninstalled);
+        eventDispatcher.get().dispatchProvisionEvent(event, listener);
+    }
+
+    private void provisionResources(Profile effective, Set<ResourceIdentity> installed, Set<ResourceIdentity> uninstalled) throws ProvisionException {
+
+        // Overlay the runtime environment with the explicit {@link ResourceItem}s
         Map<ResourceIdentity, ResourceItem> explicitResources = new LinkedHashMap<>();
-        Environment envclone = provisioner.get().getEnvironment().cloneEnvironment();
+        Environment envoverlay = new OverlayEnvironment(provisioner.get().getEnvironment());
         for (ResourceItem item : effective.getProfileItems(ResourceItem.class)) {
             Resource res = item.getResource();
             explicitResources.put(res.getIdentity(), item);
-            envclone.addResource(res);
+            envoverlay.addResource(res);
         }
 
         // Get the complete set of requirements
@@ -725,8 +831,8 @@ public final class ContainerServiceImpl extends AbstractProtectedComponent<Conta
             reqs.add(req);
         }
 
-        // Resolve all requirements
-        ProvisionResult result = provisioner.get().findResources(envclone, reqs);
+        // Resolve all requirements, unless the same environment and requirements were resolved recently
+        ProvisionResult result = resolutionCache.findResources(provisioner.get(), envoverlay, reqs);
         Set<Requirement> unsatisfied = result.getUnsatisfiedRequirements();
         if (!unsatisfied.isEmpty()) {
             throw new ProvisionException("Cannot resolve unsatisfied requirements: " + unsatisfied);
@@ -754,27 +860,43 @@ public final class ContainerServiceImpl extends AbstractProtectedComponent<Conta
             }
         }
 
-        // Uninstall removed resources
-        Collections.reverse(removalPending);
+        // Uninstall removed resources, dependents before their providers
+        List<ResourceHandle> removalHandles = new ArrayList<>();
         for (ResourceIdentity resid : removalPending) {
-            ResourceHandle handle = currentResources.get(resid);
-            handle.uninstall();
+            removalHandles.add(currentResources.get(resid));
+        }
+        try {
+            resourceInstaller.uninstallResources(removalHandles, uninstalled);
+        } finally {
+            resourceHolder.removeResourceHandles(uninstalled);
         }
-        resourceHolder.removeResourceHandles(removalPending);
 
-        // Install added resources
-        Map<ResourceIdentity, ResourceHandle> addedResources = new LinkedHashMap<>();
+        // Install added resources, providers before their dependents
+        List<Resource> installPending = new ArrayList<>();
         for (Resource res : allResources.values()) {
-            ResourceIdentity resid = res.getIdentity();
-            if (currentResources.get(resid) == null) {
-                ResourceHandle handle = provisioner.get().installResource(res);
-                addedResources.put(resid, handle);
+            if (currentResources.get(res.getIdentity()) == null) {
+                installPending.add(res);
             }
         }
-        resourceHolder.addResourceHandles(addedResources);
+        Map<ResourceIdentity, ResourceHandle> addedResources = new LinkedHashMap<>();
+        try {
+            resourceInstaller.installResources(installPending, addedResources);
+        } finally {
+            resourceHolder.addResourceHandles(addedResources);
+            installed.addAll(addedResources.keySet());
+        }
+    }
 
-        event = new ProvisionEvent(container, EventType.PROVISIONED, effective);
-        eventDispatcher.get().dispatchProvisionEvent(event, listener);
+    // The resource and requirement items that determine the resolver input
+    private List<Object> getResourceKeys(Profile profile) {
+        List<Object> result = new ArrayList<>();
+        for (ResourceItem item : profile.getProfileItems(ResourceItem.class)) {
+            result.add(Arrays.asList(item.getIdentity(), ProfileDiffSupport.getResourceKey(item.getResource())));
+        }
+        for (RequirementItem item : profile.getProfileItems(RequirementItem.class)) {
+            result.add(ProfileDiffSupport.getRequirementKey(item.getRequirement()));
+        }
+        return result;
     }
 
     private boolean isRuntimeRelevant(String includedTypes, String excludedTypes) {
@@ -0,0 +1,210 @@
+/*
+ * #%L
+ * Fabric8 :: Core
+ * %%
+ * Copyright (C) 2014 Red Hat
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.fabric8.core;
+
+import io.fabric8.api.FabricException;
+import io.fabric8.api.Profile;
+import io.fabric8.api.ProfileIdentity;
+import io.fabric8.api.VersionIdentity;
+import io.fabric8.core.utils.TimingStatistics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A cache of effective profiles
+ *
+ * An effective profile is keyed by its profile version and the ordered list of profiles it was built from.
+ * Each entry remembers the closure of profiles it depends on, so that an entry is invalidated
+ * when any of the profiles in that closure changes. Concurrent requests for the same entry wait for the same computation.
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 02-Jul-2014
+ */
+final class EffectiveProfileCache implements StatisticsProvider {
+
+    private static final int MAX_ENTRIES = 256;
+
+    private final Map<Key, CacheEntry> cacheMap = new LinkedHashMap<Key, CacheEntry>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Entry<Key, CacheEntry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong invalidationCount = new AtomicLong();
+    private final TimingStatistics computeTime = new TimingStatistics("EffectiveProfileCompute");
+
+    /**
+     * Computes an effective profile on a cache miss
+     */
+    interface Loader {
+
+        /**
+         * Build the effective profile and add the identities of all profiles it was built from to the given closure
+         */
+        Profile loadEffectiveProfile(Set<ProfileIdentity> closure);
+    }
+
+    /**
+     * Get the cached effective profile, or compute it with the given loader
+     */
+    Profile getEffectiveProfile(VersionIdentity version, ProfileIdentity effectiveId, List<ProfileIdentity> profiles, Loader loader) {
+        Key key = new Key(version, effectiveId, profiles);
+        CacheEntry entry;
+        boolean owner = false;
+        synchronized (cacheMap) {
+            entry = cacheMap.get(key);
+            if (entry == null) {
+                entry = new CacheEntry(loader);
+                cacheMap.put(key, entry);
+                owner = true;
+            }
+        }
+        if (owner) {
+            long startTime = System.nanoTime();
+            entry.run();
+            computeTime.addSampleSince(startTime);
+        } else {
+            hitCount.incrementAndGet();
+        }
+        try {
+            return entry.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while computing effective profile: " + effectiveId, ex);
+        } catch (ExecutionException ex) {
+            synchronized (cacheMap) {
+                if (cacheMap.get(key) == entry) {
+                    cacheMap.remove(key);
+                }
+            }
+            throw FabricException.launderThrowable(ex.getCause());
+        }
+    }
+
+    /**
+     * Invalidate all effective profiles that depend on the given profile
+     */
+    void invalidate(VersionIdentity version, ProfileIdentity profile) {
+        synchronized (cacheMap) {
+            Iterator<Entry<Key, CacheEntry>> iterator = cacheMap.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Entry<Key, CacheEntry> entry = iterator.next();
+                CacheEntry value = entry.getValue();
+                // The closure of an entry is only known once it is computed
+                if (entry.getKey().version.equals(version) && (!value.isDone() || value.closure.contains(profile))) {
+                    iterator.remove();
+                    invalidationCount.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * Invalidate all effective profiles for the given version
+     */
+    void invalidate(VersionIdentity version) {
+        synchronized (cacheMap) {
+            Iterator<Key> iterator = cacheMap.keySet().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().version.equals(version)) {
+                    iterator.remove();
+                    invalidationCount.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void collectStatistics(Map<String, Long> statistics) {
+        synchronized (cacheMap) {
+            statistics.put("EffectiveProfileCache.size", (long) cacheMap.size());
+        }
+        statistics.put("EffectiveProfileCache.hits", hitCount.get());
+        statistics.put("EffectiveProfileCache.invalidations", invalidationCount.get());
+        computeTime.collect(statistics);
+    }
+
+    @Override
+    public String toString() {
+        synchronized (cacheMap) {
+            return "EffectiveProfileCache[size=" + cacheMap.size() + ",hits=" + hitCount + ",invalidations=" + invalidationCount + "," + computeTime + "]";
+        }
+    }
+
+    private static final class CacheEntry extends FutureTask<Profile> {
+
+        // Only filled by the loader, read once the entry is done
+        private final Set<ProfileIdentity> closure;
+
+        CacheEntry(Loader loader) {
+            this(loader, new HashSet<ProfileIdentity>());
+        }
+
+        private CacheEntry(final Loader loader, final Set<ProfileIdentity> closure) {
+            super(new Callable<Profile>() {
+                @Override
+                public Profile call() throws Exception {
+                    return loader.loadEffectiveProfile(closure);
+                }
+            });
+            this.closure = closure;
+        }
+    }
+
+    private static final class Key {
+
+        private final VersionIdentity version;
+        private final ProfileIdentity effectiveId;
+        private final List<ProfileIdentity> profiles;
+
+        Key(VersionIdentity version, ProfileIdentity effectiveId, List<ProfileIdentity> profiles) {
+            this.version = version;
+            this.effectiveId = effectiveId;
+            this.profiles = Collections.unmodifiableList(new ArrayList<>(profiles));
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) return false;
+            Key other = (Key) obj;
+            return version.equals(other.version) && effectiveId.equals(other.effectiveId) && profiles.equals(other.profiles);
+        }
+
+        @Override
+        public int hashCode() {
+            return (version.hashCode() * 31 + effectiveId.hashCode()) * 31 + profiles.hashCode();
+        }
+    }
+}
@@ -25,6 +25,8 @@ import io.fabric8.api.FabricEvent;
 import io.fabric8.api.FabricEventListener;
 import io.fabric8.api.ProfileEvent;
 import io.fabric8.api.ProfileEventListener;
+import io.fabric8.api.ProfileVersionEvent;
+import io.fabric8.api.ProfileVersionEventListener;
 import io.fabric8.api.ProvisionEvent;
 import io.fabric8.api.ProvisionEventListener;
 import io.fabric8.spi.EventDispatcher;
@@ -67,6 +69,7 @@ public final class EventDispatcherImpl extends AbstractComponent implements Even
     private final Map<Class<?>, Set<FabricEventListener<?>>> listenerMapping = new HashMap<Class<?>, Set<FabricEventListener<?>>>();
     private ServiceTracker<ProvisionEventListener, ProvisionEventListener> provisionTracker;
     private ServiceTracker<ProfileEventListener, ProfileEventListener> profileTracker;
+    private ServiceTracker<ProfileVersionEventListener, ProfileVersionEventListener> versionTracker;
     private ServiceTracker<ComponentEventListener, ComponentEventListener> componentTracker;
     private ExecutorService executor;
 
@@ -76,6 +79,7 @@ public final class EventDispatcherImpl extends AbstractComponent implements Even
         componentTracker = createTracker(ComponentEventListener.class);
         provisionTracker = createTracker(ProvisionEventListener.class);
         profileTracker = createTracker(ProfileEventListener.class);
+        versionTracker = createTracker(ProfileVersionEventListener.class);
         activateComponent();
     }
 
@@ -85,6 +89,7 @@ public final class EventDispatcherImpl extends AbstractComponent implements Even
         componentTracker.close();
         provisionTracker.close();
         profileTracker.close();
+        versionTracker.close();
         deactivateComponent();
     }
 
@@ -98,6 +103,11 @@ public final class EventDispatcherImpl extends AbstractComponent implements Even
         dispatchEvent(event, ProfileEventListener.class, listener);
     }
 
+    @Override
+    public void dispatchProfileVersionEvent(final ProfileVersionEvent event, final ProfileVersionEventListener listener) {
+        dispatchEvent(event, ProfileVersionEventListener.class, listener);
+    }
+
     @Override
     public void dispatchComponentEvent(final ComponentEvent event) {
         dispatchEvent(event, ComponentEventListener.class, null);
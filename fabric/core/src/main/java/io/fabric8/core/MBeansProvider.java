@@ -19,6 +19,8 @@
  */
 package io.fabric8.core;
 
+import static org.apache.felix.scr.annotations.ReferenceCardinality.OPTIONAL_MULTIPLE;
+import static org.apache.felix.scr.annotations.ReferencePolicy.DYNAMIC;
 import io.fabric8.api.Container;
 import io.fabric8.api.ContainerIdentity;
 import io.fabric8.api.ContainerManager;
@@ -30,6 +32,7 @@ import io.fabric8.api.VersionIdentity;
 import io.fabric8.api.management.ContainerManagement;
 import io.fabric8.api.management.ProfileManagement;
 import io.fabric8.api.management.ProfileVersionManagement;
+import io.fabric8.api.management.StatisticsManagement;
 import io.fabric8.spi.management.ContainerOpenType;
 import io.fabric8.spi.management.ProfileOpenType;
 import io.fabric8.spi.management.ProfileVersionOpenType;
@@ -38,7 +41,11 @@ import io.fabric8.spi.scr.ValidatingReference;
 
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import javax.management.JMException;
 import javax.management.MBeanServer;
@@ -68,6 +75,8 @@ public final class MBeansProvider extends AbstractComponent {
     private final ValidatingReference<ContainerManager> containerManager = new ValidatingReference<ContainerManager>();
     @Reference(referenceInterface = ProfileManager.class)
     private final ValidatingReference<ProfileManager> profileManager = new ValidatingReference<ProfileManager>();
+    @Reference(referenceInterface = StatisticsProvider.class, bind = "bindStatisticsProvider", unbind = "unbindStatisticsProvider", cardinality = OPTIONAL_MULTIPLE, policy = DYNAMIC)
+    private final List<StatisticsProvider> statisticsProviders = new CopyOnWriteArrayList<StatisticsProvider>();
 
     @Activate
     void activate() {
@@ -92,6 +101,9 @@ public final class MBeansProvider extends AbstractComponent {
 
             ProfileManagement prfManagement = new ProfileManagementMBean(profileManager.get());
             server.registerMBean(new StandardMBean(prfManagement, ProfileManagement.class, false), ProfileManagement.OBJECT_NAME);
+
+            StatisticsManagement statsManagement = new StatisticsManagementMBean(statisticsProviders);
+            server.registerMBean(new StandardMBean(statsManagement, StatisticsManagement.class, true), StatisticsManagement.OBJECT_NAME);
         } catch (JMException ex) {
             throw new IllegalStateException(ex);
         }
@@ -103,6 +115,7 @@ public final class MBeansProvider extends AbstractComponent {
             server.unregisterMBean(ContainerManagement.OBJECT_NAME);
             server.unregisterMBean(ProfileVersionManagementMBean.OBJECT_NAME);
             server.unregisterMBean(ProfileManagement.OBJECT_NAME);
+            server.unregisterMBean(StatisticsManagement.OBJECT_NAME);
         } catch (JMException ex) {
             throw new IllegalStateException(ex);
         }
@@ -132,6 +145,14 @@ public final class MBeansProvider extends AbstractComponent {
         this.profileManager.unbind(service);
     }
 
+    void bindStatisticsProvider(StatisticsProvider service) {
+        this.statisticsProviders.add(service);
+    }
+
+    void unbindStatisticsProvider(StatisticsProvider service) {
+        this.statisticsProviders.remove(service);
+    }
+
     static class ContainerManagementMBean implements ContainerManagement {
 
         private final ContainerManager containerManager;
@@ -204,4 +225,22 @@ public final class MBeansProvider extends AbstractComponent {
             return profile != null ? ProfileOpenType.getCompositeData(profile) : null;
         }
     }
+
+    static class StatisticsManagementMBean implements StatisticsManagement {
+
+        private final List<StatisticsProvider> statisticsProviders;
+
+        StatisticsManagementMBean(List<StatisticsProvider> statisticsProviders) {
+            this.statisticsProviders = statisticsProviders;
+        }
+
+        @Override
+        public Map<String, Long> getStatistics() {
+            Map<String, Long> result = new TreeMap<String, Long>();
+            for (StatisticsProvider provider : statisticsProviders) {
+                provider.collectStatistics(result);
+            }
+            return Collections.unmodifiableMap(result);
+        }
+    }
 }
@@ -0,0 +1,123 @@
+/*
+ * #%L
+ * Fabric8 :: Core
+ * %%
+ * Copyright (C) 2014 Red Hat
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.fabric8.core;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jboss.gravia.resolver.DefaultEnvironment;
+import org.jboss.gravia.resolver.Environment;
+import org.jboss.gravia.resource.Capability;
+import org.jboss.gravia.resource.Requirement;
+import org.jboss.gravia.resource.Resource;
+import org.jboss.gravia.resource.ResourceIdentity;
+import org.jboss.gravia.runtime.Wiring;
+import org.jboss.gravia.utils.IllegalArgumentAssertion;
+
+/**
+ * An environment that layers resources over a read-only view of another environment
+ *
+ * Added resources are kept in the overlay, which shadows base resources with the same identity.
+ * The base environment is never modified or copied.
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 14-Jul-2014
+ */
+final class OverlayEnvironment extends DefaultEnvironment {
+
+    private final Environment base;
+
+    OverlayEnvironment(Environment base) {
+        super("Overlay[" + base.getName() + "]");
+        IllegalArgumentAssertion.assertNotNull(base, "base");
+        this.base = base;
+    }
+
+    Environment getBaseEnvironment() {
+        return base;
+    }
+
+    @Override
+    public Resource getResource(ResourceIdentity identity) {
+        Resource res = super.getResource(identity);
+        return res != null ? res : base.getResource(identity);
+    }
+
+    @Override
+    public Iterator<Resource> getResources() {
+        List<Resource> result = new ArrayList<>();
+        Iterator<Resource> itres = super.getResources();
+        while (itres.hasNext()) {
+            result.add(itres.next());
+        }
+        itres = base.getResources();
+        while (itres.hasNext()) {
+            Resource res = itres.next();
+            if (!isShadowed(res)) {
+                result.add(res);
+            }
+        }
+        return result.iterator();
+    }
+
+    @Override
+    public Set<Capability> findProviders(Requirement req) {
+        Set<Capability> result = new LinkedHashSet<>(super.findProviders(req));
+        for (Capability cap : base.findProviders(req)) {
+            if (!isShadowed(cap.getResource())) {
+                result.add(cap);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Map<Resource, Wiring> getWirings() {
+        Map<Resource, Wiring> result = new HashMap<>(base.getWirings());
+        result.putAll(super.getWirings());
+        return result;
+    }
+
+    /**
+     * Cloning is rare, so it materializes the base environment plus the overlay
+     */
+    @Override
+    public Environment cloneEnvironment() {
+        Environment clone = base.cloneEnvironment();
+        Iterator<Resource> itres = super.getResources();
+        while (itres.hasNext()) {
+            Resource res = itres.next();
+            if (clone.getResource(res.getIdentity()) != null) {
+                clone.removeResource(res.getIdentity());
+            }
+            clone.addResource(res);
+        }
+        return clone;
+    }
+
+    private boolean isShadowed(Resource res) {
+        return super.getResource(res.getIdentity()) != null;
+    }
+}
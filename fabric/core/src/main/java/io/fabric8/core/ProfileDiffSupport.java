@@ -0,0 +1,139 @@
+/*
+ * #%L
+ * Fabric8 :: Core
+ * %%
+ * Copyright (C) 2014 Red Hat
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.fabric8.core;
+
+import io.fabric8.api.Configuration;
+import io.fabric8.api.ConfigurationItem;
+import io.fabric8.api.Profile;
+import io.fabric8.api.ProfileItem;
+import io.fabric8.api.ProfileVersionDiff.ProfileDiff;
+import io.fabric8.api.RequirementItem;
+import io.fabric8.api.ResourceItem;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jboss.gravia.resource.Capability;
+import org.jboss.gravia.resource.ContentNamespace;
+import org.jboss.gravia.resource.Requirement;
+import org.jboss.gravia.resource.Resource;
+
+/**
+ * Compare profiles item by item
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 08-Jul-2014
+ */
+final class ProfileDiffSupport {
+
+    // Hide ctor
+    private ProfileDiffSupport() {
+    }
+
+    /**
+     * Get the changes between two profiles with the same identity
+     */
+    static ProfileDiff diffProfile(Profile source, Profile target) {
+        return diffProfile(source, target, Collections.<String>emptySet());
+    }
+
+    /**
+     * Get the changes between two profiles with the same identity
+     * @param changedPaths The changed paths in the profile tree, which reveal changed resource content
+     */
+    static ProfileDiff diffProfile(Profile source, Profile target, Set<String> changedPaths) {
+        boolean parentsModified = !source.getParents().equals(target.getParents());
+        boolean attributesModified = !source.getAttributes().equals(target.getAttributes());
+        Map<String, ProfileItem> sourceItems = new HashMap<>();
+        for (ProfileItem item : source.getProfileItems(ProfileItem.class)) {
+            sourceItems.put(item.getIdentity(), item);
+        }
+        Set<String> added = new LinkedHashSet<>();
+        Set<String> modified = new LinkedHashSet<>();
+        for (ProfileItem item : target.getProfileItems(ProfileItem.class)) {
+            ProfileItem sourceItem = sourceItems.remove(item.getIdentity());
+            if (sourceItem == null) {
+                added.add(item.getIdentity());
+            } else if (!itemEquals(sourceItem, item, changedPaths)) {
+                modified.add(item.getIdentity());
+            }
+        }
+        return new ProfileDiff(target.getIdentity(), parentsModified, attributesModified, added, sourceItems.keySet(), modified);
+    }
+
+    /**
+     * True if the items have the same content
+     * @param changedPaths The changed paths in the profile tree, which reveal changed resource content
+     */
+    static boolean itemEquals(ProfileItem source, ProfileItem target, Set<String> changedPaths) {
+        if (source instanceof ConfigurationItem && target instanceof ConfigurationItem) {
+            List<Configuration> sourceConfigs = ((ConfigurationItem) source).getConfigurations(null);
+            ConfigurationItem targetItem = (ConfigurationItem) target;
+            if (sourceConfigs.size() != targetItem.getConfigurations(null).size())
+                return false;
+            for (Configuration config : sourceConfigs) {
+                Configuration other = targetItem.getConfiguration(config.getMergeId());
+                if (other == null || !config.getAttributes().equals(other.getAttributes()) || !config.getDirectives().equals(other.getDirectives()))
+                    return false;
+            }
+            return true;
+        } else if (source instanceof RequirementItem && target instanceof RequirementItem) {
+            Requirement sourceReq = ((RequirementItem) source).getRequirement();
+            Requirement targetReq = ((RequirementItem) target).getRequirement();
+            return getRequirementKey(sourceReq).equals(getRequirementKey(targetReq));
+        } else if (source instanceof ResourceItem && target instanceof ResourceItem) {
+            // Changed content shows up as a changed blob reference below the resource path
+            ResourceItem targetItem = (ResourceItem) target;
+            String contentPath = targetItem.getSymbolicName() + "/" + targetItem.getVersion() + "/";
+            for (String path : changedPaths) {
+                if (path.startsWith(contentPath))
+                    return false;
+            }
+            Resource sourceRes = ((ResourceItem) source).getResource();
+            Resource targetRes = targetItem.getResource();
+            return getResourceKey(sourceRes).equals(getResourceKey(targetRes));
+        }
+        return false;
+    }
+
+    // The content URL is specific to the profile version and not part of the comparison
+    static List<Object> getResourceKey(Resource resource) {
+        List<Object> result = new ArrayList<>();
+        for (Capability cap : resource.getCapabilities(null)) {
+            Map<String, Object> atts = new HashMap<>(cap.getAttributes());
+            atts.remove(ContentNamespace.CAPABILITY_URL_ATTRIBUTE);
+            result.add(Arrays.asList(cap.getNamespace(), atts, cap.getDirectives()));
+        }
+        for (Requirement req : resource.getRequirements(null)) {
+            result.add(getRequirementKey(req));
+        }
+        return result;
+    }
+
+    static List<Object> getRequirementKey(Requirement req) {
+        return Arrays.<Object>asList(req.getNamespace(), req.getAttributes(), req.getDirectives());
+    }
+}
@@ -21,46 +21,62 @@ package io.fabric8.core;
 
 import static io.fabric8.api.Constants.DEFAULT_PROFILE_IDENTITY;
 import static io.fabric8.api.Constants.DEFAULT_PROFILE_VERSION;
-import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
 import io.fabric8.api.Container;
+import io.fabric8.api.FabricException;
 import io.fabric8.api.LinkedProfileVersion;
 import io.fabric8.api.LockHandle;
 import io.fabric8.api.Profile;
+import io.fabric8.api.ProfileBuilder;
 import io.fabric8.api.ProfileIdentity;
 import io.fabric8.api.ProfileVersionBuilder;
+import io.fabric8.api.ProfileVersionDiff;
+import io.fabric8.api.ProfileVersionDiff.ProfileDiff;
 import io.fabric8.api.ResourceItem;
 import io.fabric8.api.VersionIdentity;
+import io.fabric8.core.utils.TimingStatistics;
 import io.fabric8.spi.DefaultProfileBuilder;
 import io.fabric8.spi.DefaultProfileVersionBuilder;
 import io.fabric8.spi.DefaultProfileXMLReader;
 import io.fabric8.spi.DefaultProfileXMLWriter;
+import io.fabric8.spi.DefaultResourceItem;
+import io.fabric8.spi.IndexedProfileXMLReader;
 import io.fabric8.spi.RuntimeService;
 import io.fabric8.spi.scr.AbstractComponent;
 import io.fabric8.spi.scr.ValidatingReference;
-import io.fabric8.spi.utils.FileUtils;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
-import java.nio.file.Files;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock.ReadLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock.WriteLock;
 
 import org.apache.felix.scr.annotations.Activate;
 import org.apache.felix.scr.annotations.Component;
@@ -68,26 +84,42 @@ import org.apache.felix.scr.annotations.ConfigurationPolicy;
 import org.apache.felix.scr.annotations.Deactivate;
 import org.apache.felix.scr.annotations.Reference;
 import org.apache.felix.scr.annotations.Service;
-import org.eclipse.jgit.api.AddCommand;
-import org.eclipse.jgit.api.CheckoutCommand;
-import org.eclipse.jgit.api.CommitCommand;
 import org.eclipse.jgit.api.DeleteBranchCommand;
 import org.eclipse.jgit.api.Git;
-import org.eclipse.jgit.api.ResetCommand;
 import org.eclipse.jgit.api.ResetCommand.ResetType;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheBuilder;
+import org.eclipse.jgit.dircache.DirCacheEntry;
 import org.eclipse.jgit.errors.RepositoryNotFoundException;
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.PersonIdent;
 import org.eclipse.jgit.lib.Ref;
-import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevTree;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
 import org.jboss.gravia.repository.RepositoryWriter.ContentHandler;
 import org.jboss.gravia.repository.spi.AbstractContentHandler;
 import org.jboss.gravia.resource.Capability;
 import org.jboss.gravia.resource.ContentCapability;
 import org.jboss.gravia.resource.ContentNamespace;
+import org.jboss.gravia.resource.DefaultResourceBuilder;
+import org.jboss.gravia.resource.Resource;
+import org.jboss.gravia.resource.ResourceBuilder;
 import org.jboss.gravia.resource.Version;
 import org.jboss.gravia.utils.IOUtils;
+import org.jboss.gravia.utils.IllegalArgumentAssertion;
 import org.jboss.gravia.utils.IllegalStateAssertion;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -99,17 +131,81 @@ import org.slf4j.LoggerFactory;
  * @since 07-May-2014
  */
 @Component(policy = ConfigurationPolicy.IGNORE, immediate = true)
-@Service(ProfileRegistry.class)
-public final class ProfileRegistry extends AbstractComponent {
+@Service({ ProfileRegistry.class, StatisticsProvider.class })
+public final class ProfileRegistry extends AbstractComponent implements StatisticsProvider {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ProfileRegistry.class);
 
+    // The legacy layout stores all profiles of a version in a single document
     private static String PROFILES_METADATA_FILE = "profiles.xml";
+    // The version manifest lists the profiles of a version, each stored in its own document
+    private static String PROFILES_MANIFEST_FILE = "profiles.list";
+    private static String PROFILE_METADATA_FILE = "profile.xml";
+    // A resource content file in the profile tree that references a blob in the blob store
+    private static String BLOB_REFERENCE_SUFFIX = ".sha256";
+
+    /**
+     * The maximum number of cached profile versions
+     */
+    static final String PROPERTY_PROFILE_CACHE_SIZE = "fabric8.profile.cache.size";
+    /**
+     * The maximum number of profiles in all cached profile versions
+     */
+    static final String PROPERTY_PROFILE_CACHE_WEIGHT = "fabric8.profile.cache.weight";
+
+    /**
+     * The storage mode of the profile repository, one of {@link RepositoryMode}
+     */
+    static final String PROPERTY_REPOSITORY_MODE = "fabric8.profile.repository.mode";
+    /**
+     * The URI of a repository or git bundle that an in-memory profile repository is seeded from
+     */
+    static final String PROPERTY_REPOSITORY_SEED = "fabric8.profile.repository.seed";
+    /**
+     * The blob store directory that resource content referenced by the seeded profiles is read from
+     */
+    static final String PROPERTY_REPOSITORY_SEED_BLOBS = "fabric8.profile.repository.seed.blobs";
+
+    /**
+     * The storage modes of the profile repository
+     */
+    enum RepositoryMode {
+        /** A repository in the runtime data directory */
+        DISK,
+        /** A repository that lives in memory only, for containers that do not need to keep profile changes. Nothing is written to the data directory */
+        MEMORY
+    }
+
+    /**
+     * The interval in milliseconds at which the profile repository is checked for maintenance
+     */
+    static final String PROPERTY_REPOSITORY_MAINTENANCE_INTERVAL = "fabric8.profile.maintenance.interval";
+    /**
+     * The number of loose objects that triggers a repository gc
+     */
+    static final String PROPERTY_REPOSITORY_LOOSE_OBJECTS = "fabric8.profile.maintenance.loose.objects";
+    /**
+     * The number of loose refs that triggers a repository gc
+     */
+    static final String PROPERTY_REPOSITORY_LOOSE_REFS = "fabric8.profile.maintenance.loose.refs";
+
+    private static final int DEFAULT_PROFILE_CACHE_SIZE = 100;
+    private static final int DEFAULT_PROFILE_CACHE_WEIGHT = 10000;
+    private static final long DEFAULT_REPOSITORY_MAINTENANCE_INTERVAL = 10 * 60 * 1000L;
+    private static final long DEFAULT_REPOSITORY_LOOSE_OBJECTS = 2000;
+    private static final long DEFAULT_REPOSITORY_LOOSE_REFS = 100;
 
     private final ProfileVersionCache profileVersionCache = new ProfileVersionCache();
-    private final ReentrantReadWriteLock readWriteLock = new ReentrantReadWriteLock();
+    private final Map<VersionIdentity, ReentrantReadWriteLock> versionLocks = new HashMap<>();
+    private final ReentrantReadWriteLock registryLock = new ReentrantReadWriteLock();
+    private final TimingStatistics lockWaitTime = new TimingStatistics("ProfileLockWait");
+    private final TimingStatistics lockHoldTime = new TimingStatistics("ProfileLockHold");
+    private final TimingStatistics maintenanceTime = new TimingStatistics("ProfileRepositoryMaintenance");
+    private final AtomicLong repositorySize = new AtomicLong();
     private GitRepository repository;
-    private Path workspace;
+    private BlobStore blobStore;
+    private ProfileSnapshotStore snapshotStore;
+    private ScheduledExecutorService executor;
 
     @Reference(referenceInterface = RuntimeService.class)
     private final ValidatingReference<RuntimeService> runtimeService = new ValidatingReference<>();
@@ -127,9 +223,47 @@ public final class ProfileRegistry extends AbstractComponent {
     }
 
     private void activateInternal() throws IOException {
-        Path dataPath = runtimeService.get().getDataPath();
-        workspace = dataPath.resolve("profiles");
-        repository = new GitRepository(workspace);
+        RuntimeService runtime = runtimeService.get();
+        Path dataPath = runtime.getDataPath();
+        String mode = runtime.getProperty(PROPERTY_REPOSITORY_MODE, RepositoryMode.DISK.name());
+        RepositoryMode repositoryMode = RepositoryMode.valueOf(mode.toUpperCase());
+        if (repositoryMode == RepositoryMode.MEMORY) {
+            // Versions are read from the in-memory object database, snapshots would not make that any faster
+            String seedBlobs = runtime.getProperty(PROPERTY_REPOSITORY_SEED_BLOBS);
+            blobStore = BlobStore.inMemory(seedBlobs != null ? Paths.get(seedBlobs) : null);
+            snapshotStore = null;
+            repository = new GitRepository(GitRepository.openInMemory(runtime.getProperty(PROPERTY_REPOSITORY_SEED)), blobStore);
+        } else {
+            blobStore = new BlobStore(dataPath.resolve("blobs"));
+            snapshotStore = new ProfileSnapshotStore(dataPath.resolve("profile-snapshots"));
+            repository = new GitRepository(GitRepository.openOrInitWorkspace(dataPath.resolve("profiles")), blobStore);
+        }
+
+        int cacheSize = Integer.parseInt(runtime.getProperty(PROPERTY_PROFILE_CACHE_SIZE, "" + DEFAULT_PROFILE_CACHE_SIZE));
+        int cacheWeight = Integer.parseInt(runtime.getProperty(PROPERTY_PROFILE_CACHE_WEIGHT, "" + DEFAULT_PROFILE_CACHE_WEIGHT));
+        profileVersionCache.setLimits(cacheSize, cacheWeight);
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable run) {
+                Thread thread = new Thread(run, ProfileRegistry.class.getSimpleName());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        // Schedule the repository maintenance
+        long interval = Long.parseLong(runtime.getProperty(PROPERTY_REPOSITORY_MAINTENANCE_INTERVAL, "" + DEFAULT_REPOSITORY_MAINTENANCE_INTERVAL));
+        final long looseObjects = Long.parseLong(runtime.getProperty(PROPERTY_REPOSITORY_LOOSE_OBJECTS, "" + DEFAULT_REPOSITORY_LOOSE_OBJECTS));
+        final long looseRefs = Long.parseLong(runtime.getProperty(PROPERTY_REPOSITORY_LOOSE_REFS, "" + DEFAULT_REPOSITORY_LOOSE_REFS));
+        // An in-memory repository is not packed to disk and needs no gc
+        if (interval > 0 && repositoryMode == RepositoryMode.DISK) {
+            executor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    maintainRepository(looseObjects, looseRefs);
+                }
+            }, interval, interval, TimeUnit.MILLISECONDS);
+        }
 
         // Add the default profile version
         if (!repository.hasBranch(DEFAULT_PROFILE_VERSION.getVersion())) {
@@ -146,53 +280,160 @@ public final class ProfileRegistry extends AbstractComponent {
     }
 
     private void dactivateInternal() {
+        executor.shutdownNow();
     }
 
-    // [TODO] #39 Consider support for locking individual profile versions
-    LockHandle aquireWriteLock(VersionIdentity version) {
-        final WriteLock writeLock = readWriteLock.writeLock();
-        boolean success;
+    @Override
+    public void collectStatistics(Map<String, Long> statistics) {
+        lockWaitTime.collect(statistics);
+        lockHoldTime.collect(statistics);
+        profileVersionCache.collectStatistics(statistics);
+        blobStore.collectStatistics(statistics);
+        if (snapshotStore != null) {
+            snapshotStore.collectStatistics(statistics);
+        }
+        // The size in bytes of the loose and packed objects as of the last maintenance check
+        statistics.put("ProfileRepository.size", repositorySize.get());
+        maintenanceTime.collect(statistics);
+    }
+
+    /**
+     * Run a gc on the profile repository when the number of loose objects or refs crosses the given thresholds.
+     * Readers go to the object database and are not blocked, concurrent writers wait for the gc to complete.
+     */
+    void maintainRepository(long looseObjects, long looseRefs) {
         try {
-            success = writeLock.tryLock() || writeLock.tryLock(10, TimeUnit.SECONDS);
-        } catch (InterruptedException ex) {
-            success = false;
+            RepositoryStatistics stats = repository.getStatistics();
+            repositorySize.set(stats.getTotalSize());
+            if (stats.getLooseObjects() >= looseObjects || stats.getLooseRefs() >= looseRefs) {
+                LOGGER.debug("Start profile repository maintenance: {}", stats);
+                long startTime = System.nanoTime();
+                stats = repository.garbageCollect();
+                long nanos = maintenanceTime.addSampleSince(startTime);
+                repositorySize.set(stats.getTotalSize());
+                LOGGER.debug("Profile repository maintenance took {}ms: {}", TimeUnit.NANOSECONDS.toMillis(nanos), stats);
+            }
+        } catch (Exception ex) {
+            LOGGER.warn("Cannot maintain profile repository", ex);
         }
-        IllegalStateAssertion.assertTrue(success, "Cannot obtain profile write lock in time for: " + version);
-        return new LockHandle() {
+    }
+
+    /**
+     * Load the given profile versions into the cache in the background
+     */
+    void prewarmProfileVersions(final Callable<Set<VersionIdentity>> versions) {
+        assertValid();
+        executor.submit(new Runnable() {
             @Override
-            public void unlock() {
-                writeLock.unlock();
+            public void run() {
+                try {
+                    for (VersionIdentity version : versions.call()) {
+                        if (Thread.currentThread().isInterrupted())
+                            break;
+                        LockHandle readLock = aquireReadLock(version);
+                        try {
+                            getProfileVersionInternal(version);
+                        } finally {
+                            readLock.unlock();
+                        }
+                    }
+                    LOGGER.debug("Prewarmed profile cache: {}", profileVersionCache);
+                } catch (Exception ex) {
+                    LOGGER.warn("Cannot prewarm profile cache", ex);
+                }
             }
-        };
+        });
+    }
+
+    LockHandle aquireWriteLock(VersionIdentity version) {
+        IllegalArgumentAssertion.assertNotNull(version, "version");
+        return aquireVersionLock(version, true);
     }
 
-    // [TODO] #39 Consider support for locking individual profile versions
     LockHandle aquireReadLock(VersionIdentity version) {
-        final ReadLock readLock = readWriteLock.readLock();
+        IllegalArgumentAssertion.assertNotNull(version, "version");
+        return aquireVersionLock(version, false);
+    }
+
+    // The lock of a removed version is dropped, threads that were waiting for it retry with the current lock
+    private LockHandle aquireVersionLock(VersionIdentity version, boolean exclusive) {
+        while (true) {
+            ReentrantReadWriteLock readWriteLock = getReadWriteLock(version);
+            LockHandle lockHandle;
+            if (exclusive) {
+                lockHandle = aquireLock(readWriteLock.writeLock(), "Cannot obtain profile write lock in time for: " + version);
+            } else {
+                lockHandle = aquireLock(readWriteLock.readLock(), "Cannot obtain profile read lock in time for: " + version);
+            }
+            synchronized (versionLocks) {
+                if (versionLocks.get(version) == readWriteLock) {
+                    return lockHandle;
+                }
+            }
+            lockHandle.unlock();
+        }
+    }
+
+    // The registry lock guards the set of profile version branches
+    private LockHandle aquireRegistryLock(boolean exclusive) {
+        Lock lock = exclusive ? registryLock.writeLock() : registryLock.readLock();
+        return aquireLock(lock, "Cannot obtain profile registry lock in time");
+    }
+
+    private LockHandle aquireLock(final Lock lock, String message) {
+        long startTime = System.nanoTime();
         boolean success;
         try {
-            success = readLock.tryLock() || readLock.tryLock(10, TimeUnit.SECONDS);
+            success = lock.tryLock() || lock.tryLock(10, TimeUnit.SECONDS);
         } catch (InterruptedException ex) {
             success = false;
         }
-        IllegalStateAssertion.assertTrue(success, "Cannot obtain profile read lock in time");
+        lockWaitTime.addSampleSince(startTime);
+        IllegalStateAssertion.assertTrue(success, message);
+        final long lockedTime = System.nanoTime();
         return new LockHandle() {
             @Override
             public void unlock() {
-                readLock.unlock();
+                lock.unlock();
+                lockHoldTime.addSampleSince(lockedTime);
             }
         };
     }
 
+    private ReentrantReadWriteLock getReadWriteLock(VersionIdentity version) {
+        synchronized (versionLocks) {
+            ReentrantReadWriteLock readWriteLock = versionLocks.get(version);
+            if (readWriteLock == null) {
+                readWriteLock = new ReentrantReadWriteLock();
+                versionLocks.put(version, readWriteLock);
+            }
+            return readWriteLock;
+        }
+    }
+
+    /**
+     * The number of profile versions that currently have a lock
+     */
+    int getVersionLockCount() {
+        synchronized (versionLocks) {
+            return versionLocks.size();
+        }
+    }
+
     Set<VersionIdentity> getVersions() {
         assertValid();
-        final Set<VersionIdentity> versions = new HashSet<>();
-        for (String branch : repository.listBranches()) {
-            if (!branch.equals("master")) {
-                versions.add(VersionIdentity.createFrom(branch));
+        LockHandle registryLock = aquireRegistryLock(false);
+        try {
+            final Set<VersionIdentity> versions = new HashSet<>();
+            for (String branch : repository.listBranches()) {
+                if (!branch.equals("master")) {
+                    versions.add(VersionIdentity.createFrom(branch));
+                }
             }
+            return Collections.unmodifiableSet(versions);
+        } finally {
+            registryLock.unlock();
         }
-        return Collections.unmodifiableSet(versions);
     }
 
     LinkedProfileVersion getProfileVersion(VersionIdentity version) {
@@ -211,6 +452,25 @@ public final class ProfileRegistry extends AbstractComponent {
         return profileVersion;
     }
 
+    /**
+     * Load the profile version from its binary snapshot at the current branch revision
+     * or read it from the repository and write the snapshot.
+     */
+    private LinkedProfileVersion loadProfileVersion(VersionIdentity version) {
+        if (snapshotStore == null) {
+            return repository.getProfileVersion(version);
+        }
+        String revision = repository.getBranchRevision(version.getVersion());
+        LinkedProfileVersion linkedVersion = revision != null ? snapshotStore.readSnapshot(version, revision) : null;
+        if (linkedVersion == null) {
+            linkedVersion = repository.getProfileVersion(version);
+            if (revision != null) {
+                snapshotStore.writeSnapshot(linkedVersion, revision);
+            }
+        }
+        return linkedVersion;
+    }
+
     private LinkedProfileVersion getProfileVersionInternal(VersionIdentity version) {
         boolean hasBranch = repository.hasBranch(version.getVersion());
         return hasBranch ? profileVersionCache.getProfileVersion(version) : null;
@@ -220,7 +480,12 @@ public final class ProfileRegistry extends AbstractComponent {
         assertValid();
         LockHandle writeLock = aquireWriteLock(profileVersion.getIdentity());
         try {
-            return addProfileVersionInternal(profileVersion);
+            LockHandle registryLock = aquireRegistryLock(true);
+            try {
+                return addProfileVersionInternal(profileVersion);
+            } finally {
+                registryLock.unlock();
+            }
         } finally {
             writeLock.unlock();
         }
@@ -231,7 +496,67 @@ public final class ProfileRegistry extends AbstractComponent {
         IllegalStateAssertion.assertFalse(repository.hasBranch(version.getVersion()), "Profile version already exists: " + version);
         String message = String.format("Add profile version: %s", profileVersion);
         LOGGER.info(message);
-        return writeProfileVersion(profileVersion, message);
+        return writeProfiles(profileVersion, profileVersion.getProfileIdentities(), Collections.<ProfileIdentity>emptySet(), message);
+    }
+
+    /**
+     * Create a new profile version that shares the profiles of the given source version.
+     * The new branch points at the head commit of the source branch, so no profile or resource content is copied.
+     * The returned version only reads the index of its profiles, the profiles are read on demand.
+     */
+    LinkedProfileVersion forkProfileVersion(VersionIdentity source, VersionIdentity target) {
+        assertValid();
+        IllegalArgumentAssertion.assertNotNull(source, "source");
+        IllegalArgumentAssertion.assertNotNull(target, "target");
+        IllegalArgumentAssertion.assertFalse(source.equals(target), "Cannot fork profile version to itself: " + source);
+        boolean sourceFirst = lockOrder(source, target) < 0;
+        LockHandle firstLock = sourceFirst ? aquireReadLock(source) : aquireWriteLock(target);
+        try {
+            LockHandle secondLock = sourceFirst ? aquireWriteLock(target) : aquireReadLock(source);
+            try {
+                LockHandle registryLock = aquireRegistryLock(true);
+                try {
+                    IllegalStateAssertion.assertTrue(repository.hasBranch(source.getVersion()), "Cannot obtain profile version: " + source);
+                    IllegalStateAssertion.assertFalse(repository.hasBranch(target.getVersion()), "Profile version already exists: " + target);
+                    LOGGER.info("Fork profile version: {} => {}", source, target);
+                    repository.forkProfileVersion(source.getVersion(), target.getVersion());
+                } finally {
+                    registryLock.unlock();
+                }
+                // Index the forked version while it is still locked
+                return repository.getIndexedProfileVersion(target);
+            } finally {
+                secondLock.unlock();
+            }
+        } finally {
+            firstLock.unlock();
+        }
+    }
+
+    // Operations that lock two versions take the locks in this order, so that they cannot deadlock each other
+    private static int lockOrder(VersionIdentity versionA, VersionIdentity versionB) {
+        return versionA.getCanonicalForm().compareTo(versionB.getCanonicalForm());
+    }
+
+    /**
+     * Get the changes between the given profile versions
+     */
+    ProfileVersionDiff diffProfileVersions(VersionIdentity source, VersionIdentity target) {
+        assertValid();
+        boolean sourceFirst = lockOrder(source, target) <= 0;
+        LockHandle firstLock = aquireReadLock(sourceFirst ? source : target);
+        try {
+            LockHandle secondLock = aquireReadLock(sourceFirst ? target : source);
+            try {
+                IllegalStateAssertion.assertTrue(repository.hasBranch(source.getVersion()), "Cannot obtain profile version: " + source);
+                IllegalStateAssertion.assertTrue(repository.hasBranch(target.getVersion()), "Cannot obtain profile version: " + target);
+                return repository.diffProfileVersions(source, target);
+            } finally {
+                secondLock.unlock();
+            }
+        } finally {
+            firstLock.unlock();
+        }
     }
 
     LinkedProfileVersion removeProfileVersion(VersionIdentity version) {
@@ -239,18 +564,21 @@ public final class ProfileRegistry extends AbstractComponent {
         LockHandle writeLock = aquireWriteLock(version);
         try {
             LinkedProfileVersion profileVersion = getRequiredProfileVersion(version);
-            String message = String.format("Remove profile version: {}", version);
+            String message = String.format("Remove profile version: %s", version);
             LOGGER.info(message);
-
-            // git reset --hard
-            repository.resetHard();
-
-            // git checkout master
-            repository.checkoutBranch(Version.emptyVersion, false);
-
-            // git branch -D [version]
-            repository.deleteBranch(version.getVersion());
-
+            LockHandle registryLock = aquireRegistryLock(true);
+            try {
+                profileVersionCache.invalidate(version);
+                repository.removeProfileVersion(version.getVersion());
+                if (snapshotStore != null) {
+                    snapshotStore.removeSnapshots(version);
+                }
+                synchronized (versionLocks) {
+                    versionLocks.remove(version);
+                }
+            } finally {
+                registryLock.unlock();
+            }
             return profileVersion;
         } finally {
             writeLock.unlock();
@@ -265,15 +593,29 @@ public final class ProfileRegistry extends AbstractComponent {
         assertValid();
         LockHandle readLock = aquireReadLock(version);
         try {
-            Profile result = null;
-            LinkedProfileVersion linkedVersion = getRequiredProfileVersion(version);
-            for (Profile profile : linkedVersion.getLinkedProfiles().values()) {
-                if (profile.getIdentity().equals(identity)) {
-                    result = profile;
-                    break;
-                }
+            IllegalStateAssertion.assertTrue(repository.hasBranch(version.getVersion()), "Cannot obtain profile version: " + version);
+            LinkedProfileVersion linkedVersion = profileVersionCache.getCachedProfileVersion(version);
+            if (linkedVersion != null) {
+                return linkedVersion.getLinkedProfile(identity);
+            } else {
+                return repository.getProfile(version, identity);
             }
-            return result;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Get the profile version with its profiles read on demand, unless the version is cached already.
+     * The returned version must only be used while the caller holds the version read lock.
+     */
+    LinkedProfileVersion getIndexedProfileVersion(VersionIdentity version) {
+        assertValid();
+        LockHandle readLock = aquireReadLock(version);
+        try {
+            IllegalStateAssertion.assertTrue(repository.hasBranch(version.getVersion()), "Cannot obtain profile version: " + version);
+            LinkedProfileVersion linkedVersion = profileVersionCache.getCachedProfileVersion(version);
+            return linkedVersion != null ? linkedVersion : repository.getIndexedProfileVersion(version);
         } finally {
             readLock.unlock();
         }
@@ -297,7 +639,7 @@ public final class ProfileRegistry extends AbstractComponent {
             LinkedProfileVersion linkedVersion = getRequiredProfileVersion(version);
             IllegalStateAssertion.assertNull(linkedVersion.getLinkedProfile(identity), "Profile already exists in version: " + version);
             DefaultProfileVersionBuilder builder = new DefaultProfileVersionBuilder(linkedVersion);
-            writeProfileVersion(builder.addProfile(profile).getProfileVersion(), message);
+            writeProfiles(builder.addProfile(profile).getProfileVersion(), Collections.singleton(identity), Collections.<ProfileIdentity>emptySet(), message);
             return getProfile(version, identity);
         } finally {
             writeLock.unlock();
@@ -314,8 +656,7 @@ public final class ProfileRegistry extends AbstractComponent {
             LinkedProfileVersion linkedVersion = getProfileVersion(version);
             DefaultProfileVersionBuilder builder = new DefaultProfileVersionBuilder(linkedVersion);
             builder.removeProfile(identity);
-            deleteProfilePath(version, identity);
-            writeProfileVersion(builder.addProfile(profile).getProfileVersion(), message);
+            writeProfiles(builder.addProfile(profile).getProfileVersion(), Collections.singleton(identity), Collections.<ProfileIdentity>emptySet(), message);
             return getProfile(version, identity);
         } finally {
             writeLock.unlock();
@@ -331,14 +672,46 @@ public final class ProfileRegistry extends AbstractComponent {
             LinkedProfileVersion linkedVersion = getProfileVersion(version);
             DefaultProfileVersionBuilder builder = new DefaultProfileVersionBuilder(linkedVersion);
             builder.removeProfile(identity);
-            deleteProfilePath(version, identity);
-            writeProfileVersion(builder.getProfileVersion(), message);
+            writeProfiles(builder.getProfileVersion(), Collections.<ProfileIdentity>emptySet(), Collections.singleton(identity), message);
             return profile;
         } finally {
             writeLock.unlock();
         }
     }
 
+    /**
+     * Add or replace the given profiles and remove the given identities in a single commit
+     */
+    LinkedProfileVersion updateProfiles(VersionIdentity version, Set<Profile> profiles, Set<ProfileIdentity> removed) {
+        assertValid();
+        LockHandle writeLock = aquireWriteLock(version);
+        try {
+            String message = String.format("Update profiles in version: %s <= %d profiles, => %s", version, profiles.size(), removed);
+            LOGGER.info(message);
+            LinkedProfileVersion linkedVersion = getRequiredProfileVersion(version);
+            DefaultProfileVersionBuilder builder = new DefaultProfileVersionBuilder(linkedVersion);
+            for (ProfileIdentity identity : removed) {
+                IllegalStateAssertion.assertNotNull(linkedVersion.getLinkedProfile(identity), "Cannot obtain profile '" + identity + "' from: " + version);
+                builder.removeProfile(identity);
+            }
+            Set<ProfileIdentity> changed = new LinkedHashSet<>();
+            for (Profile profile : profiles) {
+                ProfileIdentity identity = profile.getIdentity();
+                VersionIdentity pversion = profile.getVersion();
+                IllegalStateAssertion.assertTrue(pversion == null || version.equals(pversion), "Unexpected profile version: " + profile);
+                IllegalStateAssertion.assertFalse(removed.contains(identity), "Cannot update and remove profile: " + identity);
+                IllegalStateAssertion.assertTrue(changed.add(identity), "Duplicate profile: " + identity);
+                if (linkedVersion.getLinkedProfile(identity) != null) {
+                    builder.removeProfile(identity);
+                }
+                builder.addProfile(profile);
+            }
+            return writeProfiles(builder.getProfileVersion(), changed, removed, message);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
     URLConnection getProfileURLConnection(URL url) throws IOException {
         assertValid();
         String path = url.getPath();
@@ -349,9 +722,9 @@ public final class ProfileRegistry extends AbstractComponent {
         ProfileIdentity profile = ProfileIdentity.createFrom(prfstr);
         LockHandle readLock = aquireReadLock(version);
         try {
-            Path profilePath = getRequiredProfilePath(version, profile);
-            Path itemPath = profilePath.resolve(item);
-            IllegalStateAssertion.assertTrue(itemPath.toFile().isDirectory(), "Cannot find item directory: " + itemPath);
+            String itemPath = profile.getSymbolicName() + "/" + item;
+            Set<String> resourceVersions = repository.listTreeEntries(version.getVersion(), itemPath);
+            IllegalStateAssertion.assertNotNull(resourceVersions, "Cannot find item directory: " + itemPath);
             int cntindex = 0;
             Version resourceVersion = null;
             if (url.getQuery() != null) {
@@ -368,58 +741,43 @@ public final class ProfileRegistry extends AbstractComponent {
                     }
                 }
             }
-            Path versionPath;
-            if (resourceVersion != null) {
-                versionPath = Paths.get(itemPath.toString(), resourceVersion.toString());
-            } else {
+            if (resourceVersion == null) {
                 Version higest = Version.emptyVersion;
-                for (String resver : itemPath.toFile().list()) {
+                for (String resver : resourceVersions) {
                     Version nextver = Version.parseVersion(resver);
                     if (nextver.compareTo(higest) > 0) {
                         higest = nextver;
                     }
                 }
-                versionPath = Paths.get(itemPath.toString(), higest.toString());
+                resourceVersion = higest;
+            }
+            IllegalStateAssertion.assertTrue(resourceVersions.contains(resourceVersion.toString()), "Cannot find version directory: " + itemPath + "/" + resourceVersion);
+            String contentPath = itemPath + "/" + resourceVersion + "/content" + cntindex;
+            String hash = repository.getBlobReference(version.getVersion(), contentPath + BLOB_REFERENCE_SUFFIX);
+            if (hash != null) {
+                return blobStore.getRequiredBlobURL(hash).openConnection();
             }
-            IllegalStateAssertion.assertTrue(versionPath.toFile().isDirectory(), "Cannot find version directory: " + versionPath);
-            Path contentPath = Paths.get(versionPath.toString(), "content" + cntindex);
-            IllegalStateAssertion.assertNotNull(contentPath, "Cannot obtain content path from: " + url);
-            IllegalStateAssertion.assertTrue(contentPath.toFile().isFile(), "Cannot find item file: " + contentPath);
-            return contentPath.toFile().toURI().toURL().openConnection();
+            URLConnection connection = repository.getContentConnection(version.getVersion(), contentPath, url);
+            IllegalStateAssertion.assertNotNull(connection, "Cannot find item file: " + contentPath);
+            return connection;
         } finally {
             readLock.unlock();
         }
     }
 
-    private LinkedProfileVersion writeProfileVersion(LinkedProfileVersion profileVersion, String message) {
+    /**
+     * Write the changed profiles and remove the obsolete profiles of the given version
+     */
+    private LinkedProfileVersion writeProfiles(LinkedProfileVersion profileVersion, Set<ProfileIdentity> changed, Set<ProfileIdentity> removed, String message) {
 
         VersionIdentity version = profileVersion.getIdentity();
         profileVersionCache.invalidate(version);
 
-        repository.writeProfileVersion(profileVersion, message);
+        repository.writeProfiles(profileVersion, changed, removed, message);
 
         return getProfileVersionInternal(version);
     }
 
-    private Path getProfilePath(VersionIdentity version, ProfileIdentity identity) {
-        return workspace.resolve(identity.getSymbolicName());
-    }
-
-    private Path getRequiredProfilePath(VersionIdentity version, ProfileIdentity identity) {
-        Path profilePath = getProfilePath(version, identity);
-        IllegalStateAssertion.assertTrue(profilePath.toFile().exists(), "Cannot find profile directory: " + profilePath);
-        return profilePath;
-    }
-
-    private void deleteProfilePath(VersionIdentity version, ProfileIdentity identity) {
-        Path profilePath = getProfilePath(version, identity);
-        try {
-            FileUtils.deleteRecursively(profilePath);
-        } catch (IOException ex) {
-            throw new IllegalStateException("Cannot delete profile path: " + profilePath);
-        }
-    }
-
     void bindRuntimeService(RuntimeService service) {
         runtimeService.bind(service);
     }
@@ -427,54 +785,207 @@ public final class ProfileRegistry extends AbstractComponent {
         runtimeService.unbind(service);
     }
 
+    /**
+     * A bounded cache of linked profile versions.
+     *
+     * A version is loaded outside the cache monitor. Concurrent requests for the same version wait for the same load.
+     * The least recently used versions are evicted when the number of versions or the total number of profiles
+     * exceeds the configured limits.
+     */
     private class ProfileVersionCache {
 
-        private final Map<VersionIdentity, LinkedProfileVersion> cacheMap = new HashMap<>();
+        private final Map<VersionIdentity, CacheEntry> cacheMap = new LinkedHashMap<>(16, 0.75f, true);
+        private final AtomicLong hitCount = new AtomicLong();
+        private final AtomicLong missCount = new AtomicLong();
+        private final AtomicLong evictionCount = new AtomicLong();
+        private final TimingStatistics loadTime = new TimingStatistics("ProfileVersionLoad");
+        private int maxSize = DEFAULT_PROFILE_CACHE_SIZE;
+        private int maxWeight = DEFAULT_PROFILE_CACHE_WEIGHT;
+        private int weight;
+
+        void setLimits(int maxSize, int maxWeight) {
+            IllegalArgumentAssertion.assertTrue(maxSize > 0, "Invalid cache size: " + maxSize);
+            IllegalArgumentAssertion.assertTrue(maxWeight > 0, "Invalid cache weight: " + maxWeight);
+            synchronized (cacheMap) {
+                this.maxSize = maxSize;
+                this.maxWeight = maxWeight;
+                evictEntries(null);
+            }
+        }
 
         LinkedProfileVersion getProfileVersion(VersionIdentity version) {
+            CacheEntry entry;
+            boolean loader = false;
             synchronized (cacheMap) {
-                LinkedProfileVersion linkedVersion = cacheMap.get(version);
-                if (linkedVersion == null) {
-                    linkedVersion = repository.getProfileVersion(version);
-                    cacheMap.put(version, linkedVersion);
+                entry = cacheMap.get(version);
+                if (entry == null) {
+                    entry = new CacheEntry(version);
+                    cacheMap.put(version, entry);
+                    loader = true;
                 }
-                return linkedVersion;
+            }
+            if (loader) {
+                missCount.incrementAndGet();
+                long startTime = System.nanoTime();
+                entry.run();
+                loadTime.addSampleSince(startTime);
+                synchronized (cacheMap) {
+                    if (cacheMap.get(version) == entry) {
+                        evictEntries(version);
+                    }
+                }
+            } else {
+                hitCount.incrementAndGet();
+            }
+            try {
+                return entry.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while loading profile version: " + version, ex);
+            } catch (ExecutionException ex) {
+                removeEntry(version, entry);
+                throw FabricException.launderThrowable(ex.getCause());
+            }
+        }
+
+        /**
+         * Get the profile version if it is loaded already
+         * @return null if the version is not in the cache
+         */
+        LinkedProfileVersion getCachedProfileVersion(VersionIdentity version) {
+            CacheEntry entry;
+            synchronized (cacheMap) {
+                entry = cacheMap.get(version);
+            }
+            if (entry == null || !entry.isDone()) {
+                missCount.incrementAndGet();
+                return null;
+            }
+            try {
+                hitCount.incrementAndGet();
+                return entry.get();
+            } catch (InterruptedException | ExecutionException ex) {
+                return null;
             }
         }
 
         void invalidate(VersionIdentity version) {
             synchronized (cacheMap) {
-                cacheMap.remove(version);
+                CacheEntry entry = cacheMap.remove(version);
+                if (entry != null) {
+                    weight -= entry.weight;
+                }
+            }
+        }
+
+        void collectStatistics(Map<String, Long> statistics) {
+            synchronized (cacheMap) {
+                statistics.put("ProfileVersionCache.size", (long) cacheMap.size());
+                statistics.put("ProfileVersionCache.weight", (long) weight);
+            }
+            statistics.put("ProfileVersionCache.hits", hitCount.get());
+            statistics.put("ProfileVersionCache.misses", missCount.get());
+            statistics.put("ProfileVersionCache.evictions", evictionCount.get());
+            loadTime.collect(statistics);
+        }
+
+        @Override
+        public String toString() {
+            synchronized (cacheMap) {
+                return "ProfileVersionCache[size=" + cacheMap.size() + ",weight=" + weight + ",hits=" + hitCount + ",misses=" + missCount + ",evictions=" + evictionCount + "," + loadTime + "]";
+            }
+        }
+
+        private void removeEntry(VersionIdentity version, CacheEntry entry) {
+            synchronized (cacheMap) {
+                if (cacheMap.get(version) == entry) {
+                    cacheMap.remove(version);
+                    weight -= entry.weight;
+                }
+            }
+        }
+
+        // Must be called while holding the cache monitor
+        private void evictEntries(VersionIdentity retained) {
+            Iterator<Entry<VersionIdentity, CacheEntry>> iterator = cacheMap.entrySet().iterator();
+            while ((cacheMap.size() > maxSize || weight > maxWeight) && iterator.hasNext()) {
+                Entry<VersionIdentity, CacheEntry> mapEntry = iterator.next();
+                CacheEntry entry = mapEntry.getValue();
+                if (entry.isDone() && !mapEntry.getKey().equals(retained)) {
+                    iterator.remove();
+                    weight -= entry.weight;
+                    evictionCount.incrementAndGet();
+                    LOGGER.debug("Evict profile version: {}", mapEntry.getKey());
+                }
+            }
+        }
+
+        private class CacheEntry extends FutureTask<LinkedProfileVersion> {
+
+            private final VersionIdentity version;
+
+            // The number of profiles that is accounted in the cache weight, guarded by the cache monitor
+            private int weight;
+
+            CacheEntry(final VersionIdentity version) {
+                super(new Callable<LinkedProfileVersion>() {
+                    @Override
+                    public LinkedProfileVersion call() throws Exception {
+                        return loadProfileVersion(version);
+                    }
+                });
+                this.version = version;
+            }
+
+            /**
+             * The weight is accounted in the same step that completes the entry,
+             * so that a completed entry never leaves the cache with unaccounted weight
+             */
+            @Override
+            protected void set(LinkedProfileVersion linkedVersion) {
+                synchronized (cacheMap) {
+                    if (cacheMap.get(version) == this) {
+                        weight = linkedVersion.getProfileIdentities().size();
+                        ProfileVersionCache.this.weight += weight;
+                    }
+                    super.set(linkedVersion);
+                }
             }
         }
     }
 
+    /**
+     * Stores resource content in the blob store and writes a reference to it into the profile tree
+     */
     private static class ResourceItemContentHandler extends AbstractContentHandler {
 
-        private final Path versionPath;
+        private final Map<String, byte[]> entries;
+        private final BlobStore blobStore;
 
-        ResourceItemContentHandler(Path versionPath) {
-            this.versionPath = versionPath;
+        /**
+         * @param entries Receives the blob references keyed by their path in the branch tree
+         */
+        ResourceItemContentHandler(Map<String, byte[]> entries, BlobStore blobStore) {
+            this.entries = entries;
+            this.blobStore = blobStore;
         }
 
         @Override
         public Map<String, Object> process(ContentCapability ccap) throws IOException {
             Profile profile = getContextItem(Profile.class);
             ResourceItem resItem = getContextItem(ResourceItem.class);
-            Path profilePath = versionPath.resolve(profile.getIdentity().getSymbolicName());
             List<Capability> ccaps = resItem.getResource().getCapabilities(ContentNamespace.CONTENT_NAMESPACE);
             int i = ccaps.indexOf(ccap);
-            Path targetPath = Paths.get(profilePath.toString(), resItem.getSymbolicName(), resItem.getVersion().toString(), "content" + i);
+            String targetPath = profile.getIdentity().getSymbolicName() + "/" + resItem.getSymbolicName() + "/" + resItem.getVersion() + "/content" + i + BLOB_REFERENCE_SUFFIX;
             URL contentURL;
             try {
-                File targetDir = targetPath.toFile().getParentFile();
-                IllegalStateAssertion.assertTrue(targetDir.isDirectory() || targetDir.mkdirs(), "Cannot create directory: " + targetDir);
-                Files.copy(getRequiredCapabilityContent(ccap), targetPath, REPLACE_EXISTING);
+                String hash = blobStore.putContent(getRequiredCapabilityContent(ccap));
+                entries.put(targetPath, hash.getBytes(StandardCharsets.US_ASCII));
                 String spec = "profile://" + profile.getVersion() + "/" + profile.getIdentity() + "/" + resItem.getSymbolicName() + "?version=" + resItem.getVersion();
                 if (ccaps.size() > 1) {
                     spec += "&cntindex=" + i;
                 }
-                contentURL = new URL(null, spec, new ProfileURLStreamHandler(targetPath.toFile()));
+                contentURL = new URL(null, spec, new ProfileURLStreamHandler(blobStore.getBlobURL(hash)));
             } catch (IOException ex) {
                 throw new IllegalStateException(ex);
             }
@@ -494,108 +1005,644 @@ public final class ProfileRegistry extends AbstractComponent {
         }
     }
 
-    private static class GitRepository {
+    /**
+     * A connection to an immutable blob in the git object database
+     */
+    private static class BlobURLConnection extends URLConnection {
 
-        private final Path workspace;
-        private final Git git;
+        private final Repository repository;
+        private final ObjectId blobId;
+        private final long size;
+
+        BlobURLConnection(URL url, Repository repository, ObjectId blobId, long size) {
+            super(url);
+            this.repository = repository;
+            this.blobId = blobId;
+            this.size = size;
+        }
 
-        GitRepository(Path workspace) throws IOException {
-            this.git = openOrInitWorkspace(workspace);
-            this.workspace = workspace;
+        @Override
+        public void connect() throws IOException {
+            connected = true;
+        }
 
+        @Override
+        public long getContentLengthLong() {
+            return size;
         }
 
-        LinkedProfileVersion getProfileVersion(VersionIdentity version) {
+        @Override
+        public int getContentLength() {
+            return size > Integer.MAX_VALUE ? -1 : (int) size;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            connect();
+            final ObjectReader objectReader = repository.newObjectReader();
+            try {
+                InputStream content = objectReader.open(blobId, Constants.OBJ_BLOB).openStream();
+                return new FilterInputStream(content) {
+                    @Override
+                    public void close() throws IOException {
+                        try {
+                            super.close();
+                        } finally {
+                            objectReader.release();
+                        }
+                    }
+                };
+            } catch (IOException | RuntimeException ex) {
+                objectReader.release();
+                throw ex;
+            }
+        }
+    }
+
+    /**
+     * A profile version that reads its profiles on demand
+     */
+    private static abstract class IndexedProfileVersion implements LinkedProfileVersion {
+
+        private final VersionIdentity identity;
+        private final Set<ProfileIdentity> profileIdentities;
+        private final Map<ProfileIdentity, Profile> linkedProfiles = new HashMap<>();
+
+        IndexedProfileVersion(VersionIdentity identity, Set<ProfileIdentity> profileIdentities) {
+            this.identity = identity;
+            this.profileIdentities = Collections.unmodifiableSet(new LinkedHashSet<>(profileIdentities));
+        }
 
-            // git reset --hard
-            resetHard();
+        abstract Profile loadProfile(ProfileIdentity identity);
 
-            // git checkout [version]
-            checkoutBranch(version.getVersion(), false);
+        @Override
+        public VersionIdentity getIdentity() {
+            return identity;
+        }
+
+        @Override
+        public Set<ProfileIdentity> getProfileIdentities() {
+            return profileIdentities;
+        }
+
+        @Override
+        public synchronized Profile getLinkedProfile(ProfileIdentity profileId) {
+            if (!profileIdentities.contains(profileId))
+                return null;
+            Profile profile = linkedProfiles.get(profileId);
+            if (profile == null) {
+                profile = loadProfile(profileId);
+                IllegalStateAssertion.assertNotNull(profile, "Cannot find profile '" + profileId + "' in: " + identity);
+                linkedProfiles.put(profileId, profile);
+            }
+            return profile;
+        }
+
+        @Override
+        public synchronized Map<ProfileIdentity, Profile> getLinkedProfiles() {
+            Map<ProfileIdentity, Profile> result = new LinkedHashMap<>();
+            for (ProfileIdentity profileId : profileIdentities) {
+                result.put(profileId, getLinkedProfile(profileId));
+            }
+            return Collections.unmodifiableMap(result);
+        }
 
+        @Override
+        public String toString() {
+            return "IndexedProfileVersion[" + identity + "]";
+        }
+    }
+
+    /**
+     * Object and ref counts of the profile repository
+     */
+    static final class RepositoryStatistics {
+
+        private final long looseObjects;
+        private final long looseRefs;
+        private final long packedObjects;
+        private final long packedRefs;
+        private final long looseSize;
+        private final long packedSize;
+
+        RepositoryStatistics(Properties props) {
+            looseObjects = getLong(props, "numberOfLooseObjects");
+            looseRefs = getLong(props, "numberOfLooseRefs");
+            packedObjects = getLong(props, "numberOfPackedObjects");
+            packedRefs = getLong(props, "numberOfPackedRefs");
+            looseSize = getLong(props, "sizeOfLooseObjects");
+            packedSize = getLong(props, "sizeOfPackedObjects");
+        }
+
+        private static long getLong(Properties props, String key) {
+            Object value = props.get(key);
+            return value instanceof Number ? ((Number) value).longValue() : 0;
+        }
+
+        long getLooseObjects() {
+            return looseObjects;
+        }
+
+        long getLooseRefs() {
+            return looseRefs;
+        }
+
+        long getTotalSize() {
+            return looseSize + packedSize;
+        }
+
+        @Override
+        public String toString() {
+            return "RepositoryStatistics[objects=" + looseObjects + "/" + packedObjects + ",refs=" + looseRefs + "/" + packedRefs + ",size=" + looseSize + "/" + packedSize + "]";
+        }
+    }
+
+    /**
+     * The git repository has one branch per profile version.
+     * Profile versions and resource content are read directly from the object database.
+     * Writes build the new branch tree in the object database and are serialized on the repository instance,
+     * so that the same code works for an on-disk repository and for an in-memory repository without a working tree.
+     */
+    private static class GitRepository {
+
+        private final BlobStore blobStore;
+        private final Git git;
+
+        GitRepository(Git git, BlobStore blobStore) {
+            this.git = git;
+            this.blobStore = blobStore;
+        }
+
+        /**
+         * Read the profile version from the branch tree in the object database.
+         * This does not touch the working tree and can run concurrently with other reads.
+         */
+        LinkedProfileVersion getProfileVersion(VersionIdentity version) {
             ProfileVersionBuilder builder = new DefaultProfileVersionBuilder(version);
-            FileInputStream fis = null;
+            ObjectReader objectReader = git.getRepository().newObjectReader();
             try {
-                File metadataFile = workspace.resolve(PROFILES_METADATA_FILE).toFile();
-                fis = new FileInputStream(metadataFile);
-                DefaultProfileXMLReader reader = new DefaultProfileXMLReader(fis);
-                Profile profile = reader.nextProfile();
-                while (profile != null) {
-                    builder.addProfile(profile);
-                    profile = reader.nextProfile();
+                ObjectId commitId = getHeadId(version.getVersion());
+                Set<ProfileIdentity> manifest = readManifest(objectReader, commitId);
+                if (manifest != null) {
+                    for (ProfileIdentity identity : manifest) {
+                        Profile profile = readProfile(objectReader, version, commitId, identity);
+                        IllegalStateAssertion.assertNotNull(profile, "Cannot find profile '" + identity + "' in: " + version);
+                        builder.addProfile(profile);
+                    }
+                } else {
+                    // Legacy layout with all profiles in a single document
+                    ObjectId blobId = findObject(objectReader, commitId, PROFILES_METADATA_FILE);
+                    IllegalStateAssertion.assertNotNull(blobId, "Cannot find " + PROFILES_METADATA_FILE + " in: " + version);
+                    for (Profile profile : readProfiles(objectReader, blobId)) {
+                        builder.addProfile(branchProfile(version, profile));
+                    }
                 }
             } catch (IOException ex) {
                 throw new IllegalStateException("Cannot profile version: " + version, ex);
             } finally {
-                IOUtils.safeClose(fis);
+                objectReader.release();
             }
-
             return builder.getProfileVersion();
         }
 
-        void writeProfileVersion(LinkedProfileVersion profileVersion, String message) {
-
-            // git reset --hard
-            resetHard();
+        /**
+         * Read a single profile from the branch tree in the object database.
+         * @return null if there is no such profile
+         */
+        Profile getProfile(VersionIdentity version, ProfileIdentity identity) {
+            ObjectReader objectReader = git.getRepository().newObjectReader();
+            try {
+                ObjectId commitId = getHeadId(version.getVersion());
+                if (readManifest(objectReader, commitId) != null) {
+                    return readProfile(objectReader, version, commitId, identity);
+                }
+                // Legacy layout with all profiles in a single document, parse only the requested profile
+                return branchProfile(version, readProfileIndex(objectReader, version, commitId).getProfile(identity));
+            } catch (IOException ex) {
+                throw new IllegalStateException("Cannot read profile: " + identity, ex);
+            } finally {
+                objectReader.release();
+            }
+        }
 
-            // git checkout -b [version]
-            Version version = profileVersion.getIdentity().getVersion();
-            checkoutBranch(version, true);
+        /**
+         * Get a profile version that only reads the index of its profiles.
+         * Profiles are read on first request from the commit that the index was read from,
+         * so that the version stays consistent when the branch moves on.
+         */
+        LinkedProfileVersion getIndexedProfileVersion(final VersionIdentity version) {
+            ObjectReader objectReader = git.getRepository().newObjectReader();
+            try {
+                final ObjectId commitId = getHeadId(version.getVersion());
+                Set<ProfileIdentity> manifest = readManifest(objectReader, commitId);
+                if (manifest != null) {
+                    return new IndexedProfileVersion(version, manifest) {
+                        @Override
+                        Profile loadProfile(ProfileIdentity identity) {
+                            ObjectReader profileReader = git.getRepository().newObjectReader();
+                            try {
+                                return readProfile(profileReader, version, commitId, identity);
+                            } catch (IOException ex) {
+                                throw new IllegalStateException("Cannot read profile: " + identity, ex);
+                            } finally {
+                                profileReader.release();
+                            }
+                        }
+                    };
+                }
+                // Legacy layout with all profiles in a single document
+                final IndexedProfileXMLReader reader = readProfileIndex(objectReader, version, commitId);
+                return new IndexedProfileVersion(version, reader.getProfileIdentities()) {
+                    @Override
+                    Profile loadProfile(ProfileIdentity identity) {
+                        return branchProfile(version, reader.getProfile(identity));
+                    }
+                };
+            } catch (IOException ex) {
+                throw new IllegalStateException("Cannot read profile version index: " + version, ex);
+            } finally {
+                objectReader.release();
+            }
+        }
 
-            FileOutputStream fos = null;
+        /**
+         * Diff the branch trees of the given profile versions.
+         * Subtrees with equal object ids are not entered, so only the profiles that differ are read.
+         */
+        ProfileVersionDiff diffProfileVersions(VersionIdentity source, VersionIdentity target) {
+            Repository repository = git.getRepository();
+            ObjectReader objectReader = repository.newObjectReader();
             try {
-                File metadataFile = workspace.resolve(PROFILES_METADATA_FILE).toFile();
-                fos = new FileOutputStream(metadataFile);
-                ContentHandler contentHandler = new ResourceItemContentHandler(workspace);
-                DefaultProfileXMLWriter writer = new DefaultProfileXMLWriter(fos, contentHandler);
-                writer.writeProfileVersion(profileVersion);
-                writer.close();
+                // Collect the differing paths below each top level entry
+                Map<String, Set<String>> changedPaths = new HashMap<>();
+                RevWalk revWalk = new RevWalk(objectReader);
+                TreeWalk treeWalk = new TreeWalk(objectReader);
+                treeWalk.addTree(revWalk.parseCommit(repository.resolve(Constants.R_HEADS + source.getVersion())).getTree());
+                treeWalk.addTree(revWalk.parseCommit(repository.resolve(Constants.R_HEADS + target.getVersion())).getTree());
+                treeWalk.setFilter(TreeFilter.ANY_DIFF);
+                treeWalk.setRecursive(true);
+                while (treeWalk.next()) {
+                    String path = treeWalk.getPathString();
+                    int index = path.indexOf('/');
+                    String name = index > 0 ? path.substring(0, index) : path;
+                    Set<String> subpaths = changedPaths.get(name);
+                    if (subpaths == null) {
+                        subpaths = new HashSet<>();
+                        changedPaths.put(name, subpaths);
+                    }
+                    if (index > 0) {
+                        subpaths.add(path.substring(index + 1));
+                    }
+                }
+
+                LinkedProfileVersion sourceVersion = getIndexedProfileVersion(source);
+                LinkedProfileVersion targetVersion = getIndexedProfileVersion(target);
+                Set<ProfileIdentity> sourceProfiles = sourceVersion.getProfileIdentities();
+                Set<ProfileIdentity> targetProfiles = targetVersion.getProfileIdentities();
+
+                // In the legacy layout any profile may have changed with the single profiles document
+                boolean legacyChanged = changedPaths.containsKey(PROFILES_METADATA_FILE);
+
+                Set<ProfileIdentity> added = new LinkedHashSet<>();
+                Set<ProfileDiff> modified = new LinkedHashSet<>();
+                for (ProfileIdentity profileId : targetProfiles) {
+                    if (!sourceProfiles.contains(profileId)) {
+                        added.add(profileId);
+                    } else if (legacyChanged || changedPaths.containsKey(profileId.getSymbolicName())) {
+                        Set<String> subpaths = changedPaths.get(profileId.getSymbolicName());
+                        Profile sourceProfile = sourceVersion.getLinkedProfile(profileId);
+                        Profile targetProfile = targetVersion.getLinkedProfile(profileId);
+                        ProfileDiff diff = ProfileDiffSupport.diffProfile(sourceProfile, targetProfile, subpaths != null ? subpaths : Collections.<String>emptySet());
+                        if (!diff.isEmpty()) {
+                            modified.add(diff);
+                        }
+                    }
+                }
+                Set<ProfileIdentity> removed = new LinkedHashSet<>(sourceProfiles);
+                removed.removeAll(targetProfiles);
+                return new ProfileVersionDiff(source, target, added, removed, modified);
             } catch (IOException ex) {
-                throw new IllegalStateException("Cannot add profile version: " + profileVersion, ex);
+                throw new IllegalStateException("Cannot diff profile versions: " + source + " => " + target, ex);
             } finally {
-                IOUtils.safeClose(fos);
+                objectReader.release();
             }
+        }
 
-            // git add --all
-            addAll();
+        private Set<ProfileIdentity> readManifest(ObjectReader objectReader, ObjectId commitId) throws IOException {
+            ObjectId blobId = findObject(objectReader, commitId, PROFILES_MANIFEST_FILE);
+            if (blobId == null)
+                return null;
+            String content = new String(objectReader.open(blobId, Constants.OBJ_BLOB).getBytes(), StandardCharsets.UTF_8);
+            Set<ProfileIdentity> result = new LinkedHashSet<>();
+            for (String line : content.split("\\n")) {
+                if (!line.trim().isEmpty()) {
+                    result.add(ProfileIdentity.createFrom(line.trim()));
+                }
+            }
+            return result;
+        }
+
+        private IndexedProfileXMLReader readProfileIndex(ObjectReader objectReader, VersionIdentity version, ObjectId commitId) throws IOException {
+            ObjectId blobId = findObject(objectReader, commitId, PROFILES_METADATA_FILE);
+            IllegalStateAssertion.assertNotNull(blobId, "Cannot find " + PROFILES_METADATA_FILE + " in: " + version);
+            return new IndexedProfileXMLReader(objectReader.open(blobId, Constants.OBJ_BLOB).getBytes());
+        }
 
-            // git commit
-            commit(message);
+        private Profile readProfile(ObjectReader objectReader, VersionIdentity version, ObjectId commitId, ProfileIdentity identity) throws IOException {
+            ObjectId blobId = findObject(objectReader, commitId, identity.getSymbolicName() + "/" + PROFILE_METADATA_FILE);
+            if (blobId == null)
+                return null;
+            List<Profile> profiles = readProfiles(objectReader, blobId);
+            return profiles.isEmpty() ? null : branchProfile(version, profiles.get(0));
         }
 
-        DirCache addAll() {
+        /**
+         * A forked branch shares unchanged profiles with its source branch.
+         * Those still carry the source version, which is replaced by the version of the branch they are read from.
+         * Their resource content URLs are rewritten likewise, so that they stay valid when the source version is removed.
+         */
+        private static Profile branchProfile(VersionIdentity version, Profile profile) {
+            if (profile == null || version.equals(profile.getVersion()))
+                return profile;
+            ProfileBuilder builder = new DefaultProfileBuilder(profile).profileVersion(version);
+            for (ResourceItem item : profile.getProfileItems(ResourceItem.class)) {
+                Resource resource = branchResource(version, item.getResource());
+                if (resource != item.getResource()) {
+                    builder.removeProfileItem(item.getIdentity());
+                    builder.addProfileItem(new DefaultResourceItem(item.getIdentity(), resource));
+                }
+            }
+            return builder.getProfile();
+        }
+
+        /**
+         * Point the profile content URLs of the given resource at the given version
+         * @return the given resource if it has no content URL of another version
+         */
+        private static Resource branchResource(VersionIdentity version, Resource resource) {
+            ResourceBuilder builder = null;
+            List<Capability> ccaps = resource.getCapabilities(ContentNamespace.CONTENT_NAMESPACE);
+            for (int i = 0; i < ccaps.size(); i++) {
+                URL contentURL = branchContentURL(version, ccaps.get(i).getAttributes().get(ContentNamespace.CAPABILITY_URL_ATTRIBUTE));
+                if (contentURL != null) {
+                    if (builder == null) {
+                        builder = new DefaultResourceBuilder().fromResource(resource);
+                    }
+                    Capability ccap = builder.getMutableResource().getCapabilities(ContentNamespace.CONTENT_NAMESPACE).get(i);
+                    ccap.getAttributes().put(ContentNamespace.CAPABILITY_URL_ATTRIBUTE, contentURL);
+                }
+            }
+            return builder != null ? builder.getResource() : resource;
+        }
+
+        /**
+         * @return the given profile URL with the given version, or null if it is not a profile URL of another version
+         */
+        private static URL branchContentURL(VersionIdentity version, Object value) {
+            String prefix = ProfileURLStreamHandler.PROTOCOL_NAME + "://";
+            String spec = value != null ? value.toString() : null;
+            if (spec == null || !spec.startsWith(prefix))
+                return null;
+            int index = spec.indexOf('/', prefix.length());
+            IllegalStateAssertion.assertTrue(index > 0, "Invalid profile URL: " + spec);
+            if (spec.substring(prefix.length(), index).equals(version.getCanonicalForm()))
+                return null;
             try {
-                AddCommand addCmd = git.add().addFilepattern(".");
-                return addCmd.call();
-            } catch (GitAPIException ex) {
-                throw new IllegalStateException("Cannot add files", ex);
+                return new URL(null, prefix + version.getCanonicalForm() + spec.substring(index), new ProfileURLStreamHandler());
+            } catch (MalformedURLException ex) {
+                throw new IllegalStateException("Invalid profile URL: " + spec, ex);
             }
         }
 
-        Ref checkoutBranch(Version version, boolean allowCreate) {
-            String branch = Version.emptyVersion != version ? version.toString() : "master";
+        private List<Profile> readProfiles(ObjectReader objectReader, ObjectId blobId) throws IOException {
+            List<Profile> result = new ArrayList<>();
+            InputStream content = objectReader.open(blobId, Constants.OBJ_BLOB).openStream();
             try {
-                if (!allowCreate || hasBranch(version)) {
-                    CheckoutCommand checkoutCmd = git.checkout().setName(branch);
-                    return checkoutCmd.call();
-                } else {
-                    CheckoutCommand checkoutCmd = git.checkout().setCreateBranch(true).setName(branch);
-                    return checkoutCmd.call();
+                DefaultProfileXMLReader reader = new DefaultProfileXMLReader(content);
+                Profile profile = reader.nextProfile();
+                while (profile != null) {
+                    result.add(profile);
+                    profile = reader.nextProfile();
                 }
-            } catch (GitAPIException ex) {
-                throw new IllegalStateException("Cannot checkout branch: " + version, ex);
+            } finally {
+                IOUtils.safeClose(content);
             }
+            return result;
         }
 
-        RevCommit commit(String message) {
+        /**
+         * Get a connection to the blob at the given path in the branch tree
+         * @return null if there is no such blob
+         */
+        URLConnection getContentConnection(Version version, String path, URL url) throws IOException {
+            ObjectReader objectReader = git.getRepository().newObjectReader();
             try {
-                CommitCommand commitCmd = git.commit().setAll(true).setMessage(message).setCommitter(getDefaultCommiter());
-                return commitCmd.call();
-            } catch (GitAPIException ex) {
-                throw new IllegalStateException("Cannot commit: " + message, ex);
+                ObjectId blobId = findObject(objectReader, version, path);
+                if (blobId == null)
+                    return null;
+                long size = objectReader.getObjectSize(blobId, Constants.OBJ_BLOB);
+                return new BlobURLConnection(url, git.getRepository(), blobId, size);
+            } finally {
+                objectReader.release();
+            }
+        }
+
+        /**
+         * Read the blob store reference at the given path in the branch tree
+         * @return null if there is no such reference
+         */
+        String getBlobReference(Version version, String path) throws IOException {
+            ObjectReader objectReader = git.getRepository().newObjectReader();
+            try {
+                ObjectId blobId = findObject(objectReader, version, path);
+                if (blobId == null)
+                    return null;
+                byte[] bytes = objectReader.open(blobId, Constants.OBJ_BLOB).getBytes();
+                String hash = new String(bytes, StandardCharsets.US_ASCII).trim();
+                IllegalStateAssertion.assertTrue(BlobStore.isValidHash(hash), "Invalid blob reference: " + path);
+                return hash;
+            } finally {
+                objectReader.release();
+            }
+        }
+
+        /**
+         * List the entry names of the tree at the given path in the branch tree
+         * @return null if there is no such tree
+         */
+        Set<String> listTreeEntries(Version version, String path) throws IOException {
+            ObjectReader objectReader = git.getRepository().newObjectReader();
+            try {
+                ObjectId treeId = findObject(objectReader, version, path);
+                if (treeId == null)
+                    return null;
+                Set<String> result = new LinkedHashSet<>();
+                TreeWalk treeWalk = new TreeWalk(objectReader);
+                try {
+                    treeWalk.addTree(treeId);
+                    while (treeWalk.next()) {
+                        result.add(treeWalk.getNameString());
+                    }
+                } finally {
+                    treeWalk.release();
+                }
+                return result;
+            } finally {
+                objectReader.release();
+            }
+        }
+
+        /**
+         * Get the head commit of the given version branch
+         * @return null if there is no such branch
+         */
+        private ObjectId getHeadId(Version version) throws IOException {
+            Ref ref = git.getRepository().getRef(Constants.R_HEADS + version);
+            return ref != null ? ref.getObjectId() : null;
+        }
+
+        private ObjectId findObject(ObjectReader objectReader, Version version, String path) throws IOException {
+            return findObject(objectReader, getHeadId(version), path);
+        }
+
+        private ObjectId findObject(ObjectReader objectReader, ObjectId commitId, String path) throws IOException {
+            if (commitId == null)
+                return null;
+            RevWalk revWalk = new RevWalk(objectReader);
+            try {
+                RevTree tree = revWalk.parseCommit(commitId).getTree();
+                TreeWalk treeWalk = TreeWalk.forPath(objectReader, path, tree);
+                if (treeWalk == null)
+                    return null;
+                try {
+                    return treeWalk.getObjectId(0);
+                } finally {
+                    treeWalk.release();
+                }
+            } finally {
+                revWalk.release();
+            }
+        }
+
+        /**
+         * Write the changed profiles and remove the obsolete profiles of the given version.
+         * Only the affected profile documents and the version manifest are written and staged.
+         */
+        synchronized void writeProfiles(LinkedProfileVersion profileVersion, Set<ProfileIdentity> changed, Set<ProfileIdentity> removed, String message) {
+            Version version = profileVersion.getIdentity().getVersion();
+            Repository repository = git.getRepository();
+            ObjectReader objectReader = repository.newObjectReader();
+            ObjectInserter inserter = repository.newObjectInserter();
+            try {
+                ObjectId headId = repository.resolve(Constants.R_HEADS + version);
+
+                // Migrate a version in the legacy layout by writing all of its profiles
+                Set<String> obsoletePaths = new HashSet<>();
+                obsoletePaths.add(PROFILES_MANIFEST_FILE);
+                if (headId != null && findObject(objectReader, version, PROFILES_METADATA_FILE) != null) {
+                    changed = profileVersion.getProfileIdentities();
+                    obsoletePaths.add(PROFILES_METADATA_FILE);
+                }
+
+                // Drop the content of removed or replaced profiles
+                for (ProfileIdentity profileId : changed) {
+                    obsoletePaths.add(profileId.getSymbolicName());
+                }
+                for (ProfileIdentity profileId : removed) {
+                    obsoletePaths.add(profileId.getSymbolicName());
+                }
+
+                // Keep the unchanged profile trees as they are
+                DirCache index = DirCache.newInCore();
+                DirCacheBuilder builder = index.builder();
+                if (headId != null) {
+                    RevWalk revWalk = new RevWalk(objectReader);
+                    TreeWalk treeWalk = new TreeWalk(objectReader);
+                    treeWalk.addTree(revWalk.parseCommit(headId).getTree());
+                    while (treeWalk.next()) {
+                        String path = treeWalk.getPathString();
+                        if (obsoletePaths.contains(path)) {
+                            continue;
+                        }
+                        if (treeWalk.isSubtree()) {
+                            builder.addTree(Constants.encode(path), DirCacheEntry.STAGE_0, objectReader, treeWalk.getObjectId(0));
+                        } else {
+                            DirCacheEntry entry = new DirCacheEntry(path);
+                            entry.setFileMode(treeWalk.getFileMode(0));
+                            entry.setObjectId(treeWalk.getObjectId(0));
+                            builder.add(entry);
+                        }
+                    }
+                }
+
+                // Write the changed profiles together with the blob references of their content
+                Map<String, byte[]> entries = new HashMap<>();
+                ContentHandler contentHandler = new ResourceItemContentHandler(entries, blobStore);
+                for (ProfileIdentity profileId : changed) {
+                    Profile profile = profileVersion.getLinkedProfile(profileId);
+                    ByteArrayOutputStream output = new ByteArrayOutputStream();
+                    DefaultProfileXMLWriter writer = new DefaultProfileXMLWriter(output, contentHandler);
+                    writer.writeProfile(profile);
+                    writer.close();
+                    entries.put(profileId.getSymbolicName() + "/" + PROFILE_METADATA_FILE, output.toByteArray());
+                }
+
+                // Write the version manifest
+                List<String> names = new ArrayList<>();
+                for (ProfileIdentity profileId : profileVersion.getProfileIdentities()) {
+                    names.add(profileId.getCanonicalForm());
+                }
+                Collections.sort(names);
+                StringBuilder manifest = new StringBuilder();
+                for (String name : names) {
+                    manifest.append(name).append("\n");
+                }
+                entries.put(PROFILES_MANIFEST_FILE, manifest.toString().getBytes(StandardCharsets.UTF_8));
+
+                for (Entry<String, byte[]> entry : entries.entrySet()) {
+                    byte[] content = entry.getValue();
+                    DirCacheEntry dcEntry = new DirCacheEntry(entry.getKey());
+                    dcEntry.setFileMode(FileMode.REGULAR_FILE);
+                    dcEntry.setLength(content.length);
+                    dcEntry.setObjectId(inserter.insert(Constants.OBJ_BLOB, content));
+                    builder.add(dcEntry);
+                }
+                builder.finish();
+
+                // git commit
+                ObjectId parentId = headId != null ? headId : repository.resolve(Constants.R_HEADS + Constants.MASTER);
+                ObjectId commitId = commitTree(inserter, index.writeTree(inserter), parentId, message);
+                inserter.flush();
+                updateRef(repository, Constants.R_HEADS + version, headId, commitId);
+            } catch (IOException ex) {
+                throw new IllegalStateException("Cannot write profiles: " + version, ex);
+            } finally {
+                inserter.release();
+                objectReader.release();
             }
         }
 
+        /**
+         * Create the target branch at the head commit of the source branch.
+         * This only writes a ref, so it works the same for an on-disk and an in-memory repository.
+         */
+        synchronized void forkProfileVersion(Version source, Version target) {
+            Repository repository = git.getRepository();
+            try {
+                ObjectId headId = repository.resolve(Constants.R_HEADS + source);
+                IllegalStateAssertion.assertNotNull(headId, "Cannot find branch: " + source);
+                updateRef(repository, Constants.R_HEADS + target, null, headId);
+            } catch (IOException ex) {
+                throw new IllegalStateException("Cannot fork profile version: " + source + " => " + target, ex);
+            }
+        }
+
+        synchronized void removeProfileVersion(Version version) {
+
+            // git branch -D [version]
+            deleteBranch(version);
+        }
+
         List<String> deleteBranch(Version version) {
             String branch = version.toString();
             try {
@@ -606,9 +1653,45 @@ public final class ProfileRegistry extends AbstractComponent {
             }
         }
 
+        RepositoryStatistics getStatistics() {
+            try {
+                return new RepositoryStatistics(git.gc().getStatistics());
+            } catch (GitAPIException ex) {
+                throw new IllegalStateException("Cannot obtain repository statistics", ex);
+            }
+        }
+
+        /**
+         * Pack refs, repack objects and prune unreachable loose objects.
+         * This is serialized with operations on the working tree only.
+         */
+        synchronized RepositoryStatistics garbageCollect() {
+            try {
+                return new RepositoryStatistics(git.gc().call());
+            } catch (GitAPIException ex) {
+                throw new IllegalStateException("Cannot gc repository", ex);
+            }
+        }
+
+        /**
+         * Get the commit id at the head of the given branch
+         * @return null if there is no such branch
+         */
+        String getBranchRevision(Version version) {
+            try {
+                Ref ref = git.getRepository().getRef(Constants.R_HEADS + version);
+                return ref != null ? ref.getObjectId().name() : null;
+            } catch (IOException ex) {
+                throw new IllegalStateException("Cannot read branch: " + version, ex);
+            }
+        }
+
         boolean hasBranch(Version version) {
-            String branch = version.toString();
-            return listBranches().contains(branch);
+            try {
+                return git.getRepository().getRef(Constants.R_HEADS + version) != null;
+            } catch (IOException ex) {
+                throw new IllegalStateException("Cannot read branch: " + version, ex);
+            }
         }
 
         Set<String> listBranches() {
@@ -627,18 +1710,38 @@ public final class ProfileRegistry extends AbstractComponent {
             return branches;
         }
 
-        Ref resetHard() {
-            try {
-                ResetCommand resetCmd = git.reset().setMode(ResetType.HARD);
-                return resetCmd.call();
-            } catch (GitAPIException ex) {
-                throw new IllegalStateException("Cannot reset workspace", ex);
+        private static ObjectId commitTree(ObjectInserter inserter, ObjectId treeId, ObjectId parentId, String message) throws IOException {
+            CommitBuilder commit = new CommitBuilder();
+            commit.setTreeId(treeId);
+            if (parentId != null) {
+                commit.setParentId(parentId);
             }
+            commit.setAuthor(getDefaultCommiter());
+            commit.setCommitter(getDefaultCommiter());
+            commit.setMessage(message);
+            return inserter.insert(commit);
         }
 
-        private Git openOrInitWorkspace(Path workspace) throws IOException {
+        private static void updateRef(Repository repository, String refName, ObjectId oldId, ObjectId newId) throws IOException {
+            RefUpdate refUpdate = repository.updateRef(refName);
+            refUpdate.setNewObjectId(newId);
+            refUpdate.setExpectedOldObjectId(oldId != null ? oldId : ObjectId.zeroId());
+            RefUpdate.Result result = refUpdate.update();
+            IllegalStateAssertion.assertTrue(result == RefUpdate.Result.NEW || result == RefUpdate.Result.FAST_FORWARD, "Cannot update " + refName + ": " + result);
+        }
+
+        /**
+         * Open the repository in the given directory or initialize a new one.
+         * Writes do not use the working tree, which is left at the initial commit.
+         */
+        static Git openOrInitWorkspace(Path workspace) throws IOException {
             try {
-                return Git.open(workspace.toFile());
+                Git git = Git.open(workspace.toFile());
+                if (!Constants.MASTER.equals(git.getRepository().getBranch())) {
+                    git.reset().setMode(ResetType.HARD).call();
+                    git.checkout().setName(Constants.MASTER).call();
+                }
+                return git;
             } catch (RepositoryNotFoundException e) {
                 try {
                     Git git = Git.init().setDirectory(workspace.toFile()).call();
@@ -647,10 +1750,41 @@ public final class ProfileRegistry extends AbstractComponent {
                 } catch (GitAPIException ex) {
                     throw new IOException(ex);
                 }
+            } catch (GitAPIException ex) {
+                throw new IOException(ex);
+            }
+        }
+
+        /**
+         * Create a repository that only lives in memory.
+         * @param seed The URI of a repository or git bundle to fetch all branches from, or null
+         */
+        static Git openInMemory(String seed) throws IOException {
+            Repository repository = new InMemoryRepository(new DfsRepositoryDescription("profiles"));
+            Git git = new Git(repository);
+            if (seed != null) {
+                try {
+                    git.fetch().setRemote(seed).setRefSpecs(new RefSpec("+refs/heads/*:refs/heads/*")).call();
+                } catch (GitAPIException ex) {
+                    throw new IOException("Cannot seed profile repository from: " + seed, ex);
+                }
+            }
+            if (repository.getRef(Constants.R_HEADS + Constants.MASTER) == null) {
+                ObjectInserter inserter = repository.newObjectInserter();
+                try {
+                    ObjectId treeId = inserter.insert(Constants.OBJ_TREE, new byte[0]);
+                    ObjectId commitId = commitTree(inserter, treeId, null, "First Commit");
+                    inserter.flush();
+                    updateRef(repository, Constants.R_HEADS + Constants.MASTER, null, commitId);
+                } finally {
+                    inserter.release();
+                }
             }
+            repository.updateRef(Constants.HEAD).link(Constants.R_HEADS + Constants.MASTER);
+            return git;
         }
 
-        private PersonIdent getDefaultCommiter() {
+        private static PersonIdent getDefaultCommiter() {
             return new PersonIdent("fabric", "user@fabric");
         }
     }
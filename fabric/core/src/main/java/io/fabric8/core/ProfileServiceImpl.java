@@ -27,11 +27,16 @@ import io.fabric8.api.LinkedProfile;
 import io.fabric8.api.LinkedProfileVersion;
 import io.fabric8.api.LockHandle;
 import io.fabric8.api.Profile;
+import io.fabric8.api.ProfileBuilder;
 import io.fabric8.api.ProfileEvent;
 import io.fabric8.api.ProfileEventListener;
 import io.fabric8.api.ProfileIdentity;
 import io.fabric8.api.ProfileVersion;
+import io.fabric8.api.ProfileVersionDiff;
+import io.fabric8.api.ProfileVersionEvent;
+import io.fabric8.api.ProfileVersionEventListener;
 import io.fabric8.api.VersionIdentity;
+import io.fabric8.spi.DefaultProfileBuilder;
 import io.fabric8.spi.EventDispatcher;
 import io.fabric8.spi.ImmutableProfile;
 import io.fabric8.spi.ImmutableProfileVersion;
@@ -47,8 +52,11 @@ import java.net.URLConnection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.felix.scr.annotations.Activate;
@@ -58,6 +66,10 @@ import org.apache.felix.scr.annotations.Deactivate;
 import org.apache.felix.scr.annotations.Reference;
 import org.apache.felix.scr.annotations.References;
 import org.apache.felix.scr.annotations.Service;
+import org.jboss.gravia.runtime.ModuleContext;
+import org.jboss.gravia.runtime.RuntimeLocator;
+import org.jboss.gravia.runtime.ServiceRegistration;
+import org.jboss.gravia.utils.IllegalArgumentAssertion;
 import org.jboss.gravia.utils.IllegalStateAssertion;
 
 /**
@@ -98,15 +110,33 @@ public final class ProfileServiceImpl extends AbstractProtectedComponent<Profile
     @Reference(referenceInterface = ProfileRegistry.class)
     private final ValidatingReference<ProfileRegistry> profileRegistry = new ValidatingReference<>();
 
+    private final EffectiveProfileCache effectiveProfiles = new EffectiveProfileCache();
+    private ServiceRegistration<StatisticsProvider> statsRegistration;
 
     @Activate
     void activate() {
+        activateInternal();
         activateComponent(PERMIT, this);
     }
 
     @Deactivate
     void deactivate() {
         deactivateComponent(PERMIT);
+        statsRegistration.unregister();
+    }
+
+    private void activateInternal() {
+        ModuleContext syscontext = RuntimeLocator.getRequiredRuntime().getModuleContext();
+        statsRegistration = syscontext.registerService(StatisticsProvider.class, effectiveProfiles, null);
+
+        // Prewarm the profile cache with the versions used by registered containers
+        final ContainerRegistry registry = containerRegistry.get();
+        profileRegistry.get().prewarmProfileVersions(new Callable<Set<VersionIdentity>>() {
+            @Override
+            public Set<VersionIdentity> call() throws Exception {
+                return registry.getReferencedProfileVersions();
+            }
+        });
     }
 
     @Override
@@ -167,15 +197,8 @@ public final class ProfileServiceImpl extends AbstractProtectedComponent<Profile
         // Lock for composite operation
         LockHandle readLock = aquireReadLock(version);
         try {
-            ProfileRegistry registry = profileRegistry.get();
-            ProfileVersion profileVersion = getRequiredProfileVersion(version);
-            Set<ProfileIdentity> profileIdentities = profileVersion.getProfileIdentities();
-            Map<ProfileIdentity, Profile> linkedProfiles = new HashMap<>();
-            for (ProfileIdentity profileId : profileIdentities) {
-                Profile profile = registry.getProfile(version, profileId);
-                linkedProfiles.put(profileId, profile);
-            }
-            return new ImmutableProfileVersion(version, profileIdentities, linkedProfiles);
+            LinkedProfileVersion linkedVersion = profileRegistry.get().getRequiredProfileVersion(version);
+            return new ImmutableProfileVersion(version, linkedVersion.getProfileIdentities(), linkedVersion.getLinkedProfiles());
         } finally {
             readLock.unlock();
         }
@@ -188,6 +211,20 @@ public final class ProfileServiceImpl extends AbstractProtectedComponent<Profile
         return registry.addProfileVersion((LinkedProfileVersion) profileVersion);
     }
 
+    @Override
+    public ProfileVersion forkProfileVersion(VersionIdentity source, VersionIdentity target) {
+        assertValid();
+        ProfileRegistry registry = profileRegistry.get();
+        LinkedProfileVersion linkedVersion = registry.forkProfileVersion(source, target);
+        return new ImmutableProfileVersion(target, linkedVersion.getProfileIdentities(), null);
+    }
+
+    @Override
+    public ProfileVersionDiff diffProfileVersions(VersionIdentity source, VersionIdentity target) {
+        assertValid();
+        return profileRegistry.get().diffProfileVersions(source, target);
+    }
+
     @Override
     public ProfileVersion removeProfileVersion(VersionIdentity version) {
         assertValid();
@@ -207,7 +244,9 @@ public final class ProfileServiceImpl extends AbstractProtectedComponent<Profile
                 }
             }
             ProfileRegistry registry = profileRegistry.get();
-            return registry.removeProfileVersion(version);
+            ProfileVersion result = registry.removeProfileVersion(version);
+            effectiveProfiles.invalidate(version);
+            return result;
         } finally {
             writeLock.unlock();
         }
@@ -235,7 +274,46 @@ public final class ProfileServiceImpl extends AbstractProtectedComponent<Profile
     @Override
     public Profile getEffectiveProfile(VersionIdentity version, ProfileIdentity profileId) {
         assertValid();
-        return ProfileUtils.getEffectiveProfile(getLinkedProfile(version, profileId));
+        ProfileIdentity effectiveId = ProfileIdentity.createFrom("effective#" + profileId.getCanonicalForm());
+        return getEffectiveProfileInternal(version, effectiveId, Collections.singletonList(profileId), false);
+    }
+
+    @Override
+    public Profile getEffectiveProfile(VersionIdentity version, List<ProfileIdentity> identities) {
+        assertValid();
+        StringBuffer effectiveId = new StringBuffer("effective#" + version);
+        for (ProfileIdentity prfid : identities) {
+            effectiveId.append("-" + prfid.getSymbolicName());
+        }
+        return getEffectiveProfileInternal(version, ProfileIdentity.createFrom(effectiveId.toString()), identities, true);
+    }
+
+    private Profile getEffectiveProfileInternal(final VersionIdentity version, final ProfileIdentity effectiveId, final List<ProfileIdentity> identities, final boolean versioned) {
+        // Lock for composite operation
+        LockHandle readLock = aquireReadLock(version);
+        try {
+            return effectiveProfiles.getEffectiveProfile(version, effectiveId, identities, new EffectiveProfileCache.Loader() {
+                @Override
+                public Profile loadEffectiveProfile(Set<ProfileIdentity> closure) {
+                    LinkedProfileVersion linkedVersion = profileRegistry.get().getIndexedProfileVersion(version);
+                    ProfileBuilder prfBuilder = new DefaultProfileBuilder(effectiveId);
+                    if (versioned) {
+                        prfBuilder.profileVersion(version);
+                    }
+                    Map<ProfileIdentity, LinkedProfile> linkedProfiles = new HashMap<>();
+                    for (ProfileIdentity profileId : identities) {
+                        LinkedProfile linkedProfile = getLinkedProfileInternal(linkedVersion, profileId, linkedProfiles);
+                        ProfileUtils.buildEffectiveProfile(prfBuilder, linkedProfile);
+                    }
+                    // The closure of profiles the effective profile depends on
+                    closure.addAll(linkedProfiles.keySet());
+                    closure.addAll(identities);
+                    return prfBuilder.getProfile();
+                }
+            });
+        } finally {
+            readLock.unlock();
+        }
     }
 
     @Override
@@ -244,26 +322,28 @@ public final class ProfileServiceImpl extends AbstractProtectedComponent<Profile
         // Lock for composite operation
         LockHandle readLock = aquireReadLock(version);
         try {
-            return getLinkedProfileInternal(version, profileId, new HashMap<ProfileIdentity, LinkedProfile>());
+            LinkedProfileVersion linkedVersion = profileRegistry.get().getIndexedProfileVersion(version);
+            return getLinkedProfileInternal(linkedVersion, profileId, new HashMap<ProfileIdentity, LinkedProfile>());
         } finally {
             readLock.unlock();
         }
     }
 
     // locked by getLinkedProfile(VersionIdentity, ProfileIdentity)
-    private LinkedProfile getLinkedProfileInternal(VersionIdentity version, ProfileIdentity profileId, Map<ProfileIdentity, LinkedProfile> linkedProfiles) {
-        Profile profile = getRequiredProfile(version, profileId);
-        Map<ProfileIdentity, LinkedProfile> linkedParents = getLinkedParents(profile, linkedProfiles);
+    private LinkedProfile getLinkedProfileInternal(LinkedProfileVersion linkedVersion, ProfileIdentity profileId, Map<ProfileIdentity, LinkedProfile> linkedProfiles) {
+        Profile profile = linkedVersion.getLinkedProfile(profileId);
+        IllegalStateAssertion.assertNotNull(profile, "Cannot obtain profile '" + profileId + "' from: " + linkedVersion.getIdentity());
+        Map<ProfileIdentity, LinkedProfile> linkedParents = getLinkedParents(linkedVersion, profile, linkedProfiles);
         return new ImmutableProfile(profile.getVersion(), profile.getIdentity(), profile.getAttributes(), profile.getParents(), profile.getProfileItems(null), linkedParents);
     }
 
     // locked by getLinkedProfile(VersionIdentity, ProfileIdentity)
-    private Map<ProfileIdentity, LinkedProfile> getLinkedParents(Profile profile, Map<ProfileIdentity, LinkedProfile> linkedProfiles) {
+    private Map<ProfileIdentity, LinkedProfile> getLinkedParents(LinkedProfileVersion linkedVersion, Profile profile, Map<ProfileIdentity, LinkedProfile> linkedProfiles) {
         Map<ProfileIdentity, LinkedProfile> linkedParents = new HashMap<>();
         for (ProfileIdentity parentId : profile.getParents()) {
             LinkedProfile linkedParent = linkedProfiles.get(parentId);
             if (linkedParent == null) {
-                linkedParent = getLinkedProfileInternal(profile.getVersion(), parentId, linkedProfiles);
+                linkedParent = getLinkedProfileInternal(linkedVersion, parentId, linkedProfiles);
             }
             linkedProfiles.put(parentId, linkedParent);
             linkedParents.put(parentId, linkedParent);
@@ -278,10 +358,15 @@ public final class ProfileServiceImpl extends AbstractProtectedComponent<Profile
         LockHandle readLock = aquireReadLock(version);
         try {
             Set<Profile> result = new HashSet<Profile>();
-            ProfileVersion profileVersion = getRequiredProfileVersion(version);
-            for (ProfileIdentity profileId : profileVersion.getProfileIdentities()) {
-                if (identities == null || identities.contains(profileId)) {
-                    result.add(getRequiredProfile(version, profileId));
+            LinkedProfileVersion linkedVersion = profileRegistry.get().getRequiredProfileVersion(version);
+            if (identities == null) {
+                result.addAll(linkedVersion.getLinkedProfiles().values());
+            } else {
+                for (ProfileIdentity profileId : identities) {
+                    Profile profile = linkedVersion.getLinkedProfile(profileId);
+                    if (profile != null) {
+                        result.add(profile);
+                    }
                 }
             }
             IllegalStateAssertion.assertTrue(identities == null || result.size() == identities.size(), "Cannot obtain the full set of given profiles: " + identities);
@@ -304,19 +389,11 @@ public final class ProfileServiceImpl extends AbstractProtectedComponent<Profile
         // Lock for composite operation
         LockHandle writeLock = aquireWriteLock(version);
         try {
-            ContainerRegistry cntRegistry = containerRegistry.get();
-            ContainerLockManager lockManager = containerLocks.get();
-            for (ContainerIdentity cntid : cntRegistry.getContainerIdentities()) {
-                LockHandle readLock = lockManager.aquireReadLock(cntid);
-                try {
-                    Container container = cntRegistry.getContainer(cntid);
-                    IllegalStateAssertion.assertFalse(container.getProfileIdentities().contains(profileId), "Cannot remove profile used by: " + container);
-                } finally {
-                    readLock.unlock();
-                }
-            }
+            assertProfilesNotUsed(Collections.singleton(profileId));
             ProfileRegistry registry = profileRegistry.get();
-            return registry.removeProfile(version, profileId);
+            Profile result = registry.removeProfile(version, profileId);
+            effectiveProfiles.invalidate(version, profileId);
+            return result;
         } finally {
             writeLock.unlock();
         }
@@ -326,8 +403,16 @@ public final class ProfileServiceImpl extends AbstractProtectedComponent<Profile
     public Profile updateProfile(Profile profile, ProfileEventListener listener) {
         assertValid();
         try {
-            ProfileRegistry registry = profileRegistry.get();
-            Profile updated = registry.updateProfile(profile.getVersion(), profile);
+            VersionIdentity version = profile.getVersion();
+            Profile updated;
+            LockHandle writeLock = aquireWriteLock(version);
+            try {
+                ProfileRegistry registry = profileRegistry.get();
+                updated = registry.updateProfile(version, profile);
+                effectiveProfiles.invalidate(version, updated.getIdentity());
+            } finally {
+                writeLock.unlock();
+            }
             ProfileEvent event = new ProfileEvent(updated, ProfileEvent.EventType.UPDATED);
             eventDispatcher.get().dispatchProfileEvent(event, listener);
             return updated;
@@ -338,6 +423,61 @@ public final class ProfileServiceImpl extends AbstractProtectedComponent<Profile
         }
     }
 
+    @Override
+    public ProfileVersion updateProfiles(VersionIdentity version, Set<Profile> profiles, Set<ProfileIdentity> removed, ProfileVersionEventListener listener) {
+        assertValid();
+        IllegalArgumentAssertion.assertNotNull(version, "version");
+        IllegalArgumentAssertion.assertNotNull(profiles, "profiles");
+        IllegalArgumentAssertion.assertNotNull(removed, "removed");
+        Set<ProfileIdentity> changed = new LinkedHashSet<>(removed);
+        for (Profile profile : profiles) {
+            changed.add(profile.getIdentity());
+        }
+        ProfileVersion updated;
+        LockHandle writeLock = aquireWriteLock(version);
+        try {
+            try {
+                assertProfilesNotUsed(removed);
+                updated = profileRegistry.get().updateProfiles(version, profiles, removed);
+            } finally {
+                for (ProfileIdentity profileId : changed) {
+                    effectiveProfiles.invalidate(version, profileId);
+                }
+            }
+        } catch (RuntimeException ex) {
+            ProfileVersion current = profileRegistry.get().getProfileVersion(version);
+            if (current != null) {
+                ProfileVersionEvent event = new ProfileVersionEvent(current, ProfileVersionEvent.EventType.ERROR, changed, ex);
+                eventDispatcher.get().dispatchProfileVersionEvent(event, listener);
+            }
+            throw ex;
+        } finally {
+            writeLock.unlock();
+        }
+        ProfileVersionEvent event = new ProfileVersionEvent(updated, ProfileVersionEvent.EventType.UPDATED, changed);
+        eventDispatcher.get().dispatchProfileVersionEvent(event, listener);
+        return updated;
+    }
+
+    // locked by the profile version write lock
+    private void assertProfilesNotUsed(Set<ProfileIdentity> identities) {
+        if (identities.isEmpty())
+            return;
+        ContainerRegistry cntRegistry = containerRegistry.get();
+        ContainerLockManager lockManager = containerLocks.get();
+        for (ContainerIdentity cntid : cntRegistry.getContainerIdentities()) {
+            LockHandle readLock = lockManager.aquireReadLock(cntid);
+            try {
+                Container container = cntRegistry.getContainer(cntid);
+                for (ProfileIdentity profileId : identities) {
+                    IllegalStateAssertion.assertFalse(container.getProfileIdentities().contains(profileId), "Cannot remove profile used by: " + container);
+                }
+            } finally {
+                readLock.unlock();
+            }
+        }
+    }
+
     @Override
     public ProfileVersion getRequiredProfileVersion(VersionIdentity version) {
         assertValid();
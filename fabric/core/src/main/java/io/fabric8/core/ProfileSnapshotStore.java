@@ -0,0 +1,179 @@
+/*
+ * #%L
+ * Fabric8 :: Core
+ * %%
+ * Copyright (C) 2014 Red Hat
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.fabric8.core;
+
+import io.fabric8.api.LinkedProfileVersion;
+import io.fabric8.api.Profile;
+import io.fabric8.api.ProfileVersionBuilder;
+import io.fabric8.api.VersionIdentity;
+import io.fabric8.core.utils.TimingStatistics;
+import io.fabric8.spi.DefaultProfileBinaryReader;
+import io.fabric8.spi.DefaultProfileBinaryWriter;
+import io.fabric8.spi.DefaultProfileVersionBuilder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.gravia.utils.IOUtils;
+import org.jboss.gravia.utils.IllegalArgumentAssertion;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An on-disk cache of loaded profile versions in the binary profile format
+ *
+ * A snapshot is keyed by the profile version and the revision of the branch it was loaded from,
+ * so a snapshot never needs to be invalidated. Older snapshots of a version are removed when a new one is written.
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 05-Jul-2014
+ */
+final class ProfileSnapshotStore {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ProfileSnapshotStore.class);
+
+    private static final String SNAPSHOT_SUFFIX = ".bin";
+
+    private final Path rootPath;
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong writeCount = new AtomicLong();
+    private final TimingStatistics readTime = new TimingStatistics("ProfileSnapshotRead");
+
+    ProfileSnapshotStore(Path rootPath) throws IOException {
+        IllegalArgumentAssertion.assertNotNull(rootPath, "rootPath");
+        this.rootPath = rootPath;
+        Files.createDirectories(rootPath);
+    }
+
+    /**
+     * Read the snapshot of the given version at the given revision
+     * @return null if there is no such snapshot or it cannot be read
+     */
+    LinkedProfileVersion readSnapshot(VersionIdentity version, String revision) {
+        Path snapshotPath = getSnapshotPath(version, revision);
+        if (!Files.isRegularFile(snapshotPath))
+            return null;
+        long startTime = System.nanoTime();
+        DefaultProfileBinaryReader reader = null;
+        try {
+            InputStream input = new BufferedInputStream(Files.newInputStream(snapshotPath));
+            reader = new DefaultProfileBinaryReader(input);
+            ProfileVersionBuilder builder = new DefaultProfileVersionBuilder(version);
+            Profile profile = reader.nextProfile();
+            while (profile != null) {
+                builder.addProfile(profile);
+                profile = reader.nextProfile();
+            }
+            LinkedProfileVersion linkedVersion = builder.getProfileVersion();
+            readTime.addSampleSince(startTime);
+            hitCount.incrementAndGet();
+            return linkedVersion;
+        } catch (IOException | RuntimeException ex) {
+            LOGGER.warn("Cannot read profile snapshot: " + snapshotPath, ex);
+            deleteSnapshot(snapshotPath);
+            return null;
+        } finally {
+            if (reader != null) {
+                reader.close();
+            }
+        }
+    }
+
+    /**
+     * Write the snapshot of the given version at the given revision and remove older snapshots of that version
+     */
+    void writeSnapshot(LinkedProfileVersion linkedVersion, String revision) {
+        VersionIdentity version = linkedVersion.getIdentity();
+        Path snapshotPath = getSnapshotPath(version, revision);
+        Path tmpPath = null;
+        try {
+            tmpPath = Files.createTempFile(rootPath, "snapshot", ".tmp");
+            OutputStream output = new BufferedOutputStream(Files.newOutputStream(tmpPath));
+            try {
+                DefaultProfileBinaryWriter writer = new DefaultProfileBinaryWriter(output);
+                writer.writeProfileVersion(linkedVersion);
+                writer.close();
+            } finally {
+                IOUtils.safeClose(output);
+            }
+            removeSnapshots(version);
+            Files.move(tmpPath, snapshotPath, StandardCopyOption.REPLACE_EXISTING);
+            writeCount.incrementAndGet();
+        } catch (IOException | RuntimeException ex) {
+            LOGGER.warn("Cannot write profile snapshot: " + snapshotPath, ex);
+        } finally {
+            if (tmpPath != null) {
+                deleteSnapshot(tmpPath);
+            }
+        }
+    }
+
+    /**
+     * Remove all snapshots of the given version
+     */
+    void removeSnapshots(VersionIdentity version) {
+        String prefix = getFileNamePrefix(version);
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(rootPath, "*" + SNAPSHOT_SUFFIX)) {
+            for (Path path : stream) {
+                if (path.getFileName().toString().startsWith(prefix)) {
+                    deleteSnapshot(path);
+                }
+            }
+        } catch (IOException ex) {
+            LOGGER.warn("Cannot remove profile snapshots for: " + version, ex);
+        }
+    }
+
+    void collectStatistics(Map<String, Long> statistics) {
+        statistics.put("ProfileSnapshotStore.hits", hitCount.get());
+        statistics.put("ProfileSnapshotStore.writes", writeCount.get());
+        readTime.collect(statistics);
+    }
+
+    @Override
+    public String toString() {
+        return "ProfileSnapshotStore[hits=" + hitCount + ",writes=" + writeCount + "," + readTime + "]";
+    }
+
+    private Path getSnapshotPath(VersionIdentity version, String revision) {
+        return rootPath.resolve(getFileNamePrefix(version) + revision + SNAPSHOT_SUFFIX);
+    }
+
+    private static String getFileNamePrefix(VersionIdentity version) {
+        return version.getCanonicalForm().replaceAll("[^A-Za-z0-9._-]", "_") + "@";
+    }
+
+    private static void deleteSnapshot(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException ex) {
+            LOGGER.warn("Cannot delete: " + path, ex);
+        }
+    }
+}
@@ -25,7 +25,6 @@ import io.fabric8.spi.ProfileService;
 import io.fabric8.spi.permit.PermitManager;
 import io.fabric8.spi.permit.PermitManager.Permit;
 
-import java.io.File;
 import java.io.IOException;
 import java.net.URL;
 import java.net.URLConnection;
@@ -41,20 +40,20 @@ final class ProfileURLStreamHandler extends URLStreamHandler {
 
     static final String PROTOCOL_NAME = "profile";
 
-    private final File targetFile;
+    private final URL targetURL;
 
     ProfileURLStreamHandler() {
-        this.targetFile = null;
+        this.targetURL = null;
     }
 
-    ProfileURLStreamHandler(File targetFile) {
-        this.targetFile = targetFile;
+    ProfileURLStreamHandler(URL targetURL) {
+        this.targetURL = targetURL;
     }
 
     @Override
     protected URLConnection openConnection(URL url) throws IOException {
-        if (targetFile != null) {
-            return targetFile.toURI().toURL().openConnection();
+        if (targetURL != null) {
+            return targetURL.openConnection();
         } else {
             PermitManager permitManager = PermitManagerLocator.getPermitManager();
             Permit<ProfileService> permit = permitManager.aquirePermit(ProfileService.PERMIT, false);
@@ -0,0 +1,124 @@
+/*
+ * #%L
+ * Fabric8 :: Core
+ * %%
+ * Copyright (C) 2014 Red Hat
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.fabric8.core;
+
+import io.fabric8.api.ContainerIdentity;
+import io.fabric8.core.utils.TimingStatistics;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.gravia.utils.IllegalArgumentAssertion;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A queue of container provisioning tasks
+ *
+ * A task is delayed by the coalescing window. A task that is submitted for a container
+ * while another task for that container is still pending supersedes the pending task.
+ * Tasks run on a single thread, so there is at most one provisioning at a time.
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 06-Jul-2014
+ */
+final class ProvisioningQueue {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ProvisioningQueue.class);
+
+    private final Map<ContainerIdentity, Runnable> pending = new HashMap<>();
+    private final ScheduledExecutorService executor;
+    private final long window;
+    private final AtomicLong queuedCount = new AtomicLong();
+    private final AtomicLong coalescedCount = new AtomicLong();
+    private final AtomicLong executedCount = new AtomicLong();
+    private final TimingStatistics provisionTime = new TimingStatistics("ContainerProvisioning");
+
+    ProvisioningQueue(long window) {
+        this.window = window;
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable run) {
+                Thread thread = new Thread(run, ProvisioningQueue.class.getSimpleName());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Submit a provisioning task for the given container, superseding a pending task for that container
+     */
+    void submit(final ContainerIdentity identity, Runnable task) {
+        IllegalArgumentAssertion.assertNotNull(identity, "identity");
+        IllegalArgumentAssertion.assertNotNull(task, "task");
+        queuedCount.incrementAndGet();
+        synchronized (pending) {
+            if (pending.put(identity, task) != null) {
+                coalescedCount.incrementAndGet();
+                return;
+            }
+        }
+        executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                Runnable latest;
+                synchronized (pending) {
+                    latest = pending.remove(identity);
+                }
+                if (latest != null) {
+                    long startTime = System.nanoTime();
+                    try {
+                        latest.run();
+                    } catch (RuntimeException ex) {
+                        LOGGER.error("Cannot provision container: " + identity, ex);
+                    } finally {
+                        provisionTime.addSampleSince(startTime);
+                        executedCount.incrementAndGet();
+                    }
+                }
+            }
+        }, window, TimeUnit.MILLISECONDS);
+    }
+
+    void shutdown() {
+        executor.shutdownNow();
+        synchronized (pending) {
+            pending.clear();
+        }
+    }
+
+    void collectStatistics(Map<String, Long> statistics) {
+        statistics.put("ProvisioningQueue.queued", queuedCount.get());
+        statistics.put("ProvisioningQueue.coalesced", coalescedCount.get());
+        statistics.put("ProvisioningQueue.executed", executedCount.get());
+        provisionTime.collect(statistics);
+    }
+
+    @Override
+    public String toString() {
+        return "ProvisioningQueue[queued=" + queuedCount + ",coalesced=" + coalescedCount + ",executed=" + executedCount + "," + provisionTime + "]";
+    }
+}
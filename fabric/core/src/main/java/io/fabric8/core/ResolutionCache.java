@@ -0,0 +1,195 @@
+/*
+ * #%L
+ * Fabric8 :: Core
+ * %%
+ * Copyright (C) 2014 Red Hat
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.fabric8.core;
+
+import io.fabric8.core.utils.DigestUtils;
+import io.fabric8.core.utils.TimingStatistics;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.gravia.provision.ProvisionException;
+import org.jboss.gravia.provision.ProvisionResult;
+import org.jboss.gravia.provision.Provisioner;
+import org.jboss.gravia.resolver.Environment;
+import org.jboss.gravia.resource.Capability;
+import org.jboss.gravia.resource.Requirement;
+import org.jboss.gravia.resource.Resource;
+
+/**
+ * A cache of resolver results
+ *
+ * A result is keyed by a fingerprint of the capabilities and requirements of the resources in the environment
+ * and the set of requirements. Only results without unsatisfied requirements are cached. The content behind a
+ * content URL is not part of the fingerprint, so the cache is invalidated on profile updates and entries expire
+ * after a configurable time.
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 08-Jul-2014
+ */
+final class ResolutionCache {
+
+    private static final int MAX_ENTRIES = 64;
+
+    private final Map<String, CacheEntry> cacheMap = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Entry<String, CacheEntry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+    private final long expiry;
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final TimingStatistics resolveTime = new TimingStatistics("ResourceResolve");
+
+    /**
+     * @param expiry The time in milliseconds after which a cached result expires
+     */
+    ResolutionCache(long expiry) {
+        this.expiry = expiry;
+    }
+
+    /**
+     * Get the cached result for the given environment and requirements or resolve them with the given provisioner
+     */
+    ProvisionResult findResources(Provisioner provisioner, Environment env, Set<Requirement> reqs) throws ProvisionException {
+        String fingerprint = getFingerprint(env, reqs);
+        synchronized (cacheMap) {
+            CacheEntry entry = cacheMap.get(fingerprint);
+            if (entry != null && System.nanoTime() - entry.createTime < TimeUnit.MILLISECONDS.toNanos(expiry)) {
+                hitCount.incrementAndGet();
+                return entry.result;
+            }
+        }
+        missCount.incrementAndGet();
+        long startTime = System.nanoTime();
+        ProvisionResult result = provisioner.findResources(env, reqs);
+        resolveTime.addSampleSince(startTime);
+        if (result.getUnsatisfiedRequirements().isEmpty()) {
+            synchronized (cacheMap) {
+                cacheMap.put(fingerprint, new CacheEntry(result, startTime));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Invalidate all cached results
+     */
+    void invalidate() {
+        synchronized (cacheMap) {
+            cacheMap.clear();
+        }
+    }
+
+    void collectStatistics(Map<String, Long> statistics) {
+        synchronized (cacheMap) {
+            statistics.put("ResolutionCache.size", (long) cacheMap.size());
+        }
+        statistics.put("ResolutionCache.hits", hitCount.get());
+        statistics.put("ResolutionCache.misses", missCount.get());
+        resolveTime.collect(statistics);
+    }
+
+    @Override
+    public String toString() {
+        synchronized (cacheMap) {
+            return "ResolutionCache[size=" + cacheMap.size() + ",hits=" + hitCount + ",misses=" + missCount + "," + resolveTime + "]";
+        }
+    }
+
+    private static String getFingerprint(Environment env, Set<Requirement> reqs) {
+        List<String> resources = new ArrayList<>();
+        Iterator<Resource> itres = env.getResources();
+        while (itres.hasNext()) {
+            resources.add(getResourceKey(itres.next()));
+        }
+        Collections.sort(resources);
+        List<String> requirements = new ArrayList<>();
+        for (Requirement req : reqs) {
+            requirements.add(getRequirementKey(req));
+        }
+        Collections.sort(requirements);
+        MessageDigest digest = DigestUtils.getMessageDigest();
+        for (String resid : resources) {
+            digest.update(resid.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+        }
+        digest.update((byte) 1);
+        for (String req : requirements) {
+            digest.update(req.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+        }
+        return DigestUtils.toHex(digest.digest());
+    }
+
+    // The identity, capabilities and requirements of a resource, including attributes such as the content URL
+    private static String getResourceKey(Resource resource) {
+        List<String> capabilities = new ArrayList<>();
+        for (Capability cap : resource.getCapabilities(null)) {
+            capabilities.add(cap.getNamespace() + toString(cap.getAttributes()) + toString(cap.getDirectives()));
+        }
+        Collections.sort(capabilities);
+        List<String> requirements = new ArrayList<>();
+        for (Requirement req : resource.getRequirements(null)) {
+            requirements.add(getRequirementKey(req));
+        }
+        Collections.sort(requirements);
+        return resource.getIdentity().getCanonicalForm() + capabilities + requirements;
+    }
+
+    private static String getRequirementKey(Requirement req) {
+        return req.getNamespace() + toString(req.getAttributes()) + toString(req.getDirectives());
+    }
+
+    // Sorted by key, with array values in their content form
+    private static String toString(Map<String, ?> map) {
+        StringBuilder builder = new StringBuilder("{");
+        for (Entry<String, ?> entry : new TreeMap<String, Object>(map).entrySet()) {
+            builder.append(entry.getKey()).append('=').append(Arrays.deepToString(new Object[] { entry.getValue() })).append(',');
+        }
+        return builder.append('}').toString();
+    }
+
+    private static final class CacheEntry {
+
+        private final ProvisionResult result;
+        private final long createTime;
+
+        CacheEntry(ProvisionResult result, long createTime) {
+            this.result = result;
+            this.createTime = createTime;
+        }
+    }
+}
@@ -0,0 +1,293 @@
+/*
+ * #%L
+ * Fabric8 :: Core
+ * %%
+ * Copyright (C) 2014 Red Hat
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.fabric8.core;
+
+import io.fabric8.core.utils.TimingStatistics;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.gravia.provision.ProvisionException;
+import org.jboss.gravia.provision.Provisioner;
+import org.jboss.gravia.provision.ResourceHandle;
+import org.jboss.gravia.resource.Capability;
+import org.jboss.gravia.resource.Requirement;
+import org.jboss.gravia.resource.Resource;
+import org.jboss.gravia.resource.ResourceIdentity;
+import org.jboss.gravia.utils.IllegalArgumentAssertion;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Install and uninstall a set of resources concurrently
+ *
+ * A resource that requires a capability of another resource in the same set is installed after that resource
+ * and uninstalled before it. Independent resources are processed concurrently on a bounded pool.
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 08-Jul-2014
+ */
+final class ResourceInstaller {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ResourceInstaller.class);
+
+    private final Provisioner provisioner;
+    private final ExecutorService executor;
+    private final TimingStatistics installTime = new TimingStatistics("ResourceInstall");
+    private final TimingStatistics uninstallTime = new TimingStatistics("ResourceUninstall");
+
+    ResourceInstaller(Provisioner provisioner, int threads) {
+        IllegalArgumentAssertion.assertNotNull(provisioner, "provisioner");
+        IllegalArgumentAssertion.assertTrue(threads > 0, "Invalid number of threads: " + threads);
+        this.provisioner = provisioner;
+        this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+            @Override
+            public Thread newThread(Runnable run) {
+                Thread thread = new Thread(run, ResourceInstaller.class.getSimpleName() + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Install the given resources in dependency order
+     * @param installed Receives the handles of the installed resources, also when the installation fails
+     */
+    void installResources(Collection<Resource> resources, Map<ResourceIdentity, ResourceHandle> installed) throws ProvisionException {
+        Map<Resource, Set<Resource>> dependencies = getDependencies(resources);
+        Map<Resource, ResourceHandle> done = new LinkedHashMap<>();
+        try {
+            runOrdered(resources, dependencies, new Operation() {
+                @Override
+                public ResourceHandle run(Resource res, ResourceHandle handle) throws ProvisionException {
+                    long startTime = System.nanoTime();
+                    handle = provisioner.installResource(res);
+                    long nanos = installTime.addSampleSince(startTime);
+                    LOGGER.debug("Installed {} in {}ms", res.getIdentity(), TimeUnit.NANOSECONDS.toMillis(nanos));
+                    return handle;
+                }
+            }, null, done);
+        } finally {
+            for (Map.Entry<Resource, ResourceHandle> entry : done.entrySet()) {
+                installed.put(entry.getKey().getIdentity(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Uninstall the given resources in reverse dependency order
+     * @param uninstalled Receives the identities of the uninstalled resources, also when the uninstallation fails
+     */
+    void uninstallResources(Collection<ResourceHandle> handles, Collection<ResourceIdentity> uninstalled) throws ProvisionException {
+        Map<Resource, ResourceHandle> resources = new LinkedHashMap<>();
+        for (ResourceHandle handle : handles) {
+            resources.put(handle.getResource(), handle);
+        }
+
+        // A provider waits for all of its dependents
+        Map<Resource, Set<Resource>> dependents = new HashMap<>();
+        for (Resource res : resources.keySet()) {
+            dependents.put(res, new HashSet<Resource>());
+        }
+        for (Map.Entry<Resource, Set<Resource>> entry : getDependencies(resources.keySet()).entrySet()) {
+            for (Resource provider : entry.getValue()) {
+                dependents.get(provider).add(entry.getKey());
+            }
+        }
+
+        Map<Resource, ResourceHandle> done = new LinkedHashMap<>();
+        try {
+            runOrdered(resources.keySet(), dependents, new Operation() {
+                @Override
+                public ResourceHandle run(Resource res, ResourceHandle handle) {
+                    long startTime = System.nanoTime();
+                    handle.uninstall();
+                    long nanos = uninstallTime.addSampleSince(startTime);
+                    LOGGER.debug("Uninstalled {} in {}ms", res.getIdentity(), TimeUnit.NANOSECONDS.toMillis(nanos));
+                    return handle;
+                }
+            }, resources, done);
+        } finally {
+            for (Resource res : done.keySet()) {
+                uninstalled.add(res.getIdentity());
+            }
+        }
+    }
+
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    void collectStatistics(Map<String, Long> statistics) {
+        installTime.collect(statistics);
+        uninstallTime.collect(statistics);
+    }
+
+    @Override
+    public String toString() {
+        return "ResourceInstaller[" + installTime + "," + uninstallTime + "]";
+    }
+
+    // Map each resource to the resources in the given set that provide a capability it requires
+    private Map<Resource, Set<Resource>> getDependencies(Collection<Resource> resources) {
+        Map<Resource, Set<Resource>> result = new HashMap<>();
+        for (Resource res : resources) {
+            Set<Resource> providers = new HashSet<>();
+            for (Requirement req : res.getRequirements(null)) {
+                for (Resource provider : resources) {
+                    if (provider != res && !providers.contains(provider) && providesCapability(provider, req)) {
+                        providers.add(provider);
+                    }
+                }
+            }
+            result.put(res, providers);
+        }
+        return result;
+    }
+
+    private boolean providesCapability(Resource provider, Requirement req) {
+        for (Capability cap : provider.getCapabilities(req.getNamespace())) {
+            if (req.matches(cap)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Run the operation for every node once all nodes it depends on are done.
+     * Nothing new is started after the first failure or an interrupt, but the operations in flight are awaited.
+     * A dependency cycle is broken by starting its first node in the given order.
+     * @param done Receives the results of the completed operations
+     */
+    private void runOrdered(Collection<Resource> nodes, Map<Resource, Set<Resource>> dependencies, final Operation operation, final Map<Resource, ResourceHandle> handles, Map<Resource, ResourceHandle> done) throws ProvisionException {
+        List<Resource> pending = new ArrayList<>(nodes);
+        Map<Future<ResourceHandle>, Resource> running = new HashMap<>();
+        CompletionService<ResourceHandle> completion = new ExecutorCompletionService<>(executor);
+        Throwable failure = null;
+        while (!pending.isEmpty() || !running.isEmpty()) {
+
+            // Start all nodes whose dependencies are done
+            if (failure == null) {
+                List<Resource> ready = new ArrayList<>();
+                for (Resource res : pending) {
+                    if (done.keySet().containsAll(dependencies.get(res))) {
+                        ready.add(res);
+                    }
+                }
+                if (ready.isEmpty() && running.isEmpty()) {
+                    LOGGER.warn("Cyclic resource dependencies: {}", pending);
+                    ready.add(pending.get(0));
+                }
+                for (final Resource res : ready) {
+                    pending.remove(res);
+                    Future<ResourceHandle> future = completion.submit(new Callable<ResourceHandle>() {
+                        @Override
+                        public ResourceHandle call() throws Exception {
+                            return operation.run(res, handles != null ? handles.get(res) : null);
+                        }
+                    });
+                    running.put(future, res);
+                }
+            } else {
+                pending.clear();
+            }
+            if (running.isEmpty()) {
+                continue;
+            }
+
+            // Wait for the next node to complete
+            Future<ResourceHandle> future;
+            try {
+                future = completion.take();
+            } catch (InterruptedException ex) {
+                // An operation in flight cannot be cancelled safely, record the ones that complete before giving up
+                awaitRunning(running, done);
+                Thread.currentThread().interrupt();
+                throw new ProvisionException(ex);
+            }
+            Resource res = running.remove(future);
+            try {
+                done.put(res, future.get());
+            } catch (InterruptedException ex) {
+                awaitRunning(running, done);
+                Thread.currentThread().interrupt();
+                throw new ProvisionException(ex);
+            } catch (ExecutionException ex) {
+                LOGGER.error("Cannot process resource: " + res.getIdentity(), ex.getCause());
+                if (failure == null) {
+                    failure = ex.getCause();
+                }
+            }
+        }
+        if (failure instanceof ProvisionException) {
+            throw (ProvisionException) failure;
+        } else if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure != null) {
+            throw new ProvisionException(failure);
+        }
+    }
+
+    // Wait for the operations in flight, ignoring interrupts, and record their results
+    private void awaitRunning(Map<Future<ResourceHandle>, Resource> running, Map<Resource, ResourceHandle> done) {
+        boolean interrupted = false;
+        for (Map.Entry<Future<ResourceHandle>, Resource> entry : running.entrySet()) {
+            Resource res = entry.getValue();
+            while (true) {
+                try {
+                    done.put(res, entry.getKey().get());
+                    break;
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                } catch (ExecutionException ex) {
+                    LOGGER.error("Cannot process resource: " + res.getIdentity(), ex.getCause());
+                    break;
+                }
+            }
+        }
+        running.clear();
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    interface Operation {
+        ResourceHandle run(Resource res, ResourceHandle handle) throws ProvisionException;
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * #%L
+ * Fabric8 :: Core
+ * %%
+ * Copyright (C) 2014 Red Hat
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.fabric8.core.utils;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread safe count, total and max statistics for timed operations
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 30-Jun-2014
+ */
+public final class TimingStatistics {
+
+    private final String name;
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    public TimingStatistics(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Add a sample that started at the given {@link System#nanoTime()}
+     */
+    public long addSampleSince(long startNanos) {
+        long nanos = System.nanoTime() - startNanos;
+        addSample(nanos);
+        return nanos;
+    }
+
+    public void addSample(long nanos) {
+        count.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+        long max = maxNanos.get();
+        while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+            max = maxNanos.get();
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getTotalTime(TimeUnit unit) {
+        return unit.convert(totalNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    public long getMaxTime(TimeUnit unit) {
+        return unit.convert(maxNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    public long getAverageTime(TimeUnit unit) {
+        long samples = count.get();
+        return samples > 0 ? unit.convert(totalNanos.get() / samples, TimeUnit.NANOSECONDS) : 0;
+    }
+
+    /**
+     * Add the count and times in milliseconds to the given statistics map
+     */
+    public void collect(Map<String, Long> statistics) {
+        TimeUnit unit = TimeUnit.MILLISECONDS;
+        statistics.put(name + ".count", getCount());
+        statistics.put(name + ".totalMillis", getTotalTime(unit));
+        statistics.put(name + ".avgMillis", getAverageTime(unit));
+        statistics.put(name + ".maxMillis", getMaxTime(unit));
+    }
+
+    public void reset() {
+        count.set(0);
+        totalNanos.set(0);
+        maxNanos.set(0);
+    }
+
+    @Override
+    public String toString() {
+        TimeUnit unit = TimeUnit.MILLISECONDS;
+        return name + "[count=" + getCount() + ",total=" + getTotalTime(unit) + "ms,avg=" + getAverageTime(unit) + "ms,max=" + getMaxTime(unit) + "ms]";
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * #%L
+ * Fabric8 :: Core
+ * %%
+ * Copyright (C) 2014 Red Hat
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.fabric8.core;
+
+import io.fabric8.core.ConfigurationManager.ApplyResult;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Dictionary;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.service.cm.Configuration;
+import org.osgi.service.cm.ConfigurationAdmin;
+import org.osgi.service.cm.ConfigurationEvent;
+
+/**
+ * Test the {@link ConfigurationManager}
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 20-Jul-2014
+ */
+public class ConfigurationManagerTest {
+
+    final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+    final Map<String, Dictionary<String, Object>> store = new HashMap<>();
+    ConfigurationManager manager;
+
+    @Before
+    public void setUp() {
+        manager = new ConfigurationManager();
+        manager.bindConfigAdmin(createConfigAdmin());
+        manager.activate();
+    }
+
+    @After
+    public void tearDown() {
+        manager.deactivate();
+    }
+
+    @Test
+    public void testFingerprintSkip() throws Exception {
+        Map<String, Map<String, Object>> configs = new LinkedHashMap<>();
+        configs.put("pidA", Collections.singletonMap("key", (Object) "valA"));
+        configs.put("pidB", Collections.singletonMap("key", (Object) "valB"));
+
+        ApplyResult result = manager.applyConfigurations(configs);
+        Assert.assertEquals(new HashSet<>(Arrays.asList("pidA", "pidB")), result.getUpdated());
+        Assert.assertTrue(result.getSkipped().isEmpty());
+        Assert.assertEquals(Arrays.asList("list", "get:pidA", "update:pidA", "get:pidB", "update:pidB"), events);
+
+        // Known configurations are skipped without calling the ConfigurationAdmin
+        events.clear();
+        result = manager.applyConfigurations(configs);
+        Assert.assertTrue(result.getUpdated().isEmpty());
+        Assert.assertEquals(new HashSet<>(Arrays.asList("pidA", "pidB")), result.getSkipped());
+        Assert.assertTrue("Unexpected calls: " + events, events.isEmpty());
+
+        // Only the changed configuration is looked up and updated
+        configs.put("pidA", Collections.singletonMap("key", (Object) "changed"));
+        result = manager.applyConfigurations(configs);
+        Assert.assertEquals(Collections.singleton("pidA"), result.getUpdated());
+        Assert.assertEquals(Collections.singleton("pidB"), result.getSkipped());
+        Assert.assertEquals(Arrays.asList("list", "update:pidA"), events);
+
+        Map<String, Long> statistics = new HashMap<>();
+        manager.collectStatistics(statistics);
+        Assert.assertEquals(Long.valueOf(3), statistics.get("ConfigurationManager.updated"));
+        Assert.assertEquals(Long.valueOf(3), statistics.get("ConfigurationManager.skipped"));
+    }
+
+    @Test
+    public void testForeignChangeIsRestored() throws Exception {
+        Map<String, Map<String, Object>> configs = new LinkedHashMap<>();
+        configs.put("pidA", Collections.singletonMap("key", (Object) "valA"));
+        manager.applyConfigurations(configs);
+
+        // Another party changes the configuration
+        store.get("pidA").put("key", "foreign");
+        manager.configurationEvent(new ConfigurationEvent(null, ConfigurationEvent.CM_UPDATED, null, "pidA"));
+
+        events.clear();
+        ApplyResult result = manager.applyConfigurations(configs);
+        Assert.assertEquals(Collections.singleton("pidA"), result.getUpdated());
+        Assert.assertEquals("valA", store.get("pidA").get("key"));
+        Assert.assertEquals(Arrays.asList("list", "update:pidA"), events);
+    }
+
+    @Test
+    public void testEqualContentIsNotUpdated() throws Exception {
+        // An existing configuration with the same content that has no fingerprint yet
+        Dictionary<String, Object> props = new Hashtable<>();
+        props.put("key", "valA");
+        store.put("pidA", props);
+
+        Map<String, Map<String, Object>> configs = new LinkedHashMap<>();
+        configs.put("pidA", Collections.singletonMap("key", (Object) "valA"));
+        configs.put("pidB", Collections.singletonMap("key", (Object) "valB"));
+        ApplyResult result = manager.applyConfigurations(configs);
+        Assert.assertEquals(Collections.singleton("pidB"), result.getUpdated());
+        Assert.assertEquals(Collections.singleton("pidA"), result.getSkipped());
+        Assert.assertEquals(Arrays.asList("list", "get:pidB", "update:pidB"), events);
+    }
+
+    // A ConfigurationAdmin that keeps the configurations in the store and records its calls
+    private ConfigurationAdmin createConfigAdmin() {
+        return (ConfigurationAdmin) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { ConfigurationAdmin.class }, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                String name = method.getName();
+                if ("listConfigurations".equals(name)) {
+                    events.add("list");
+                    String filter = (String) args[0];
+                    List<Configuration> result = new ArrayList<>();
+                    for (String pid : store.keySet()) {
+                        if (filter.contains("=" + pid + ")")) {
+                            result.add(createConfiguration(pid));
+                        }
+                    }
+                    return result.isEmpty() ? null : result.toArray(new Configuration[result.size()]);
+                } else if ("getConfiguration".equals(name)) {
+                    String pid = (String) args[0];
+                    events.add("get:" + pid);
+                    return createConfiguration(pid);
+                } else if ("toString".equals(name)) {
+                    return "ConfigurationAdmin";
+                }
+                throw new UnsupportedOperationException(name);
+            }
+        });
+    }
+
+    private Configuration createConfiguration(final String pid) {
+        return (Configuration) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Configuration.class }, new InvocationHandler() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                String name = method.getName();
+                if ("getPid".equals(name)) {
+                    return pid;
+                } else if ("getProperties".equals(name)) {
+                    return store.get(pid);
+                } else if ("update".equals(name)) {
+                    events.add("update:" + pid);
+                    store.put(pid, (Dictionary<String, Object>) args[0]);
+                    return null;
+                } else if ("toString".equals(name)) {
+                    return "Configuration[" + pid + "]";
+                }
+                throw new UnsupportedOperationException(name);
+            }
+        });
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * #%L
+ * Fabric8 :: Core
+ * %%
+ * Copyright (C) 2014 Red Hat
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.fabric8.core;
+
+import io.fabric8.api.AttributeKey;
+import io.fabric8.api.Container;
+import io.fabric8.api.Container.State;
+import io.fabric8.api.ContainerIdentity;
+import io.fabric8.api.ProfileIdentity;
+import io.fabric8.api.ServiceEndpoint;
+import io.fabric8.api.ServiceEndpointIdentity;
+import io.fabric8.api.URLServiceEndpoint;
+import io.fabric8.api.VersionIdentity;
+import io.fabric8.spi.AbstractURLServiceEndpoint;
+import io.fabric8.spi.ImmutableContainer;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jboss.gravia.runtime.RuntimeType;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test the {@link ContainerNode} data format
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 20-Jul-2014
+ */
+public class ContainerNodeTest {
+
+    static AttributeKey<String> KEYA = AttributeKey.create("keyA");
+    static AttributeKey<Integer> KEYB = AttributeKey.create("keyB", Integer.class);
+
+    @Test
+    public void testRoundTrip() {
+        ContainerIdentity identity = ContainerIdentity.create("cntA");
+        ServiceEndpointIdentity endpointId = ServiceEndpointIdentity.create("http");
+        Map<AttributeKey<?>, Object> endpointAttributes = new HashMap<>();
+        endpointAttributes.put(URLServiceEndpoint.ATTRIBUTE_KEY_SERVICE_URL, "http://localhost:8080");
+
+        ContainerNode node = new ContainerNode(identity);
+        node.setState(State.STARTED);
+        node.setProfileVersion(VersionIdentity.createFrom("1.1"));
+        node.setParent(ContainerIdentity.create("parent"));
+        node.getChildren().add(ContainerIdentity.create("child"));
+        node.setProfiles(Arrays.asList(ProfileIdentity.createFrom("default"), ProfileIdentity.createFrom("prfA")));
+        node.setServiceEndpoints(Collections.<ServiceEndpoint>singleton(new AbstractURLServiceEndpoint(endpointId, endpointAttributes)));
+
+        byte[] data = node.toBytes();
+        Assert.assertTrue(ContainerNode.isContainerData(data));
+
+        ContainerNode result = ContainerNode.fromBytes(identity, data);
+        Assert.assertArrayEquals(data, result.toBytes());
+        Container container = result.toContainer();
+        Assert.assertEquals(identity, container.getIdentity());
+        Assert.assertEquals(State.STARTED, container.getState());
+        Assert.assertEquals(VersionIdentity.createFrom("1.1"), container.getProfileVersion());
+        Assert.assertEquals(ContainerIdentity.create("parent"), container.getParentIdentity());
+        Assert.assertEquals(Collections.singleton(ContainerIdentity.create("child")), container.getChildIdentities());
+        Assert.assertEquals(Arrays.asList(ProfileIdentity.createFrom("default"), ProfileIdentity.createFrom("prfA")), container.getProfileIdentities());
+        ServiceEndpoint endpoint = container.getServiceEndpoint(endpointId);
+        Assert.assertTrue(endpoint instanceof URLServiceEndpoint);
+        Assert.assertEquals("http://localhost:8080", endpoint.getAttribute(URLServiceEndpoint.ATTRIBUTE_KEY_SERVICE_URL));
+    }
+
+    @Test
+    public void testContainerAttributes() {
+        ContainerIdentity identity = ContainerIdentity.create("cntB");
+        Map<AttributeKey<?>, Object> attributes = new HashMap<>();
+        attributes.put(KEYA, "valA");
+        attributes.put(KEYB, 42);
+        Container container = new ImmutableContainer.Builder(identity, RuntimeType.OTHER, attributes, State.CREATED).build();
+
+        ContainerNode result = ContainerNode.fromBytes(identity, new ContainerNode(container).toBytes());
+        Container copy = result.toContainer();
+        Assert.assertEquals(RuntimeType.OTHER, copy.getRuntimeType());
+        Assert.assertEquals(State.CREATED, copy.getState());
+        Assert.assertNull(copy.getProfileVersion());
+        Assert.assertNull(copy.getParentIdentity());
+        Assert.assertEquals("valA", copy.getAttribute(KEYA));
+        Assert.assertEquals(Integer.valueOf(42), copy.getAttribute(KEYB));
+    }
+
+    @Test
+    public void testModifiedData() {
+        ContainerNode node = new ContainerNode(ContainerIdentity.create("cntC"));
+        byte[] data = node.toBytes();
+        Assert.assertTrue(node.isModified(data));
+
+        node.setNodeData(0, data);
+        Assert.assertFalse(node.isModified(node.toBytes()));
+
+        node.setState(State.STOPPED);
+        Assert.assertTrue(node.isModified(node.toBytes()));
+    }
+}
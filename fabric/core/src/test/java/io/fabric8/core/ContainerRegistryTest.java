@@ -0,0 +1,160 @@
+/*
+ * #%L
+ * Fabric8 :: Core
+ * %%
+ * Copyright (C) 2014 Red Hat
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.fabric8.core;
+
+import io.fabric8.api.AttributeKey;
+import io.fabric8.api.Container;
+import io.fabric8.api.Container.State;
+import io.fabric8.api.ContainerIdentity;
+import io.fabric8.api.LockHandle;
+import io.fabric8.api.ProfileIdentity;
+import io.fabric8.api.VersionIdentity;
+import io.fabric8.core.zookeeper.ZkPath;
+import io.fabric8.spi.utils.FileUtils;
+
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.RetryNTimes;
+import org.apache.zookeeper.server.NIOServerCnxnFactory;
+import org.apache.zookeeper.server.ZooKeeperServer;
+import org.jboss.gravia.runtime.RuntimeType;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test the {@link ContainerRegistry} against an embedded ZooKeeper server
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 20-Jul-2014
+ */
+public class ContainerRegistryTest {
+
+    static final ContainerIdentity IDENTITY = ContainerIdentity.create("cntA");
+    static final AttributeKey<String> KEYA = AttributeKey.create("keyA");
+
+    Path dataDir;
+    NIOServerCnxnFactory cnxnFactory;
+    CuratorFramework curator;
+    TestRuntimeService runtime;
+    ContainerLockManager lockManager;
+    ContainerRegistry registry;
+
+    @Before
+    public void setUp() throws Exception {
+        dataDir = Files.createTempDirectory("fabric8-zookeeper");
+        cnxnFactory = new NIOServerCnxnFactory();
+        cnxnFactory.configure(new InetSocketAddress("localhost", 0), 10);
+        cnxnFactory.startup(new ZooKeeperServer(dataDir.toFile(), dataDir.toFile(), 2000));
+
+        curator = CuratorFrameworkFactory.newClient("localhost:" + cnxnFactory.getLocalPort(), new RetryNTimes(3, 500));
+        curator.start();
+        Assert.assertTrue(curator.getZookeeperClient().blockUntilConnectedOrTimedOut());
+        runtime = new TestRuntimeService();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (registry != null) {
+            registry.deactivate();
+        }
+        if (lockManager != null) {
+            lockManager.deactivate();
+        }
+        curator.close();
+        cnxnFactory.shutdown();
+        FileUtils.deleteRecursively(dataDir);
+        runtime.cleanup();
+    }
+
+    @Test
+    public void testLegacyMigration() throws Exception {
+        String id = IDENTITY.getSymbolicName();
+        createLegacyContainer(id);
+
+        activateRegistry();
+
+        // The container is stored in a single node and the legacy field nodes are gone
+        byte[] data = curator.getData().forPath(ZkPath.CONTAINER.getPath(id));
+        Assert.assertTrue(ContainerNode.isContainerData(data));
+        Assert.assertEquals(Collections.emptyList(), curator.getChildren().forPath(ZkPath.CONTAINER.getPath(id)));
+
+        Container container = registry.getRequiredContainer(IDENTITY);
+        Assert.assertEquals(RuntimeType.OTHER, container.getRuntimeType());
+        Assert.assertEquals(State.CREATED, container.getState());
+        Assert.assertEquals(VersionIdentity.createFrom("1.0"), container.getProfileVersion());
+        Assert.assertEquals(Arrays.asList(ProfileIdentity.createFrom("default"), ProfileIdentity.createFrom("prfA")), container.getProfileIdentities());
+        Assert.assertEquals(Collections.singleton(ContainerIdentity.create("child")), container.getChildIdentities());
+        Assert.assertEquals("valA", container.getAttribute(KEYA));
+    }
+
+    @Test
+    public void testUnchangedNodeNotWritten() throws Exception {
+        String id = IDENTITY.getSymbolicName();
+        createLegacyContainer(id);
+        activateRegistry();
+
+        String path = ZkPath.CONTAINER.getPath(id);
+        int version = curator.checkExists().forPath(path).getVersion();
+        LockHandle writeLock = lockManager.aquireWriteLock(IDENTITY);
+        try {
+            Assert.assertEquals(State.STARTED, registry.startContainer(IDENTITY).getState());
+            Assert.assertEquals(version + 1, curator.checkExists().forPath(path).getVersion());
+
+            // Writing the same state again does not touch the node
+            Assert.assertEquals(State.STARTED, registry.startContainer(IDENTITY).getState());
+            Assert.assertEquals(version + 1, curator.checkExists().forPath(path).getVersion());
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void activateRegistry() throws Exception {
+        lockManager = new ContainerLockManager();
+        lockManager.bindCurator(curator);
+        lockManager.bindRuntimeService(runtime);
+        lockManager.activate();
+
+        registry = new ContainerRegistry();
+        registry.bindCurator(curator);
+        registry.bindRuntimeService(runtime);
+        registry.activate();
+    }
+
+    // Write a container in the per-field layout that was used before containers were stored in a single node
+    private void createLegacyContainer(String id) throws Exception {
+        curator.create().creatingParentsIfNeeded().forPath(ZkPath.CONTAINER.getPath(id), new byte[0]);
+        curator.create().forPath(ZkPath.CONTAINER_TYPE.getPath(id), RuntimeType.OTHER.name().getBytes());
+        curator.create().forPath(ZkPath.CONTAINER_STATE.getPath(id), State.CREATED.name().getBytes());
+        curator.create().forPath(ZkPath.CONTAINER_CHILDREN.getPath(id), "child".getBytes());
+        curator.create().creatingParentsIfNeeded().forPath(ZkPath.CONTAINER_CONFIG_VERSION.getPath(id), "1.0".getBytes());
+        curator.create().forPath(ZkPath.CONTAINER_CONFIG_PROFILES.getPath(id), "default prfA".getBytes());
+        String attributePath = ZkPath.CONTAINER_ATTRIBUTE.getPath(id, "0");
+        curator.create().creatingParentsIfNeeded().forPath(attributePath, KEYA.getCanonicalForm().getBytes());
+        curator.create().forPath(attributePath + "/value", "valA".getBytes());
+    }
+}
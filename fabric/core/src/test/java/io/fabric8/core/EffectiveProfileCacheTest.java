@@ -0,0 +1,140 @@
+/*
+ * #%L
+ * Fabric8 :: Core
+ * %%
+ * Copyright (C) 2014 Red Hat
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.fabric8.core;
+
+import io.fabric8.api.Profile;
+import io.fabric8.api.ProfileIdentity;
+import io.fabric8.api.VersionIdentity;
+import io.fabric8.spi.DefaultProfileBuilder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test the {@link EffectiveProfileCache}
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 20-Jul-2014
+ */
+public class EffectiveProfileCacheTest {
+
+    static final VersionIdentity VERSION = VersionIdentity.createFrom("1.0");
+    static final ProfileIdentity PARENT = ProfileIdentity.createFrom("parent");
+    static final ProfileIdentity CHILD = ProfileIdentity.createFrom("child");
+    static final ProfileIdentity OTHER = ProfileIdentity.createFrom("other");
+    static final ProfileIdentity EFFECTIVE = ProfileIdentity.createFrom("effective#child");
+
+    @Test
+    public void testParentUpdateInvalidatesChildren() {
+        EffectiveProfileCache cache = new EffectiveProfileCache();
+        CountingLoader loader = new CountingLoader(PARENT, CHILD);
+        List<ProfileIdentity> profiles = Collections.singletonList(CHILD);
+
+        Profile effective = cache.getEffectiveProfile(VERSION, EFFECTIVE, profiles, loader);
+        Assert.assertSame(effective, cache.getEffectiveProfile(VERSION, EFFECTIVE, profiles, loader));
+        Assert.assertEquals(1, loader.count.get());
+
+        // A profile outside the closure does not invalidate the entry
+        cache.invalidate(VERSION, OTHER);
+        cache.invalidate(VersionIdentity.createFrom("2.0"), PARENT);
+        Assert.assertSame(effective, cache.getEffectiveProfile(VERSION, EFFECTIVE, profiles, loader));
+        Assert.assertEquals(1, loader.count.get());
+
+        // An update of the parent invalidates the effective child
+        cache.invalidate(VERSION, PARENT);
+        Assert.assertNotSame(effective, cache.getEffectiveProfile(VERSION, EFFECTIVE, profiles, loader));
+        Assert.assertEquals(2, loader.count.get());
+    }
+
+    @Test
+    public void testConcurrentMissesComputeOnce() throws Exception {
+        final EffectiveProfileCache cache = new EffectiveProfileCache();
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountingLoader loader = new CountingLoader(CHILD) {
+            @Override
+            public Profile loadEffectiveProfile(Set<ProfileIdentity> closure) {
+                entered.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.loadEffectiveProfile(closure);
+            }
+        };
+        final List<ProfileIdentity> profiles = Collections.singletonList(CHILD);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Profile>> futures = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                futures.add(executor.submit(new Callable<Profile>() {
+                    @Override
+                    public Profile call() throws Exception {
+                        return cache.getEffectiveProfile(VERSION, EFFECTIVE, profiles, loader);
+                    }
+                }));
+            }
+            Assert.assertTrue(entered.await(10, TimeUnit.SECONDS));
+            // Give the other requests a chance to miss while the first one computes
+            Thread.sleep(100);
+            release.countDown();
+
+            Profile effective = futures.get(0).get(10, TimeUnit.SECONDS);
+            for (Future<Profile> future : futures) {
+                Assert.assertSame(effective, future.get(10, TimeUnit.SECONDS));
+            }
+            Assert.assertEquals(1, loader.count.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    static class CountingLoader implements EffectiveProfileCache.Loader {
+
+        final AtomicInteger count = new AtomicInteger();
+        final List<ProfileIdentity> closure;
+
+        CountingLoader(ProfileIdentity... closure) {
+            this.closure = Arrays.asList(closure);
+        }
+
+        @Override
+        public Profile loadEffectiveProfile(Set<ProfileIdentity> closure) {
+            count.incrementAndGet();
+            closure.addAll(this.closure);
+            return new DefaultProfileBuilder(EFFECTIVE).getProfile();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * #%L
+ * Fabric8 :: Core
+ * %%
+ * Copyright (C) 2014 Red Hat
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.fabric8.core;
+
+import io.fabric8.api.Profile;
+import io.fabric8.api.ProfileIdentity;
+import io.fabric8.api.ProfileVersionDiff.ProfileDiff;
+import io.fabric8.spi.DefaultProfileBuilder;
+
+import java.util.Collections;
+
+import org.jboss.gravia.resource.DefaultResourceBuilder;
+import org.jboss.gravia.resource.Resource;
+import org.jboss.gravia.resource.ResourceBuilder;
+import org.jboss.gravia.resource.ResourceIdentity;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test the {@link ProfileDiffSupport}
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 20-Jul-2014
+ */
+public class ProfileDiffSupportTest {
+
+    @Test
+    public void testItemChanges() {
+        Profile source = new DefaultProfileBuilder("prfA")
+            .addConfigurationItem("pidA", Collections.singletonMap("key", (Object) "valA"))
+            .addConfigurationItem("pidB", Collections.singletonMap("key", (Object) "valB"))
+            .addConfigurationItem("pidC", Collections.singletonMap("key", (Object) "valC"))
+            .getProfile();
+
+        Profile target = new DefaultProfileBuilder("prfA")
+            .addParentProfile(ProfileIdentity.createFrom("prfP"))
+            .addConfigurationItem("pidA", Collections.singletonMap("key", (Object) "valA"))
+            .addConfigurationItem("pidB", Collections.singletonMap("key", (Object) "changed"))
+            .addConfigurationItem("pidD", Collections.singletonMap("key", (Object) "valD"))
+            .getProfile();
+
+        Assert.assertTrue(ProfileDiffSupport.diffProfile(source, source).isEmpty());
+
+        ProfileDiff diff = ProfileDiffSupport.diffProfile(source, target);
+        Assert.assertTrue(diff.isParentsModified());
+        Assert.assertFalse(diff.isAttributesModified());
+        Assert.assertEquals(Collections.singleton("pidD"), diff.getAddedItems());
+        Assert.assertEquals(Collections.singleton("pidC"), diff.getRemovedItems());
+        Assert.assertEquals(Collections.singleton("pidB"), diff.getModifiedItems());
+    }
+
+    @Test
+    public void testChangedResourceContent() {
+        ResourceBuilder builder = new DefaultResourceBuilder();
+        builder.addIdentityCapability(ResourceIdentity.fromString("res.a:1.0.0"));
+        Resource resource = builder.getResource();
+        String itemId = resource.getIdentity().getCanonicalForm();
+
+        // The same capabilities in both profiles, only the content in the profile tree may differ
+        Profile source = new DefaultProfileBuilder("prfA").addResourceItem(resource).getProfile();
+        Profile target = new DefaultProfileBuilder("prfA").addResourceItem(resource).getProfile();
+
+        Assert.assertTrue(ProfileDiffSupport.diffProfile(source, target, Collections.<String>emptySet()).isEmpty());
+        Assert.assertTrue(ProfileDiffSupport.diffProfile(source, target, Collections.singleton("res.b/1.0.0/content0.sha256")).isEmpty());
+
+        ProfileDiff diff = ProfileDiffSupport.diffProfile(source, target, Collections.singleton("res.a/1.0.0/content0.sha256"));
+        Assert.assertEquals(Collections.singleton(itemId), diff.getModifiedItems());
+        Assert.assertTrue(diff.getAddedItems().isEmpty());
+        Assert.assertTrue(diff.getRemovedItems().isEmpty());
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * #%L
+ * Fabric8 :: Core
+ * %%
+ * Copyright (C) 2014 Red Hat
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.fabric8.core;
+
+import static io.fabric8.api.Constants.DEFAULT_PROFILE_VERSION;
+import io.fabric8.api.LinkedProfileVersion;
+import io.fabric8.api.LockHandle;
+import io.fabric8.api.Profile;
+import io.fabric8.api.ProfileIdentity;
+import io.fabric8.api.ProfileVersionDiff;
+import io.fabric8.api.VersionIdentity;
+import io.fabric8.spi.DefaultProfileBuilder;
+import io.fabric8.spi.DefaultProfileVersionBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.jboss.gravia.utils.IOUtils;
+import org.junit.Test;
+
+/**
+ * Test the {@link ProfileRegistry} with an in-memory repository
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 20-Jul-2014
+ */
+public class ProfileRegistryTest {
+
+    TestRuntimeService runtime;
+    ProfileRegistry registry;
+    ExecutorService executor;
+
+    @Before
+    public void setUp() throws Exception {
+        runtime = new TestRuntimeService();
+        runtime.addProperty(ProfileRegistry.PROPERTY_REPOSITORY_MODE, "memory");
+        registry = new ProfileRegistry();
+        registry.bindRuntimeService(runtime);
+        registry.activate();
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+        registry.deactivate();
+        runtime.cleanup();
+    }
+
+    @Test
+    public void testWriterDoesNotBlockOtherVersion() throws Exception {
+        final VersionIdentity version = VersionIdentity.createFrom("1.1");
+        registry.forkProfileVersion(DEFAULT_PROFILE_VERSION, version);
+
+        LockHandle writeLock = registry.aquireWriteLock(version);
+        Future<LinkedProfileVersion> blocked;
+        try {
+            // A reader of another version is not blocked by the writer
+            Future<LinkedProfileVersion> other = executor.submit(new Callable<LinkedProfileVersion>() {
+                @Override
+                public LinkedProfileVersion call() throws Exception {
+                    return registry.getProfileVersion(DEFAULT_PROFILE_VERSION);
+                }
+            });
+            Assert.assertNotNull(other.get(2, TimeUnit.SECONDS));
+
+            // A reader of the same version waits for the writer
+            blocked = executor.submit(new Callable<LinkedProfileVersion>() {
+                @Override
+                public LinkedProfileVersion call() throws Exception {
+                    return registry.getProfileVersion(version);
+                }
+            });
+            try {
+                blocked.get(200, TimeUnit.MILLISECONDS);
+                Assert.fail("TimeoutException expected");
+            } catch (TimeoutException ex) {
+                // expected
+            }
+        } finally {
+            writeLock.unlock();
+        }
+        Assert.assertEquals(version, blocked.get(2, TimeUnit.SECONDS).getIdentity());
+    }
+
+    @Test
+    public void testRemovedVersionReleasesLock() throws Exception {
+        int lockCount = registry.getVersionLockCount();
+        VersionIdentity version = VersionIdentity.createFrom("1.2");
+        registry.forkProfileVersion(DEFAULT_PROFILE_VERSION, version);
+        Assert.assertEquals(lockCount + 1, registry.getVersionLockCount());
+
+        registry.removeProfileVersion(version);
+        Assert.assertEquals(lockCount, registry.getVersionLockCount());
+        Assert.assertNull(registry.getProfileVersion(version));
+
+        // The version can be added again with a new lock
+        registry.forkProfileVersion(DEFAULT_PROFILE_VERSION, version);
+        Assert.assertNotNull(registry.getProfileVersion(version));
+    }
+
+    @Test
+    public void testDiffProfileVersions() throws Exception {
+        VersionIdentity source = VersionIdentity.createFrom("2.1");
+        VersionIdentity target = VersionIdentity.createFrom("2.2");
+
+        Profile prfA = new DefaultProfileBuilder("prfA")
+            .addConfigurationItem("pidA", Collections.singletonMap("key", (Object) "valA"))
+            .getProfile();
+        Profile prfB = new DefaultProfileBuilder("prfB").getProfile();
+        Profile prfC = new DefaultProfileBuilder("prfC").getProfile();
+        registry.addProfileVersion(new DefaultProfileVersionBuilder(source)
+            .addProfile(prfA)
+            .addProfile(prfB)
+            .addProfile(prfC)
+            .getProfileVersion());
+
+        registry.forkProfileVersion(source, target);
+        Assert.assertTrue(registry.diffProfileVersions(source, target).isEmpty());
+
+        Profile changedA = new DefaultProfileBuilder("prfA")
+            .addConfigurationItem("pidA", Collections.singletonMap("key", (Object) "changed"))
+            .getProfile();
+        Profile prfD = new DefaultProfileBuilder("prfD").getProfile();
+        registry.updateProfiles(target, new HashSet<>(Arrays.asList(changedA, prfD)), Collections.singleton(prfC.getIdentity()));
+
+        ProfileVersionDiff diff = registry.diffProfileVersions(source, target);
+        Assert.assertEquals(Collections.singleton(prfD.getIdentity()), diff.getAddedProfiles());
+        Assert.assertEquals(Collections.singleton(prfC.getIdentity()), diff.getRemovedProfiles());
+        Assert.assertEquals(Collections.singleton(prfA.getIdentity()), diff.getModifiedProfiles());
+        Assert.assertEquals(Collections.singleton("pidA"), diff.getProfileDiff(ProfileIdentity.createFrom("prfA")).getModifiedItems());
+    }
+
+    @Test
+    public void testMemoryModeDoesNotWriteDataPath() throws Exception {
+        VersionIdentity version = VersionIdentity.createFrom("3.1");
+        registry.addProfileVersion(new DefaultProfileVersionBuilder(version)
+            .addProfile(new DefaultProfileBuilder("prfA").getProfile())
+            .getProfileVersion());
+        registry.forkProfileVersion(version, VersionIdentity.createFrom("3.2"));
+        Assert.assertNotNull(registry.getProfileVersion(version));
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(runtime.getDataPath())) {
+            Assert.assertFalse("Unexpected data: " + runtime.getDataPath(), stream.iterator().hasNext());
+        }
+    }
+
+    @Test
+    public void testMemoryBlobStore() throws Exception {
+        Path seedPath = runtime.getDataPath().resolve("seed-blobs");
+        BlobStore seedStore = new BlobStore(seedPath);
+        String seeded = seedStore.putContent(new ByteArrayInputStream("seeded".getBytes(StandardCharsets.UTF_8)));
+
+        BlobStore blobStore = BlobStore.inMemory(seedPath);
+        String stored = blobStore.putContent(new ByteArrayInputStream("stored".getBytes(StandardCharsets.UTF_8)));
+        Assert.assertEquals(stored, blobStore.putContent(new ByteArrayInputStream("stored".getBytes(StandardCharsets.UTF_8))));
+        Assert.assertEquals("stored", readContent(blobStore, stored));
+        Assert.assertEquals("seeded", readContent(blobStore, seeded));
+
+        // Nothing but the seed store was written
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(runtime.getDataPath())) {
+            for (Path path : stream) {
+                Assert.assertEquals(seedPath, path);
+            }
+        }
+    }
+
+    private String readContent(BlobStore blobStore, String hash) throws Exception {
+        InputStream input = blobStore.getRequiredBlobURL(hash).openStream();
+        try {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            IOUtils.copyStream(input, output);
+            return new String(output.toByteArray(), StandardCharsets.UTF_8);
+        } finally {
+            IOUtils.safeClose(input);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * #%L
+ * Fabric8 :: Core
+ * %%
+ * Copyright (C) 2014 Red Hat
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.fabric8.core;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.gravia.provision.ProvisionResult;
+import org.jboss.gravia.provision.Provisioner;
+import org.jboss.gravia.resolver.DefaultEnvironment;
+import org.jboss.gravia.resolver.Environment;
+import org.jboss.gravia.resource.DefaultRequirementBuilder;
+import org.jboss.gravia.resource.DefaultResourceBuilder;
+import org.jboss.gravia.resource.IdentityNamespace;
+import org.jboss.gravia.resource.Requirement;
+import org.jboss.gravia.resource.ResourceBuilder;
+import org.jboss.gravia.resource.ResourceIdentity;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test the {@link ResolutionCache}
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 20-Jul-2014
+ */
+public class ResolutionCacheTest {
+
+    final AtomicInteger resolveCount = new AtomicInteger();
+
+    @Test
+    public void testCachedUntilExpiry() throws Exception {
+        ResolutionCache cache = new ResolutionCache(200);
+        Provisioner provisioner = createProvisioner(Collections.<Requirement>emptySet());
+        Environment env = new DefaultEnvironment("test");
+        Set<Requirement> reqs = Collections.singleton(createRequirement("res.a"));
+
+        ProvisionResult result = cache.findResources(provisioner, env, reqs);
+        Assert.assertSame(result, cache.findResources(provisioner, env, reqs));
+        Assert.assertEquals(1, resolveCount.get());
+
+        // Another resource in the environment gives another fingerprint
+        ResourceBuilder builder = new DefaultResourceBuilder();
+        builder.addIdentityCapability(ResourceIdentity.fromString("res.b:1.0.0"));
+        Environment other = new DefaultEnvironment("other");
+        other.addResource(builder.getResource());
+        Assert.assertNotSame(result, cache.findResources(provisioner, other, reqs));
+        Assert.assertEquals(2, resolveCount.get());
+
+        // The result expires
+        Thread.sleep(300);
+        Assert.assertNotSame(result, cache.findResources(provisioner, env, reqs));
+        Assert.assertEquals(3, resolveCount.get());
+
+        Map<String, Long> statistics = new HashMap<>();
+        cache.collectStatistics(statistics);
+        Assert.assertEquals(Long.valueOf(1), statistics.get("ResolutionCache.hits"));
+        Assert.assertEquals(Long.valueOf(3), statistics.get("ResolutionCache.misses"));
+    }
+
+    @Test
+    public void testUnsatisfiedNotCached() throws Exception {
+        ResolutionCache cache = new ResolutionCache(60000);
+        Requirement req = createRequirement("res.a");
+        Set<Requirement> reqs = Collections.singleton(req);
+        Provisioner provisioner = createProvisioner(reqs);
+        Environment env = new DefaultEnvironment("test");
+
+        ProvisionResult result = cache.findResources(provisioner, env, reqs);
+        Assert.assertEquals(reqs, result.getUnsatisfiedRequirements());
+        Assert.assertNotSame(result, cache.findResources(provisioner, env, reqs));
+        Assert.assertEquals(2, resolveCount.get());
+
+        Map<String, Long> statistics = new HashMap<>();
+        cache.collectStatistics(statistics);
+        Assert.assertEquals(Long.valueOf(0), statistics.get("ResolutionCache.size"));
+    }
+
+    @Test
+    public void testResourceContentInFingerprint() throws Exception {
+        ResolutionCache cache = new ResolutionCache(60000);
+        Provisioner provisioner = createProvisioner(Collections.<Requirement>emptySet());
+        Set<Requirement> reqs = Collections.singleton(createRequirement("res.a"));
+
+        // The same resource identity with another content URL gives another fingerprint
+        Environment envA = createEnvironment("res.b", "file:/content/a");
+        ProvisionResult result = cache.findResources(provisioner, envA, reqs);
+        Assert.assertSame(result, cache.findResources(provisioner, createEnvironment("res.b", "file:/content/a"), reqs));
+        Assert.assertNotSame(result, cache.findResources(provisioner, createEnvironment("res.b", "file:/content/b"), reqs));
+        Assert.assertEquals(2, resolveCount.get());
+
+        // Invalidation drops all results
+        cache.invalidate();
+        Assert.assertNotSame(result, cache.findResources(provisioner, envA, reqs));
+        Assert.assertEquals(3, resolveCount.get());
+    }
+
+    private Environment createEnvironment(String symbolicName, String contentURL) {
+        ResourceBuilder builder = new DefaultResourceBuilder();
+        builder.addIdentityCapability(ResourceIdentity.fromString(symbolicName + ":1.0.0"));
+        builder.addCapability("test.content", Collections.singletonMap("url", (Object) contentURL), Collections.<String, String>emptyMap());
+        Environment env = new DefaultEnvironment("test");
+        env.addResource(builder.getResource());
+        return env;
+    }
+
+    private Requirement createRequirement(String symbolicName) {
+        return new DefaultRequirementBuilder(IdentityNamespace.IDENTITY_NAMESPACE, symbolicName).getRequirement();
+    }
+
+    // A provisioner that counts the resolve calls and returns a new result with the given unsatisfied requirements
+    private Provisioner createProvisioner(final Set<Requirement> unsatisfied) {
+        return (Provisioner) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Provisioner.class }, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (!"findResources".equals(method.getName())) {
+                    throw new UnsupportedOperationException(method.getName());
+                }
+                resolveCount.incrementAndGet();
+                return createResult(unsatisfied);
+            }
+        });
+    }
+
+    private ProvisionResult createResult(final Set<Requirement> unsatisfied) {
+        return (ProvisionResult) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { ProvisionResult.class }, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                String name = method.getName();
+                if ("getUnsatisfiedRequirements".equals(name)) {
+                    return unsatisfied;
+                } else if ("hashCode".equals(name)) {
+                    return System.identityHashCode(proxy);
+                } else if ("equals".equals(name)) {
+                    return proxy == args[0];
+                } else if ("toString".equals(name)) {
+                    return "ProvisionResult" + unsatisfied;
+                }
+                throw new UnsupportedOperationException(name);
+            }
+        });
+    }
+}
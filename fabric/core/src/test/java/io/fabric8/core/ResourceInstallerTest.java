@@ -0,0 +1,180 @@
+/*
+ * #%L
+ * Fabric8 :: Core
+ * %%
+ * Copyright (C) 2014 Red Hat
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.fabric8.core;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.jboss.gravia.provision.ProvisionException;
+import org.jboss.gravia.provision.Provisioner;
+import org.jboss.gravia.provision.ResourceHandle;
+import org.jboss.gravia.resource.DefaultResourceBuilder;
+import org.jboss.gravia.resource.Resource;
+import org.jboss.gravia.resource.ResourceBuilder;
+import org.jboss.gravia.resource.ResourceIdentity;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test the {@link ResourceInstaller}
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 20-Jul-2014
+ */
+public class ResourceInstallerTest {
+
+    final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+    ResourceInstaller installer;
+
+    @After
+    public void tearDown() {
+        installer.shutdown();
+    }
+
+    @Test
+    public void testDependencyOrder() throws Exception {
+        Resource resA = createResource("res.a", null);
+        Resource resB = createResource("res.b", "res.a");
+        installer = new ResourceInstaller(createProvisioner(null), 4);
+
+        // The dependent comes first in the given order, but waits for its provider
+        Map<ResourceIdentity, ResourceHandle> installed = new HashMap<>();
+        installer.installResources(Arrays.asList(resB, resA), installed);
+        Assert.assertEquals(Arrays.asList("install:res.a", "install:res.b"), events);
+        Assert.assertEquals(2, installed.size());
+
+        // The dependent is uninstalled before its provider
+        events.clear();
+        List<ResourceIdentity> uninstalled = new ArrayList<>();
+        installer.uninstallResources(Arrays.asList(installed.get(resA.getIdentity()), installed.get(resB.getIdentity())), uninstalled);
+        Assert.assertEquals(Arrays.asList("uninstall:res.b", "uninstall:res.a"), events);
+        Assert.assertEquals(Arrays.asList(resB.getIdentity(), resA.getIdentity()), uninstalled);
+    }
+
+    @Test
+    public void testNothingStartsAfterFailure() throws Exception {
+        Resource resA = createResource("res.a", null);
+        Resource resB = createResource("res.b", "res.a");
+        Resource resC = createResource("res.c", "res.b");
+        installer = new ResourceInstaller(createProvisioner("res.b"), 4);
+
+        Map<ResourceIdentity, ResourceHandle> installed = new HashMap<>();
+        try {
+            installer.installResources(Arrays.asList(resC, resB, resA), installed);
+            Assert.fail("IllegalStateException expected");
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+        Assert.assertEquals(Arrays.asList("install:res.a", "install:res.b"), events);
+        Assert.assertEquals(Collections.singleton(resA.getIdentity()), installed.keySet());
+    }
+
+    @Test
+    public void testInterruptRecordsRunning() throws Exception {
+        final Resource resA = createResource("res.a", null);
+        final Resource resB = createResource("res.b", null);
+        installer = new ResourceInstaller(createProvisioner(null), 4);
+
+        final Map<ResourceIdentity, ResourceHandle> installed = new ConcurrentHashMap<>();
+        final AtomicReference<Exception> failure = new AtomicReference<>();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    installer.installResources(Arrays.asList(resA, resB), installed);
+                } catch (Exception ex) {
+                    failure.set(ex);
+                }
+            }
+        });
+        thread.start();
+
+        // Interrupt while both installs are in flight
+        Thread.sleep(20);
+        thread.interrupt();
+        thread.join(2000);
+
+        Assert.assertTrue("ProvisionException expected", failure.get() instanceof ProvisionException);
+        Assert.assertEquals(new HashSet<>(Arrays.asList(resA.getIdentity(), resB.getIdentity())), installed.keySet());
+    }
+
+    private Resource createResource(String symbolicName, String requirement) {
+        ResourceBuilder builder = new DefaultResourceBuilder();
+        builder.addIdentityCapability(ResourceIdentity.fromString(symbolicName + ":1.0.0"));
+        if (requirement != null) {
+            builder.addIdentityRequirement(requirement);
+        }
+        return builder.getResource();
+    }
+
+    // A provisioner that records the install events and fails for the given resource
+    private Provisioner createProvisioner(final String failing) {
+        return (Provisioner) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Provisioner.class }, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (!"installResource".equals(method.getName())) {
+                    throw new UnsupportedOperationException(method.getName());
+                }
+                Resource res = (Resource) args[0];
+                String name = res.getIdentity().getSymbolicName();
+                // Give a concurrent install of a dependent the chance to overtake
+                Thread.sleep(50);
+                events.add("install:" + name);
+                if (name.equals(failing)) {
+                    throw new IllegalStateException("Cannot install: " + name);
+                }
+                return createHandle(res);
+            }
+        });
+    }
+
+    private ResourceHandle createHandle(final Resource res) {
+        return (ResourceHandle) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { ResourceHandle.class }, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                String name = method.getName();
+                if ("getResource".equals(name)) {
+                    return res;
+                } else if ("uninstall".equals(name)) {
+                    events.add("uninstall:" + res.getIdentity().getSymbolicName());
+                    return null;
+                } else if ("hashCode".equals(name)) {
+                    return System.identityHashCode(proxy);
+                } else if ("equals".equals(name)) {
+                    return proxy == args[0];
+                } else if ("toString".equals(name)) {
+                    return "Handle[" + res.getIdentity() + "]";
+                }
+                throw new UnsupportedOperationException(name);
+            }
+        });
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * #%L
+ * Fabric8 :: Core
+ * %%
+ * Copyright (C) 2014 Red Hat
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.fabric8.core;
+
+import io.fabric8.spi.RuntimeService;
+import io.fabric8.spi.utils.FileUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A {@link RuntimeService} for components that are tested outside of a runtime
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 20-Jul-2014
+ */
+final class TestRuntimeService implements RuntimeService {
+
+    private final Path dataPath;
+    private final Map<String, String> properties = new HashMap<>();
+
+    TestRuntimeService() throws IOException {
+        dataPath = Files.createTempDirectory("fabric8-core");
+    }
+
+    TestRuntimeService addProperty(String key, String value) {
+        properties.put(key, value);
+        return this;
+    }
+
+    /**
+     * Delete the data directory of this runtime
+     */
+    void cleanup() throws IOException {
+        FileUtils.deleteRecursively(dataPath);
+    }
+
+    @Override
+    public String getRuntimeIdentity() {
+        return "test";
+    }
+
+    @Override
+    public Path getHomePath() {
+        return dataPath.getParent();
+    }
+
+    @Override
+    public Path getConfPath() {
+        return dataPath.resolve("conf");
+    }
+
+    @Override
+    public Path getDataPath() {
+        return dataPath;
+    }
+
+    @Override
+    public String getProperty(String key) {
+        return properties.get(key);
+    }
+
+    @Override
+    public String getProperty(String key, String defaultValue) {
+        String value = properties.get(key);
+        return value != null ? value : defaultValue;
+    }
+}
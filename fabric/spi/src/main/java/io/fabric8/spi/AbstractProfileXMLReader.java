@@ -19,6 +19,7 @@
  */
 package io.fabric8.spi;
 
+import static javax.xml.stream.XMLStreamConstants.END_ELEMENT;
 import static javax.xml.stream.XMLStreamConstants.START_DOCUMENT;
 import static javax.xml.stream.XMLStreamConstants.START_ELEMENT;
 import static org.jboss.gravia.repository.spi.AbstractRepositoryXMLReader.assertEndElement;
@@ -107,6 +108,26 @@ public abstract class AbstractProfileXMLReader implements ProfileReader {
         return null;
     }
 
+    @Override
+    public ProfileIdentity skipProfile() {
+        try {
+            while (reader.hasNext() && reader.nextTag() == START_ELEMENT) {
+                Element element = Element.forName(reader.getLocalName());
+                switch (element) {
+                    case PROFILE:
+                        ProfileIdentity identity = ProfileIdentity.createFrom(reader.getAttributeValue(null, Attribute.NAME.toString()));
+                        skipElement(reader);
+                        return identity;
+                    default:
+                        throw new IllegalArgumentException("Unsupported element: " + reader.getLocalName());
+                }
+            }
+        } catch (XMLStreamException ex) {
+            throw new IllegalStateException("Cannot skip profile element: " + reader.getLocation(), ex);
+        }
+        return null;
+    }
+
     @Override
     public void close() {
         try {
@@ -116,6 +137,18 @@ public abstract class AbstractProfileXMLReader implements ProfileReader {
         }
     }
 
+    private void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0 && reader.hasNext()) {
+            int event = reader.next();
+            if (event == START_ELEMENT) {
+                depth++;
+            } else if (event == END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
     private Profile readProfileElement(XMLStreamReader reader) throws XMLStreamException {
         ProfileIdentity identity = ProfileIdentity.createFrom(reader.getAttributeValue(null, Attribute.NAME.toString()));
         ProfileBuilder builder = new DefaultProfileBuilder(identity).profileVersion(getProfileVersion());
@@ -28,6 +28,7 @@ import io.fabric8.api.ProfileIdentity;
 import io.fabric8.api.ProfileItem;
 import io.fabric8.api.RequirementItem;
 import io.fabric8.api.ResourceItem;
+import io.fabric8.api.VersionIdentity;
 import io.fabric8.spi.ProfilesNamespace100.Attribute;
 import io.fabric8.spi.ProfilesNamespace100.Element;
 
@@ -75,11 +76,7 @@ public abstract class AbstractProfileXMLWriter implements ProfileWriter {
     @Override
     public void writeProfileVersion(LinkedProfileVersion linkedVersion) throws IOException {
         try {
-            writer.writeStartDocument();
-            writer.setDefaultNamespace(ProfilesNamespace100.PROFILES_NAMESPACE);
-            writer.writeStartElement(Element.PROFILES.getLocalName());
-            writer.writeDefaultNamespace(ProfilesNamespace100.PROFILES_NAMESPACE);
-            writer.writeAttribute(Attribute.VERSION.getLocalName(), linkedVersion.getIdentity().toString());
+            writeProfilesElement(linkedVersion.getIdentity());
             Set<ProfileIdentity> processed = new HashSet<>();
             for (ProfileIdentity profileId : linkedVersion.getProfileIdentities()) {
                 Profile profile = linkedVersion.getLinkedProfile(profileId);
@@ -91,6 +88,26 @@ public abstract class AbstractProfileXMLWriter implements ProfileWriter {
         }
     }
 
+    @Override
+    public void writeProfile(Profile profile) throws IOException {
+        IllegalArgumentAssertion.assertNotNull(profile, "profile");
+        IllegalArgumentAssertion.assertNotNull(profile.getVersion(), "version");
+        try {
+            writeProfilesElement(profile.getVersion());
+            writeProfileElement(profile);
+        } catch (XMLStreamException ex) {
+            throw new IOException("Cannot write profile element", ex);
+        }
+    }
+
+    private void writeProfilesElement(VersionIdentity version) throws XMLStreamException {
+        writer.writeStartDocument();
+        writer.setDefaultNamespace(ProfilesNamespace100.PROFILES_NAMESPACE);
+        writer.writeStartElement(Element.PROFILES.getLocalName());
+        writer.writeDefaultNamespace(ProfilesNamespace100.PROFILES_NAMESPACE);
+        writer.writeAttribute(Attribute.VERSION.getLocalName(), version.toString());
+    }
+
     private void writeProfile(LinkedProfileVersion linkedVersion, Profile profile, Set<ProfileIdentity> processed) throws IOException {
         IllegalArgumentAssertion.assertNotNull(linkedVersion, "linkedVersion");
         IllegalArgumentAssertion.assertNotNull(profile, "profile");
@@ -102,12 +119,7 @@ public abstract class AbstractProfileXMLWriter implements ProfileWriter {
                 writeProfile(linkedVersion, parentProfile, processed);
             }
             try {
-                writer.writeStartElement(Element.PROFILE.getLocalName());
-                writer.writeAttribute(Attribute.NAME.getLocalName(), profile.getIdentity().getSymbolicName());
-                writeProfileAttributes(profile.getAttributes());
-                writeProfileParents(profile.getParents());
-                writeProfileItems(profile, profile.getProfileItems(null));
-                writer.writeEndElement();
+                writeProfileElement(profile);
             } catch (XMLStreamException ex) {
                 throw new IllegalStateException("Cannot initialize repository writer", ex);
             }
@@ -115,6 +127,15 @@ public abstract class AbstractProfileXMLWriter implements ProfileWriter {
         }
     }
 
+    private void writeProfileElement(Profile profile) throws XMLStreamException, IOException {
+        writer.writeStartElement(Element.PROFILE.getLocalName());
+        writer.writeAttribute(Attribute.NAME.getLocalName(), profile.getIdentity().getSymbolicName());
+        writeProfileAttributes(profile.getAttributes());
+        writeProfileParents(profile.getParents());
+        writeProfileItems(profile, profile.getProfileItems(null));
+        writer.writeEndElement();
+    }
+
     @Override
     public void close() throws IOException {
         try {
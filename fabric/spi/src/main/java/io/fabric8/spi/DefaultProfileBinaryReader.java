@@ -0,0 +1,296 @@
+/*
+ * #%L
+ * Gravia :: Repository
+ * %%
+ * Copyright (C) 2012 - 2014 JBoss by Red Hat
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.fabric8.spi;
+
+import static io.fabric8.spi.ProfilesBinaryFormat.BOOLEAN_VALUE;
+import static io.fabric8.spi.ProfilesBinaryFormat.CONFIGURATION_ITEM;
+import static io.fabric8.spi.ProfilesBinaryFormat.DOUBLE_VALUE;
+import static io.fabric8.spi.ProfilesBinaryFormat.END_OF_PROFILES;
+import static io.fabric8.spi.ProfilesBinaryFormat.INTEGER_VALUE;
+import static io.fabric8.spi.ProfilesBinaryFormat.LIST_VALUE;
+import static io.fabric8.spi.ProfilesBinaryFormat.LONG_VALUE;
+import static io.fabric8.spi.ProfilesBinaryFormat.PROFILE_RECORD;
+import static io.fabric8.spi.ProfilesBinaryFormat.REQUIREMENT_ITEM;
+import static io.fabric8.spi.ProfilesBinaryFormat.RESOURCE_ITEM;
+import static io.fabric8.spi.ProfilesBinaryFormat.STRING_VALUE;
+import static io.fabric8.spi.ProfilesBinaryFormat.VERSION_VALUE;
+import io.fabric8.api.AttributeKey;
+import io.fabric8.api.Profile;
+import io.fabric8.api.ProfileBuilder;
+import io.fabric8.api.ProfileIdentity;
+import io.fabric8.api.VersionIdentity;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jboss.gravia.resource.DefaultRequirementBuilder;
+import org.jboss.gravia.resource.DefaultResourceBuilder;
+import org.jboss.gravia.resource.Requirement;
+import org.jboss.gravia.resource.RequirementBuilder;
+import org.jboss.gravia.resource.ResourceBuilder;
+import org.jboss.gravia.resource.Version;
+import org.jboss.gravia.utils.IOUtils;
+import org.jboss.gravia.utils.IllegalArgumentAssertion;
+import org.jboss.gravia.utils.IllegalStateAssertion;
+
+/**
+ * Read profile content in the binary format.
+ *
+ * Attribute keys are parsed once per reader and typed values are read without conversion.
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 05-Jul-2014
+ * @see ProfilesBinaryFormat
+ */
+public class DefaultProfileBinaryReader implements ProfileReader {
+
+    private final DataInputStream input;
+    private final VersionIdentity profileVersion;
+    private final Map<String, AttributeKey<Object>> attributeKeys = new HashMap<>();
+
+    public DefaultProfileBinaryReader(InputStream inputStream) {
+        IllegalArgumentAssertion.assertNotNull(inputStream, "inputStream");
+        input = new DataInputStream(inputStream);
+        try {
+            int magic = input.readInt();
+            IllegalStateAssertion.assertEquals(ProfilesBinaryFormat.MAGIC, magic, "Not a binary profile document");
+            short format = input.readShort();
+            IllegalStateAssertion.assertTrue(format <= ProfilesBinaryFormat.FORMAT_VERSION, "Unsupported binary profile format: " + format);
+            profileVersion = VersionIdentity.createFrom(readRawString(input));
+        } catch (IOException ex) {
+            throw new IllegalStateException("Cannot read binary profile header", ex);
+        }
+    }
+
+    @Override
+    public VersionIdentity getProfileVersion() {
+        return profileVersion;
+    }
+
+    @Override
+    public Profile nextProfile() {
+        try {
+            if (input.readByte() == END_OF_PROFILES)
+                return null;
+            ProfileIdentity identity = ProfileIdentity.createFrom(readRawString(input));
+            byte[] body = new byte[input.readInt()];
+            input.readFully(body);
+            return new RecordReader(new DataInputStream(new ByteArrayInputStream(body))).readProfile(identity);
+        } catch (IOException ex) {
+            throw new IllegalStateException("Cannot read profile record", ex);
+        }
+    }
+
+    @Override
+    public ProfileIdentity skipProfile() {
+        try {
+            if (input.readByte() == END_OF_PROFILES)
+                return null;
+            ProfileIdentity identity = ProfileIdentity.createFrom(readRawString(input));
+            int length = input.readInt();
+            int skipped = 0;
+            while (skipped < length) {
+                int count = input.skipBytes(length - skipped);
+                if (count <= 0) {
+                    input.readByte();
+                    count = 1;
+                }
+                skipped += count;
+            }
+            return identity;
+        } catch (IOException ex) {
+            throw new IllegalStateException("Cannot skip profile record", ex);
+        }
+    }
+
+    @Override
+    public void close() {
+        IOUtils.safeClose(input);
+    }
+
+    private AttributeKey<Object> getAttributeKey(String canonical) {
+        AttributeKey<Object> key = attributeKeys.get(canonical);
+        if (key == null) {
+            key = AttributeKey.createFrom(canonical);
+            attributeKeys.put(canonical, key);
+        }
+        return key;
+    }
+
+    private static String readRawString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads a single profile record with its own string table
+     */
+    private class RecordReader {
+
+        private final DataInputStream in;
+        private final List<String> strings = new ArrayList<>();
+
+        RecordReader(DataInputStream in) {
+            this.in = in;
+        }
+
+        Profile readProfile(ProfileIdentity identity) throws IOException {
+            ProfileBuilder builder = new DefaultProfileBuilder(identity).profileVersion(profileVersion);
+            int attcount = in.readInt();
+            for (int i = 0; i < attcount; i++) {
+                AttributeKey<Object> key = getAttributeKey(readString());
+                Object value = readProfileAttributeValue();
+                if (!key.getType().isInstance(value)) {
+                    value = key.getFactory().createFrom(value);
+                }
+                builder.addAttribute(key, value);
+            }
+            int parentcount = in.readInt();
+            for (int i = 0; i < parentcount; i++) {
+                builder.addParentProfile(ProfileIdentity.createFrom(readString()));
+            }
+            int itemcount = in.readInt();
+            for (int i = 0; i < itemcount; i++) {
+                byte type = in.readByte();
+                String itemId = readString();
+                switch (type) {
+                    case CONFIGURATION_ITEM:
+                        DefaultConfigurationItemBuilder confBuilder = new DefaultConfigurationItemBuilder(itemId);
+                        int confcount = in.readInt();
+                        for (int j = 0; j < confcount; j++) {
+                            String mergeId = readString();
+                            Map<String, Object> atts = readAttributes();
+                            Map<String, String> dirs = readDirectives();
+                            confBuilder.addConfiguration(mergeId, atts, dirs);
+                        }
+                        builder.addProfileItem(confBuilder.getConfigurationItem());
+                        break;
+                    case RESOURCE_ITEM:
+                        ResourceBuilder resBuilder = new DefaultResourceBuilder();
+                        int capcount = in.readInt();
+                        for (int j = 0; j < capcount; j++) {
+                            String namespace = readString();
+                            resBuilder.addCapability(namespace, readAttributes(), readDirectives());
+                        }
+                        int reqcount = in.readInt();
+                        for (int j = 0; j < reqcount; j++) {
+                            String namespace = readString();
+                            resBuilder.addRequirement(namespace, readAttributes(), readDirectives());
+                        }
+                        builder.addProfileItem(new DefaultResourceItem(itemId, resBuilder.getResource()));
+                        break;
+                    case REQUIREMENT_ITEM:
+                        String namespace = readString();
+                        Map<String, Object> atts = readAttributes();
+                        Map<String, String> dirs = readDirectives();
+                        RequirementBuilder reqBuilder = new DefaultRequirementBuilder(namespace, (String) atts.get(namespace));
+                        reqBuilder.getAttributes().putAll(atts);
+                        reqBuilder.getDirectives().putAll(dirs);
+                        Requirement requirement = reqBuilder.getRequirement();
+                        builder.addProfileItem(new DefaultRequirementItem(itemId, requirement));
+                        break;
+                    default:
+                        throw new IllegalStateException("Unsupported profile item type: " + type);
+                }
+            }
+            return builder.getProfile();
+        }
+
+        private Object readProfileAttributeValue() throws IOException {
+            byte type = in.readByte();
+            switch (type) {
+                case INTEGER_VALUE:
+                    return in.readInt();
+                case LONG_VALUE:
+                    return in.readLong();
+                case BOOLEAN_VALUE:
+                    return in.readBoolean();
+                case DOUBLE_VALUE:
+                    return in.readDouble();
+                case STRING_VALUE:
+                    return readString();
+                default:
+                    throw new IllegalStateException("Unsupported attribute value type: " + type);
+            }
+        }
+
+        private Map<String, Object> readAttributes() throws IOException {
+            int count = in.readInt();
+            Map<String, Object> result = new LinkedHashMap<>();
+            for (int i = 0; i < count; i++) {
+                String key = readString();
+                result.put(key, readAttributeValue());
+            }
+            return result;
+        }
+
+        private Object readAttributeValue() throws IOException {
+            byte type = in.readByte();
+            switch (type) {
+                case LIST_VALUE:
+                    int count = in.readInt();
+                    List<Object> list = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        list.add(readAttributeValue());
+                    }
+                    return list;
+                case LONG_VALUE:
+                    return in.readLong();
+                case DOUBLE_VALUE:
+                    return in.readDouble();
+                case VERSION_VALUE:
+                    return Version.parseVersion(readString());
+                case STRING_VALUE:
+                    return readString();
+                default:
+                    throw new IllegalStateException("Unsupported attribute value type: " + type);
+            }
+        }
+
+        private Map<String, String> readDirectives() throws IOException {
+            int count = in.readInt();
+            Map<String, String> result = new LinkedHashMap<>();
+            for (int i = 0; i < count; i++) {
+                String key = readString();
+                result.put(key, readString());
+            }
+            return result;
+        }
+
+        private String readString() throws IOException {
+            int index = in.readInt();
+            if (index >= 0) {
+                return strings.get(index);
+            }
+            String value = readRawString(in);
+            strings.add(value);
+            return value;
+        }
+    }
+}
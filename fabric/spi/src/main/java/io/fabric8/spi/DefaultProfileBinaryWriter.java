@@ -0,0 +1,311 @@
+/*
+ * #%L
+ * Gravia :: Repository
+ * %%
+ * Copyright (C) 2012 - 2014 JBoss by Red Hat
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.fabric8.spi;
+
+import static io.fabric8.spi.ProfilesBinaryFormat.BOOLEAN_VALUE;
+import static io.fabric8.spi.ProfilesBinaryFormat.CONFIGURATION_ITEM;
+import static io.fabric8.spi.ProfilesBinaryFormat.DOUBLE_VALUE;
+import static io.fabric8.spi.ProfilesBinaryFormat.END_OF_PROFILES;
+import static io.fabric8.spi.ProfilesBinaryFormat.INTEGER_VALUE;
+import static io.fabric8.spi.ProfilesBinaryFormat.LIST_VALUE;
+import static io.fabric8.spi.ProfilesBinaryFormat.LONG_VALUE;
+import static io.fabric8.spi.ProfilesBinaryFormat.PROFILE_RECORD;
+import static io.fabric8.spi.ProfilesBinaryFormat.REQUIREMENT_ITEM;
+import static io.fabric8.spi.ProfilesBinaryFormat.RESOURCE_ITEM;
+import static io.fabric8.spi.ProfilesBinaryFormat.STRING_VALUE;
+import static io.fabric8.spi.ProfilesBinaryFormat.VERSION_VALUE;
+import io.fabric8.api.AttributeKey;
+import io.fabric8.api.Configuration;
+import io.fabric8.api.ConfigurationItem;
+import io.fabric8.api.LinkedProfileVersion;
+import io.fabric8.api.Profile;
+import io.fabric8.api.ProfileIdentity;
+import io.fabric8.api.ProfileItem;
+import io.fabric8.api.RequirementItem;
+import io.fabric8.api.ResourceItem;
+import io.fabric8.api.VersionIdentity;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.jboss.gravia.repository.RepositoryWriter.ContentHandler;
+import org.jboss.gravia.resource.Capability;
+import org.jboss.gravia.resource.ContentCapability;
+import org.jboss.gravia.resource.ContentNamespace;
+import org.jboss.gravia.resource.Requirement;
+import org.jboss.gravia.resource.Resource;
+import org.jboss.gravia.resource.Version;
+import org.jboss.gravia.utils.IllegalArgumentAssertion;
+import org.jboss.gravia.utils.IllegalStateAssertion;
+
+/**
+ * Write profile content in the binary format.
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 05-Jul-2014
+ * @see ProfilesBinaryFormat
+ */
+public class DefaultProfileBinaryWriter implements ProfileWriter {
+
+    private final DataOutputStream output;
+    private final ContentHandler contentHandler;
+
+    public DefaultProfileBinaryWriter(OutputStream outputStream) {
+        this(outputStream, null);
+    }
+
+    public DefaultProfileBinaryWriter(OutputStream outputStream, ContentHandler contentHandler) {
+        IllegalArgumentAssertion.assertNotNull(outputStream, "outputStream");
+        this.output = new DataOutputStream(outputStream);
+        this.contentHandler = contentHandler;
+    }
+
+    @Override
+    public void writeProfileVersion(LinkedProfileVersion linkedVersion) throws IOException {
+        IllegalArgumentAssertion.assertNotNull(linkedVersion, "linkedVersion");
+        writeHeader(linkedVersion.getIdentity());
+        Set<ProfileIdentity> processed = new HashSet<>();
+        for (ProfileIdentity profileId : linkedVersion.getProfileIdentities()) {
+            Profile profile = linkedVersion.getLinkedProfile(profileId);
+            writeProfile(linkedVersion, profile, processed);
+        }
+    }
+
+    @Override
+    public void writeProfile(Profile profile) throws IOException {
+        IllegalArgumentAssertion.assertNotNull(profile, "profile");
+        IllegalArgumentAssertion.assertNotNull(profile.getVersion(), "version");
+        writeHeader(profile.getVersion());
+        writeProfileRecord(profile);
+    }
+
+    /**
+     * Write the end marker and flush. The underlying stream is not closed.
+     */
+    @Override
+    public void close() throws IOException {
+        output.writeByte(END_OF_PROFILES);
+        output.flush();
+    }
+
+    private void writeHeader(VersionIdentity version) throws IOException {
+        output.writeInt(ProfilesBinaryFormat.MAGIC);
+        output.writeShort(ProfilesBinaryFormat.FORMAT_VERSION);
+        writeRawString(output, version.getCanonicalForm());
+    }
+
+    private void writeProfile(LinkedProfileVersion linkedVersion, Profile profile, Set<ProfileIdentity> processed) throws IOException {
+        ProfileIdentity identity = profile.getIdentity();
+        if (!processed.contains(identity)) {
+            for (ProfileIdentity parentId : profile.getParents()) {
+                Profile parentProfile = linkedVersion.getLinkedProfile(parentId);
+                writeProfile(linkedVersion, parentProfile, processed);
+            }
+            writeProfileRecord(profile);
+            processed.add(identity);
+        }
+    }
+
+    private void writeProfileRecord(Profile profile) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        new RecordWriter(new DataOutputStream(body)).writeProfile(profile);
+        output.writeByte(PROFILE_RECORD);
+        writeRawString(output, profile.getIdentity().getCanonicalForm());
+        output.writeInt(body.size());
+        body.writeTo(output);
+    }
+
+    private static void writeRawString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Writes a single profile record with its own string table
+     */
+    private class RecordWriter {
+
+        private final DataOutputStream out;
+        private final Map<String, Integer> strings = new HashMap<>();
+
+        RecordWriter(DataOutputStream out) {
+            this.out = out;
+        }
+
+        void writeProfile(Profile profile) throws IOException {
+            Map<AttributeKey<?>, Object> attributes = profile.getAttributes();
+            out.writeInt(attributes.size());
+            for (Entry<AttributeKey<?>, Object> entry : attributes.entrySet()) {
+                writeString(entry.getKey().getCanonicalForm());
+                writeProfileAttributeValue(entry.getValue());
+            }
+            List<ProfileIdentity> parents = profile.getParents();
+            out.writeInt(parents.size());
+            for (ProfileIdentity parentId : parents) {
+                writeString(parentId.getCanonicalForm());
+            }
+            List<ProfileItem> items = profile.getProfileItems(null);
+            out.writeInt(items.size());
+            for (ProfileItem item : items) {
+                writeProfileItem(profile, item);
+            }
+            out.flush();
+        }
+
+        private void writeProfileItem(Profile profile, ProfileItem item) throws IOException {
+            if (item instanceof ConfigurationItem) {
+                List<Configuration> configs = ((ConfigurationItem) item).getConfigurations(null);
+                out.writeByte(CONFIGURATION_ITEM);
+                writeString(item.getIdentity());
+                out.writeInt(configs.size());
+                for (Configuration config : configs) {
+                    writeString(config.getMergeId());
+                    writeAttributes(config.getAttributes());
+                    writeDirectives(config.getDirectives());
+                }
+            } else if (item instanceof ResourceItem) {
+                ResourceItem resItem = (ResourceItem) item;
+                out.writeByte(RESOURCE_ITEM);
+                writeString(item.getIdentity());
+                if (contentHandler != null) {
+                    contentHandler.addContextItem(Profile.class, profile);
+                    contentHandler.addContextItem(ResourceItem.class, resItem);
+                }
+                writeResource(resItem.getResource());
+            } else if (item instanceof RequirementItem) {
+                Requirement req = ((RequirementItem) item).getRequirement();
+                out.writeByte(REQUIREMENT_ITEM);
+                writeString(item.getIdentity());
+                writeString(req.getNamespace());
+                writeAttributes(req.getAttributes());
+                writeDirectives(req.getDirectives());
+            } else {
+                throw new IllegalArgumentException("Unsupported profile item: " + item);
+            }
+        }
+
+        private void writeResource(Resource resource) throws IOException {
+            List<Capability> caps = resource.getCapabilities(null);
+            out.writeInt(caps.size());
+            for (Capability cap : caps) {
+                Map<String, Object> atts = cap.getAttributes();
+                if (ContentNamespace.CONTENT_NAMESPACE.equals(cap.getNamespace())) {
+                    if (contentHandler != null) {
+                        atts = contentHandler.process(cap.adapt(ContentCapability.class));
+                    } else {
+                        IllegalStateAssertion.assertNull(atts.get(ContentNamespace.CAPABILITY_STREAM_ATTRIBUTE), "Cannot write content stream without content handler: " + cap);
+                    }
+                }
+                writeString(cap.getNamespace());
+                writeAttributes(atts);
+                writeDirectives(cap.getDirectives());
+            }
+            List<Requirement> reqs = resource.getRequirements(null);
+            out.writeInt(reqs.size());
+            for (Requirement req : reqs) {
+                writeString(req.getNamespace());
+                writeAttributes(req.getAttributes());
+                writeDirectives(req.getDirectives());
+            }
+        }
+
+        private void writeProfileAttributeValue(Object value) throws IOException {
+            if (value instanceof Integer) {
+                out.writeByte(INTEGER_VALUE);
+                out.writeInt((Integer) value);
+            } else if (value instanceof Long) {
+                out.writeByte(LONG_VALUE);
+                out.writeLong((Long) value);
+            } else if (value instanceof Boolean) {
+                out.writeByte(BOOLEAN_VALUE);
+                out.writeBoolean((Boolean) value);
+            } else if (value instanceof Double) {
+                out.writeByte(DOUBLE_VALUE);
+                out.writeDouble((Double) value);
+            } else {
+                // Other values are created from their string form by the attribute key's value factory
+                out.writeByte(STRING_VALUE);
+                writeString(value.toString());
+            }
+        }
+
+        private void writeAttributes(Map<String, Object> attributes) throws IOException {
+            out.writeInt(attributes.size());
+            for (Entry<String, Object> entry : attributes.entrySet()) {
+                writeString(entry.getKey());
+                writeAttributeValue(entry.getValue());
+            }
+        }
+
+        // Supports the attribute value types of the XML format
+        private void writeAttributeValue(Object value) throws IOException {
+            if (value instanceof List) {
+                List<?> list = (List<?>) value;
+                out.writeByte(LIST_VALUE);
+                out.writeInt(list.size());
+                for (Object element : list) {
+                    writeAttributeValue(element);
+                }
+            } else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+                out.writeByte(LONG_VALUE);
+                out.writeLong(((Number) value).longValue());
+            } else if (value instanceof Double || value instanceof Float) {
+                out.writeByte(DOUBLE_VALUE);
+                out.writeDouble(((Number) value).doubleValue());
+            } else if (value instanceof Version) {
+                out.writeByte(VERSION_VALUE);
+                writeString(value.toString());
+            } else {
+                out.writeByte(STRING_VALUE);
+                writeString(value.toString());
+            }
+        }
+
+        private void writeDirectives(Map<String, String> directives) throws IOException {
+            out.writeInt(directives.size());
+            for (Entry<String, String> entry : directives.entrySet()) {
+                writeString(entry.getKey());
+                writeString(entry.getValue());
+            }
+        }
+
+        // A known string is written as its table index, a new string as -1 followed by its bytes
+        private void writeString(String value) throws IOException {
+            Integer index = strings.get(value);
+            if (index != null) {
+                out.writeInt(index);
+            } else {
+                strings.put(value, strings.size());
+                out.writeInt(-1);
+                writeRawString(out, value);
+            }
+        }
+    }
+}
@@ -22,6 +22,8 @@ package io.fabric8.spi;
 import io.fabric8.api.ComponentEvent;
 import io.fabric8.api.ProfileEvent;
 import io.fabric8.api.ProfileEventListener;
+import io.fabric8.api.ProfileVersionEvent;
+import io.fabric8.api.ProfileVersionEventListener;
 import io.fabric8.api.ProvisionEvent;
 import io.fabric8.api.ProvisionEventListener;
 
@@ -31,6 +33,8 @@ public interface EventDispatcher {
 
     void dispatchProfileEvent(ProfileEvent event, ProfileEventListener listener);
 
+    void dispatchProfileVersionEvent(ProfileVersionEvent event, ProfileVersionEventListener listener);
+
     void dispatchComponentEvent(ComponentEvent event);
 
 }
@@ -0,0 +1,235 @@
+/*
+ * #%L
+ * Gravia :: Repository
+ * %%
+ * Copyright (C) 2012 - 2014 JBoss by Red Hat
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.fabric8.spi;
+
+import static javax.xml.stream.XMLStreamConstants.END_ELEMENT;
+import static javax.xml.stream.XMLStreamConstants.START_ELEMENT;
+import io.fabric8.api.Profile;
+import io.fabric8.api.ProfileIdentity;
+import io.fabric8.api.VersionIdentity;
+import io.fabric8.spi.ProfilesNamespace100.Attribute;
+import io.fabric8.spi.ProfilesNamespace100.Element;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.jboss.gravia.utils.IllegalArgumentAssertion;
+import org.jboss.gravia.utils.IllegalStateAssertion;
+
+/**
+ * Read profiles from XML on demand.
+ *
+ * A single scan builds an index of the profile identities and the character offsets of their elements.
+ * A profile is only parsed when it is requested, from its own element, and then kept for subsequent requests.
+ *
+ * StAX locations are not exact enough to seek to, so the offsets come from a scan of the markup
+ * and the identities from a StAX pass over the same document.
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 04-Jul-2014
+ */
+public class IndexedProfileXMLReader {
+
+    private final String text;
+    private final VersionIdentity profileVersion;
+    private final Map<ProfileIdentity, int[]> index = new LinkedHashMap<>();
+    private final Map<ProfileIdentity, Profile> profiles = new HashMap<>();
+    private final String rootStartTag;
+    private final String rootEndTag;
+
+    /**
+     * @param content The UTF-8 encoded profiles document
+     */
+    public IndexedProfileXMLReader(byte[] content) {
+        IllegalArgumentAssertion.assertNotNull(content, "content");
+        text = new String(content, StandardCharsets.UTF_8);
+
+        // The boundaries of the root element and its child elements
+        List<Integer> offsets = new ArrayList<>();
+        int rootStart = -1;
+        int rootEnd = -1;
+        int depth = 0;
+        int pos = text.indexOf('<');
+        while (pos >= 0) {
+            int end;
+            if (text.startsWith("<!--", pos)) {
+                end = text.indexOf("-->", pos) + 3;
+            } else if (text.startsWith("<![CDATA[", pos)) {
+                end = text.indexOf("]]>", pos) + 3;
+            } else if (text.startsWith("<?", pos)) {
+                end = text.indexOf("?>", pos) + 2;
+            } else if (text.startsWith("<!", pos)) {
+                end = skipDeclaration(pos);
+            } else if (text.startsWith("</", pos)) {
+                end = text.indexOf('>', pos) + 1;
+                if (--depth == 0) {
+                    rootEnd = pos;
+                }
+            } else {
+                end = skipTag(pos);
+                if (depth == 0) {
+                    rootStart = pos;
+                } else if (depth == 1) {
+                    offsets.add(pos);
+                }
+                if (text.charAt(end - 2) != '/') {
+                    depth++;
+                } else if (depth == 0) {
+                    rootEnd = end;
+                }
+            }
+            IllegalStateAssertion.assertTrue(end > pos, "Malformed profiles document at: " + pos);
+            pos = rootEnd < 0 ? text.indexOf('<', end) : -1;
+        }
+        IllegalStateAssertion.assertTrue(rootStart >= 0 && rootEnd >= 0, "Malformed profiles document");
+        rootStartTag = text.substring(rootStart, skipTag(rootStart));
+        rootEndTag = "</" + getTagName(rootStartTag) + ">";
+        offsets.add(rootEnd);
+
+        // The profile identities in document order
+        XMLStreamReader reader;
+        try {
+            reader = XMLInputFactory.newInstance().createXMLStreamReader(new StringReader(text));
+        } catch (XMLStreamException ex) {
+            throw new IllegalStateException("Cannot initialize profiles reader", ex);
+        }
+        try {
+            reader.nextTag();
+            reader.require(START_ELEMENT, ProfilesNamespace100.PROFILES_NAMESPACE, Element.PROFILES.getLocalName());
+            profileVersion = VersionIdentity.createFrom(reader.getAttributeValue(null, Attribute.VERSION.getLocalName()));
+            while (reader.hasNext() && reader.nextTag() == START_ELEMENT) {
+                Element element = Element.forName(reader.getLocalName());
+                IllegalStateAssertion.assertEquals(Element.PROFILE, element, "Unsupported element: " + reader.getLocalName());
+                ProfileIdentity identity = ProfileIdentity.createFrom(reader.getAttributeValue(null, Attribute.NAME.getLocalName()));
+                int position = index.size();
+                IllegalStateAssertion.assertTrue(position + 1 < offsets.size(), "Profile not indexed: " + identity);
+                IllegalStateAssertion.assertNull(index.put(identity, new int[] { offsets.get(position), offsets.get(position + 1) }), "Duplicate profile: " + identity);
+                skipElement(reader);
+            }
+        } catch (XMLStreamException ex) {
+            throw new IllegalStateException("Cannot index profiles: " + reader.getLocation(), ex);
+        } finally {
+            try {
+                reader.close();
+            } catch (XMLStreamException ex) {
+                // ignore
+            }
+        }
+        IllegalStateAssertion.assertEquals(offsets.size() - 1, index.size(), "Unexpected number of profile elements");
+    }
+
+    public VersionIdentity getProfileVersion() {
+        return profileVersion;
+    }
+
+    public Set<ProfileIdentity> getProfileIdentities() {
+        return Collections.unmodifiableSet(index.keySet());
+    }
+
+    /**
+     * Get the profile for the given identity
+     * @return null if there is no such profile
+     */
+    public synchronized Profile getProfile(ProfileIdentity identity) {
+        Profile profile = profiles.get(identity);
+        if (profile == null) {
+            int[] range = index.get(identity);
+            if (range == null)
+                return null;
+            // Parse the profile element within the root element, which declares the namespace
+            String fragment = rootStartTag + text.substring(range[0], range[1]) + rootEndTag;
+            AbstractProfileXMLReader reader = new DefaultProfileXMLReader(new ByteArrayInputStream(fragment.getBytes(StandardCharsets.UTF_8)));
+            try {
+                profile = reader.nextProfile();
+            } finally {
+                reader.close();
+            }
+            IllegalStateAssertion.assertEquals(identity, profile.getIdentity(), "Unexpected profile");
+            profiles.put(identity, profile);
+        }
+        return profile;
+    }
+
+    private void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0 && reader.hasNext()) {
+            int event = reader.next();
+            if (event == START_ELEMENT) {
+                depth++;
+            } else if (event == END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    // The offset after a start tag, attribute values may contain '>'
+    private int skipTag(int pos) {
+        char quote = 0;
+        for (int i = pos + 1; i < text.length(); i++) {
+            char ch = text.charAt(i);
+            if (quote != 0) {
+                if (ch == quote) {
+                    quote = 0;
+                }
+            } else if (ch == '"' || ch == '\'') {
+                quote = ch;
+            } else if (ch == '>') {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    // The offset after a declaration like DOCTYPE, which may have an internal subset
+    private int skipDeclaration(int pos) {
+        int brackets = 0;
+        for (int i = pos + 2; i < text.length(); i++) {
+            char ch = text.charAt(i);
+            if (ch == '[') {
+                brackets++;
+            } else if (ch == ']') {
+                brackets--;
+            } else if (ch == '>' && brackets == 0) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    private static String getTagName(String startTag) {
+        int end = 1;
+        while (end < startTag.length() && !Character.isWhitespace(startTag.charAt(end)) && startTag.charAt(end) != '>' && startTag.charAt(end) != '/') {
+            end++;
+        }
+        return startTag.substring(1, end);
+    }
+}
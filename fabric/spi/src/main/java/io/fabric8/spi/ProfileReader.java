@@ -20,6 +20,7 @@
 package io.fabric8.spi;
 
 import io.fabric8.api.Profile;
+import io.fabric8.api.ProfileIdentity;
 import io.fabric8.api.VersionIdentity;
 
 import java.io.IOException;
@@ -36,5 +37,11 @@ public interface ProfileReader {
 
     Profile nextProfile();
 
+    /**
+     * Skip the next profile without reading its content
+     * @return The identity of the skipped profile or null if there are no more profiles
+     */
+    ProfileIdentity skipProfile();
+
     void close();
 }
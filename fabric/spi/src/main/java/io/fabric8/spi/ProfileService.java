@@ -30,6 +30,7 @@ import io.fabric8.spi.permit.PermitKey;
 import java.io.IOException;
 import java.net.URL;
 import java.net.URLConnection;
+import java.util.List;
 
 /**
  * The internal profile service
@@ -52,6 +53,14 @@ public interface ProfileService extends ProfileManager {
 
     Profile getRequiredProfile(VersionIdentity version, ProfileIdentity identity);
 
+    /**
+     * Get the effective profile for the given ordered list of profiles
+     *
+     * The effective profile is computed once and then served from cache
+     * until any of the profiles it was built from is updated or removed.
+     */
+    Profile getEffectiveProfile(VersionIdentity version, List<ProfileIdentity> identities);
+
     /**
      * Get an url connection to content in the profile registry
      *
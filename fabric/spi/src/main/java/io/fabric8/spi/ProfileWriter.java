@@ -20,6 +20,7 @@ package io.fabric8.spi;
  */
 
 import io.fabric8.api.LinkedProfileVersion;
+import io.fabric8.api.Profile;
 
 import java.io.Closeable;
 import java.io.IOException;
@@ -33,4 +34,9 @@ import java.io.IOException;
 public interface ProfileWriter extends Closeable {
 
     void writeProfileVersion(LinkedProfileVersion profileVersion) throws IOException;
+
+    /**
+     * Write a single profile document, which does not contain the profile's parents
+     */
+    void writeProfile(Profile profile) throws IOException;
 }
@@ -0,0 +1,66 @@
+/*
+ * #%L
+ * Gravia :: Repository
+ * %%
+ * Copyright (C) 2012 - 2014 JBoss by Red Hat
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.fabric8.spi;
+
+/**
+ * Constants for the binary profile format.
+ *
+ * A document starts with the magic number, the format version and the profile version.
+ * It is followed by profile records and an end marker. Each record carries the profile identity
+ * and the length of its body, so that a reader can skip profiles without parsing them.
+ * Strings within a record body are interned in a string table that is local to the record.
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 05-Jul-2014
+ */
+public final class ProfilesBinaryFormat {
+
+    public static final int MAGIC = 0x46385046;
+    public static final short FORMAT_VERSION = 1;
+
+    static final byte END_OF_PROFILES = 0;
+    static final byte PROFILE_RECORD = 1;
+
+    static final byte CONFIGURATION_ITEM = 1;
+    static final byte RESOURCE_ITEM = 2;
+    static final byte REQUIREMENT_ITEM = 3;
+
+    static final byte STRING_VALUE = 1;
+    static final byte LONG_VALUE = 2;
+    static final byte DOUBLE_VALUE = 3;
+    static final byte VERSION_VALUE = 4;
+    static final byte LIST_VALUE = 5;
+    static final byte INTEGER_VALUE = 6;
+    static final byte BOOLEAN_VALUE = 7;
+
+    // Hide ctor
+    private ProfilesBinaryFormat() {
+    }
+
+    /**
+     * True if the given content starts with the binary format magic number
+     */
+    public static boolean isBinaryFormat(byte[] content) {
+        if (content == null || content.length < 4)
+            return false;
+        int magic = (content[0] & 0xFF) << 24 | (content[1] & 0xFF) << 16 | (content[2] & 0xFF) << 8 | (content[3] & 0xFF);
+        return magic == MAGIC;
+    }
+}
@@ -27,6 +27,8 @@ import io.fabric8.api.ProfileEventListener;
 import io.fabric8.api.ProfileIdentity;
 import io.fabric8.api.ProfileManager;
 import io.fabric8.api.ProfileVersion;
+import io.fabric8.api.ProfileVersionDiff;
+import io.fabric8.api.ProfileVersionEventListener;
 import io.fabric8.api.VersionIdentity;
 import io.fabric8.spi.ProfileService;
 import io.fabric8.spi.permit.PermitManager;
@@ -141,6 +143,28 @@ public final class ProfileManagerImpl extends AbstractComponent implements Profi
         }
     }
 
+    @Override
+    public ProfileVersion forkProfileVersion(VersionIdentity source, VersionIdentity target) {
+        Permit<ProfileService> permit = permitManager.get().aquirePermit(ProfileService.PERMIT, false);
+        try {
+            ProfileService service = permit.getInstance();
+            return service.forkProfileVersion(source, target);
+        } finally {
+            permit.release();
+        }
+    }
+
+    @Override
+    public ProfileVersionDiff diffProfileVersions(VersionIdentity source, VersionIdentity target) {
+        Permit<ProfileService> permit = permitManager.get().aquirePermit(ProfileService.PERMIT, false);
+        try {
+            ProfileService service = permit.getInstance();
+            return service.diffProfileVersions(source, target);
+        } finally {
+            permit.release();
+        }
+    }
+
     @Override
     public ProfileVersion removeProfileVersion(VersionIdentity version) {
         Permit<ProfileService> permit = permitManager.get().aquirePermit(ProfileService.PERMIT, false);
@@ -251,6 +275,17 @@ public final class ProfileManagerImpl extends AbstractComponent implements Profi
         }
     }
 
+    @Override
+    public ProfileVersion updateProfiles(VersionIdentity version, Set<Profile> profiles, Set<ProfileIdentity> removed, ProfileVersionEventListener listener) {
+        Permit<ProfileService> permit = permitManager.get().aquirePermit(ProfileService.PERMIT, false);
+        try {
+            ProfileService service = permit.getInstance();
+            return service.updateProfiles(version, profiles, removed, listener);
+        } finally {
+            permit.release();
+        }
+    }
+
     void bindPermitManager(PermitManager service) {
         this.permitManager.bind(service);
     }
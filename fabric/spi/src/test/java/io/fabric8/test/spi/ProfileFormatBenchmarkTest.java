@@ -0,0 +1,183 @@
+/*
+ * #%L
+ * Fabric8 :: SPI
+ * %%
+ * Copyright (C) 2014 Red Hat
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.fabric8.test.spi;
+
+import io.fabric8.api.AttributeKey;
+import io.fabric8.api.ConfigurationItem;
+import io.fabric8.api.LinkedProfileVersion;
+import io.fabric8.api.Profile;
+import io.fabric8.api.ProfileBuilder;
+import io.fabric8.api.ProfileIdentity;
+import io.fabric8.api.ProfileVersionBuilder;
+import io.fabric8.api.VersionIdentity;
+import io.fabric8.spi.DefaultConfigurationItemBuilder;
+import io.fabric8.spi.DefaultProfileBinaryReader;
+import io.fabric8.spi.DefaultProfileBinaryWriter;
+import io.fabric8.spi.DefaultProfileBuilder;
+import io.fabric8.spi.DefaultProfileVersionBuilder;
+import io.fabric8.spi.DefaultProfileXMLReader;
+import io.fabric8.spi.DefaultProfileXMLWriter;
+import io.fabric8.spi.ProfileReader;
+import io.fabric8.spi.ProfileWriter;
+import io.fabric8.spi.ProfilesBinaryFormat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.gravia.resource.IdentityRequirementBuilder;
+import org.jboss.gravia.resource.ResourceIdentity;
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compare the {@link DefaultProfileXMLWriter}, {@link DefaultProfileXMLReader} with
+ * the {@link DefaultProfileBinaryWriter}, {@link DefaultProfileBinaryReader} on a large profile version.
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 05-Jul-2014
+ */
+public class ProfileFormatBenchmarkTest {
+
+    static final Logger LOGGER = LoggerFactory.getLogger(ProfileFormatBenchmarkTest.class);
+
+    static final int PROFILE_COUNT = 500;
+    static final int ITERATIONS = 10;
+
+    static AttributeKey<String> KEYA = AttributeKey.create("keyA");
+    static AttributeKey<Integer> KEYB = AttributeKey.create("keyB", Integer.class);
+
+    @Test
+    public void testBinaryRoundTrip() throws Exception {
+        LinkedProfileVersion exp = createProfileVersion(20);
+        byte[] bytes = writeProfileVersion(exp, false);
+        Assert.assertTrue(ProfilesBinaryFormat.isBinaryFormat(bytes));
+        assertEquals(exp, readProfileVersion(bytes, false));
+    }
+
+    @Test
+    public void testBinarySkipProfile() throws Exception {
+        LinkedProfileVersion exp = createProfileVersion(20);
+        byte[] bytes = writeProfileVersion(exp, false);
+        DefaultProfileBinaryReader reader = new DefaultProfileBinaryReader(new ByteArrayInputStream(bytes));
+        Assert.assertEquals("prf0", reader.skipProfile().getSymbolicName());
+        Profile profile = reader.nextProfile();
+        Assert.assertEquals(exp.getLinkedProfile(profile.getIdentity()).getProfileItems(null), profile.getProfileItems(null));
+        reader.close();
+    }
+
+    @Test
+    @Ignore("Benchmark, run on demand")
+    public void testReadWritePerformance() throws Exception {
+        LinkedProfileVersion profileVersion = createProfileVersion(PROFILE_COUNT);
+        byte[] xmlBytes = writeProfileVersion(profileVersion, true);
+        byte[] binBytes = writeProfileVersion(profileVersion, false);
+        assertEquals(profileVersion, readProfileVersion(xmlBytes, true));
+        assertEquals(profileVersion, readProfileVersion(binBytes, false));
+
+        long xmlWrite = 0, xmlRead = 0, binWrite = 0, binRead = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = System.nanoTime();
+            writeProfileVersion(profileVersion, true);
+            xmlWrite += System.nanoTime() - start;
+            start = System.nanoTime();
+            readProfileVersion(xmlBytes, true);
+            xmlRead += System.nanoTime() - start;
+            start = System.nanoTime();
+            writeProfileVersion(profileVersion, false);
+            binWrite += System.nanoTime() - start;
+            start = System.nanoTime();
+            readProfileVersion(binBytes, false);
+            binRead += System.nanoTime() - start;
+        }
+        LOGGER.info("{} profiles, {} iterations", PROFILE_COUNT, ITERATIONS);
+        LOGGER.info("XML:    size={} write={}ms read={}ms", new Object[] { xmlBytes.length, toMillis(xmlWrite), toMillis(xmlRead) });
+        LOGGER.info("Binary: size={} write={}ms read={}ms", new Object[] { binBytes.length, toMillis(binWrite), toMillis(binRead) });
+    }
+
+    private LinkedProfileVersion createProfileVersion(int count) {
+        VersionIdentity version = VersionIdentity.createFrom("1.0");
+        ProfileVersionBuilder versionBuilder = new DefaultProfileVersionBuilder(version);
+        for (int i = 0; i < count; i++) {
+            ProfileBuilder builder = new DefaultProfileBuilder("prf" + i)
+                .addAttribute(KEYA, "val" + i)
+                .addAttribute(KEYB, i);
+            if (i > 0) {
+                builder.addParentProfile(ProfileIdentity.create("prf" + (i - 1)));
+            }
+            for (int j = 0; j < 3; j++) {
+                Map<String, Object> atts = new HashMap<>();
+                for (int k = 0; k < 20; k++) {
+                    atts.put("key" + k, "value" + k);
+                }
+                ConfigurationItem item = new DefaultConfigurationItemBuilder("item" + j)
+                    .addConfiguration("mid" + j, atts, new HashMap<String, String>())
+                    .getConfigurationItem();
+                builder.addProfileItem(item);
+            }
+            ResourceIdentity featureId = ResourceIdentity.fromString("feature" + (i % 10) + ":1.0.0");
+            builder.addRequirementItem(new IdentityRequirementBuilder(featureId).getRequirement());
+            versionBuilder.addProfile(builder.getProfile());
+        }
+        return versionBuilder.getProfileVersion();
+    }
+
+    private byte[] writeProfileVersion(LinkedProfileVersion profileVersion, boolean xml) throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ProfileWriter writer = xml ? new DefaultProfileXMLWriter(baos) : new DefaultProfileBinaryWriter(baos);
+        writer.writeProfileVersion(profileVersion);
+        writer.close();
+        return baos.toByteArray();
+    }
+
+    private LinkedProfileVersion readProfileVersion(byte[] bytes, boolean xml) throws Exception {
+        ByteArrayInputStream bais = new ByteArrayInputStream(bytes);
+        ProfileReader reader = xml ? new DefaultProfileXMLReader(bais) : new DefaultProfileBinaryReader(bais);
+        VersionIdentity version = reader.getProfileVersion();
+        ProfileVersionBuilder builder = new DefaultProfileVersionBuilder(version);
+        Profile profile = reader.nextProfile();
+        while (profile != null) {
+            builder.addProfile(profile);
+            profile = reader.nextProfile();
+        }
+        reader.close();
+        return builder.getProfileVersion();
+    }
+
+    private void assertEquals(LinkedProfileVersion exp, LinkedProfileVersion was) throws Exception {
+        Assert.assertEquals(exp.getIdentity(), was.getIdentity());
+        Assert.assertEquals(exp.getLinkedProfiles(), was.getLinkedProfiles());
+        for (Profile pwas : was.getLinkedProfiles().values()) {
+            Profile pexp = exp.getLinkedProfile(pwas.getIdentity());
+            Assert.assertEquals(pexp.getAttributes(), pwas.getAttributes());
+            Assert.assertEquals(pexp.getParents(), pwas.getParents());
+            Assert.assertEquals(pexp.getProfileItems(null), pwas.getProfileItems(null));
+        }
+    }
+
+    private static long toMillis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+}
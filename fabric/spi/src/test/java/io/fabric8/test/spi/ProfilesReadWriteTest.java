@@ -23,6 +23,7 @@ import io.fabric8.api.AttributeKey;
 import io.fabric8.api.ConfigurationItem;
 import io.fabric8.api.LinkedProfileVersion;
 import io.fabric8.api.Profile;
+import io.fabric8.api.ProfileIdentity;
 import io.fabric8.api.ProfileVersionBuilder;
 import io.fabric8.api.VersionIdentity;
 import io.fabric8.spi.DefaultConfigurationItemBuilder;
@@ -30,14 +31,18 @@ import io.fabric8.spi.DefaultProfileBuilder;
 import io.fabric8.spi.DefaultProfileVersionBuilder;
 import io.fabric8.spi.DefaultProfileXMLReader;
 import io.fabric8.spi.DefaultProfileXMLWriter;
+import io.fabric8.spi.IndexedProfileXMLReader;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
 
 import javax.xml.transform.OutputKeys;
@@ -187,6 +192,44 @@ public class ProfilesReadWriteTest {
         assertEquals(exp, readProfileVersion(xmlString));
     }
 
+    @Test
+    public void testIndexedProfiles() throws Exception {
+
+        Profile prfA = new DefaultProfileBuilder("prfA")
+            .addAttribute(KEYA, "valA")
+            .getProfile();
+
+        Profile prfB = new DefaultProfileBuilder("prfB")
+            .addParentProfile(prfA.getIdentity())
+            .getProfile();
+
+        Profile prfC = new DefaultProfileBuilder("prfC")
+            .addConfigurationItem("pidC", Collections.singletonMap("key", (Object) "valC"))
+            .getProfile();
+
+        VersionIdentity version = VersionIdentity.createFrom("1.0");
+        LinkedProfileVersion exp = new DefaultProfileVersionBuilder(version)
+            .addProfile(prfA)
+            .addProfile(prfB)
+            .addProfile(prfC)
+            .getProfileVersion();
+
+        String xmlString = writeProfileVersion(exp, null);
+        IndexedProfileXMLReader reader = new IndexedProfileXMLReader(xmlString.getBytes(StandardCharsets.UTF_8));
+        Assert.assertEquals(version, reader.getProfileVersion());
+        Assert.assertEquals(new LinkedHashSet<>(Arrays.asList(prfA.getIdentity(), prfB.getIdentity(), prfC.getIdentity())), reader.getProfileIdentities());
+
+        // Each profile is read from its own element, in any order
+        for (ProfileIdentity profileId : Arrays.asList(prfC.getIdentity(), prfA.getIdentity(), prfB.getIdentity())) {
+            Profile pwas = reader.getProfile(profileId);
+            Profile pexp = exp.getLinkedProfile(profileId);
+            Assert.assertEquals(pexp.getAttributes(), pwas.getAttributes());
+            Assert.assertEquals(pexp.getParents(), pwas.getParents());
+            Assert.assertEquals(pexp.getProfileItems(null), pwas.getProfileItems(null));
+        }
+        Assert.assertNull(reader.getProfile(ProfileIdentity.createFrom("prfX")));
+    }
+
     private String writeProfileVersion(LinkedProfileVersion profileVersion, RepositoryWriter.ContentHandler contentHandler) throws Exception {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         DefaultProfileXMLWriter writer = new DefaultProfileXMLWriter(baos, contentHandler);
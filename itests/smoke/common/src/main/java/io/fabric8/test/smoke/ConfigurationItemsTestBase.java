@@ -131,7 +131,7 @@ public abstract class ConfigurationItemsTestBase {
         // Update the default profile
         Profile defaultProfile = prfManager.updateProfile(updateProfile, profileListener);
         Assert.assertTrue("ProfileEvent received", latchA.get().await(1, TimeUnit.SECONDS));
-        Assert.assertTrue("ProvisionEvent received", latchB.get().await(1, TimeUnit.SECONDS));
+        Assert.assertTrue("ProvisionEvent received", latchB.get().await(10, TimeUnit.SECONDS));
         Assert.assertEquals("Two items", 2, defaultProfile.getProfileItems(null).size());
 
         // Verify the configuration
@@ -149,7 +149,7 @@ public abstract class ConfigurationItemsTestBase {
         latchB.set(new CountDownLatch(1));
         defaultProfile = prfManager.updateProfile(updateProfile, profileListener);
         Assert.assertTrue("ProfileEvent received", latchA.get().await(1, TimeUnit.SECONDS));
-        Assert.assertTrue("ProvisionEvent received", latchB.get().await(1, TimeUnit.SECONDS));
+        Assert.assertTrue("ProvisionEvent received", latchB.get().await(10, TimeUnit.SECONDS));
         Assert.assertEquals("One item", 1, defaultProfile.getProfileItems(null).size());
 
         sregB.unregister();
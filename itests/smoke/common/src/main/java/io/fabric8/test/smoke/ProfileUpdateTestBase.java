@@ -219,8 +219,9 @@ public abstract class ProfileUpdateTestBase  {
         // Update the default profile
         Profile profile = prfManager.updateProfile(updateProfile, profileListener);
         Assert.assertTrue("ProfileEvent received", latchA.get().await(1, TimeUnit.SECONDS));
-        Assert.assertTrue("ProvisionEvent received", latchB.get().await(1, TimeUnit.SECONDS));
-        Assert.assertTrue("ComponentEvent received", latchC.get().await(1, TimeUnit.SECONDS));
+        // Provisioning follows a profile update asynchronously, after the coalescing window
+        Assert.assertTrue("ProvisionEvent received", latchB.get().await(10, TimeUnit.SECONDS));
+        Assert.assertTrue("ComponentEvent received", latchC.get().await(10, TimeUnit.SECONDS));
         sregB.unregister();
         sregC.unregister();
 
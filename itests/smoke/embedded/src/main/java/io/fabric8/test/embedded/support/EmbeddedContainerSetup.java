@@ -93,6 +93,9 @@ public class EmbeddedContainerSetup implements EmbeddedRuntimeSetup {
         System.setProperty(RUNTIME_DATA_DIR, homePath.resolve("data").toString());
         System.setProperty(RUNTIME_CONF_DIR, homePath.resolve("conf").toString());
 
+        // Provision profile updates without a coalescing delay
+        System.setProperty("fabric8.provision.coalesce.window", "0");
+
         // Delete the container's home directory - every test case starts fresh
         FileUtils.deleteRecursively(homePath);
 